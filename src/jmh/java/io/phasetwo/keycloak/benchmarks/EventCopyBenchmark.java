@@ -0,0 +1,78 @@
+package io.phasetwo.keycloak.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import io.phasetwo.keycloak.representation.ExtendedAdminEvent;
+import io.phasetwo.keycloak.representation.ExtendedAuthDetails;
+import java.util.concurrent.TimeUnit;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.util.JsonSerialization;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of copying an event once per webhook before it is sent: the copy constructor, against the
+ * JSON round trip it replaced. The representation size stands in for the admin event payload,
+ * which is the bulk of the work for the round trip.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventCopyBenchmark {
+
+  @Param({"64", "4096"})
+  public int representationBytes;
+
+  private ExtendedAdminEvent event;
+
+  @Setup
+  public void setup() {
+    event = new ExtendedAdminEvent();
+    event.setUid("uid");
+    event.setType("admin.USER-UPDATE");
+    event.setId("admin-event-id");
+    event.setTime(System.currentTimeMillis());
+    event.setRealmId("realm-uuid");
+    event.setRealmName("acme");
+    event.setOperationType(OperationType.UPDATE);
+    event.setResourceType(ResourceType.USER);
+    event.setResourcePath("users/0b7e6d4a-3c2f-4e55-9a1b-2f9d6c3e8a10");
+    event.setRepresentation("{\"attributes\":\"" + "x".repeat(representationBytes) + "\"}");
+    event.setDetails(ImmutableMap.of("userId", "0b7e6d4a", "username", "alice"));
+    ExtendedAuthDetails auth = new ExtendedAuthDetails();
+    auth.setRealmId("master");
+    auth.setClientId("admin-cli");
+    auth.setUserId("admin-user-uuid");
+    auth.setIpAddress("10.0.0.2");
+    auth.setUsername("admin");
+    event.setAuthDetails(auth);
+  }
+
+  @Benchmark
+  public ExtendedAdminEvent copyConstructor() {
+    ExtendedAdminEvent copy = new ExtendedAdminEvent(event);
+    copy.setUid(null);
+    return copy;
+  }
+
+  @Benchmark
+  public ExtendedAdminEvent jsonRoundTrip() throws Exception {
+    ExtendedAdminEvent copy =
+        JsonSerialization.readValue(
+            JsonSerialization.writeValueAsString(event), ExtendedAdminEvent.class);
+    copy.setUid(null);
+    return copy;
+  }
+}
@@ -0,0 +1,94 @@
+package io.phasetwo.keycloak.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import io.phasetwo.keycloak.events.FlatAdminEvent;
+import io.phasetwo.keycloak.events.FlatEvent;
+import io.phasetwo.keycloak.events.LogContext;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of flattening events for the MDC logger, and of pushing the flattened fields onto the MDC
+ * and popping them again around a log line.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlatEventBenchmark {
+
+  private Event event;
+  private AdminEvent adminEvent;
+  private FlatEvent flatEvent;
+
+  @Setup
+  public void setup() {
+    event = new Event();
+    event.setId("event-id");
+    event.setTime(System.currentTimeMillis());
+    event.setType(EventType.LOGIN);
+    event.setRealmId("realm-uuid");
+    event.setRealmName("acme");
+    event.setClientId("account-console");
+    event.setUserId("0b7e6d4a-3c2f-4e55-9a1b-2f9d6c3e8a10");
+    event.setSessionId("session-id");
+    event.setIpAddress("10.0.0.1");
+    event.setDetails(
+        ImmutableMap.of(
+            "auth_method", "openid-connect",
+            "redirect_uri", "https://app.example.com/callback",
+            "username", "alice"));
+
+    adminEvent = new AdminEvent();
+    adminEvent.setId("admin-event-id");
+    adminEvent.setTime(System.currentTimeMillis());
+    adminEvent.setRealmId("realm-uuid");
+    adminEvent.setOperationType(OperationType.UPDATE);
+    adminEvent.setResourceType(ResourceType.USER);
+    adminEvent.setResourcePath("users/0b7e6d4a-3c2f-4e55-9a1b-2f9d6c3e8a10");
+    adminEvent.setRepresentation("{\"firstName\":\"Alice\"}");
+    AuthDetails auth = new AuthDetails();
+    auth.setRealmId("master");
+    auth.setClientId("admin-cli");
+    auth.setUserId("admin-user-uuid");
+    auth.setIpAddress("10.0.0.2");
+    adminEvent.setAuthDetails(auth);
+
+    flatEvent = new FlatEvent(event);
+  }
+
+  @Benchmark
+  public Map<String, Object> eventToMap() {
+    return new FlatEvent(event).toMap();
+  }
+
+  @Benchmark
+  public Map<String, Object> adminEventToMap() {
+    return new FlatAdminEvent(adminEvent).toMap();
+  }
+
+  @Benchmark
+  public void logContext() {
+    try (LogContext ctx = LogContext.with(flatEvent, "event.")) {
+      // the log line would go here
+    }
+  }
+}
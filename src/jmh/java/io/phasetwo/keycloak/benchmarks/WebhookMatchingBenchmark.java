@@ -0,0 +1,67 @@
+package io.phasetwo.keycloak.benchmarks;
+
+import com.google.common.collect.ImmutableSet;
+import io.phasetwo.keycloak.events.WebhookEventTypeMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of checking which of a realm's webhooks an event goes to, as the listener does for every
+ * event. The webhooks subscribe with a mix of exact types, prefixes and regexes, and their matchers
+ * are compiled once, as they are cached per webhook.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WebhookMatchingBenchmark {
+
+  private static final List<Set<String>> SUBSCRIPTIONS =
+      List.of(
+          ImmutableSet.of("*"),
+          ImmutableSet.of("access.LOGIN", "access.LOGOUT"),
+          ImmutableSet.of("admin.*"),
+          ImmutableSet.of("access.*", "system.*"),
+          ImmutableSet.of("admin.USER-.*", "admin.GROUP_MEMBERSHIP-.*"),
+          ImmutableSet.of("access.REGISTER", "access.UPDATE_PASSWORD", "admin.CLIENT-CREATE"));
+
+  @Param({"1", "10", "100"})
+  public int webhooks;
+
+  @Param({"access.LOGIN", "admin.USER-UPDATE"})
+  public String type;
+
+  private List<WebhookEventTypeMatcher> matchers;
+
+  @Setup
+  public void setup() {
+    matchers = new ArrayList<>(webhooks);
+    for (int i = 0; i < webhooks; i++) {
+      matchers.add(WebhookEventTypeMatcher.compile(SUBSCRIPTIONS.get(i % SUBSCRIPTIONS.size())));
+    }
+  }
+
+  @Benchmark
+  public int enabledFor() {
+    int enabled = 0;
+    for (WebhookEventTypeMatcher m : matchers) {
+      if (m.matches(type)) enabled++;
+    }
+    return enabled;
+  }
+}
@@ -0,0 +1,118 @@
+package io.phasetwo.keycloak.events;
+
+import com.github.xgp.util.BackOff;
+import com.google.common.collect.ImmutableMap;
+import com.sun.net.httpserver.HttpServer;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.keycloak.Config;
+import org.keycloak.events.EventType;
+import org.keycloak.representations.idm.EventRepresentation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sends per second through the HTTP sender, end to end: serializing the event, signing it, posting
+ * it and handling the response, against a receiver on loopback that answers {@code 204} at once.
+ * Measures the sender rather than a network or a real endpoint. Run with {@code -t} to send from
+ * several threads at once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SendThroughputBenchmark {
+
+  /** {@code blocking} or {@code async}, as in the listener's {@code httpEngine}. */
+  @Param({"blocking", "async"})
+  public String engine;
+
+  private HttpServer server;
+  private ExecutorService serverThreads;
+  private ScheduledThreadPoolExecutor exec;
+  private CloseableHttpClient http;
+  private AsyncSenderClient async;
+  private HttpSenderEventListenerProvider provider;
+  private EventRepresentation event;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+    server.createContext(
+        "/",
+        exchange -> {
+          exchange.getRequestBody().readAllBytes();
+          exchange.sendResponseHeaders(204, -1);
+          exchange.close();
+        });
+    serverThreads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    server.setExecutor(serverThreads);
+    server.start();
+    String uri = "http://127.0.0.1:" + server.getAddress().getPort() + "/hook";
+
+    Config.Scope scope = scope(ImmutableMap.of(AsyncSenderClient.ENGINE, engine));
+    exec = new ScheduledThreadPoolExecutor(1);
+    async = AsyncSenderClient.create(scope);
+    http = async == null ? SenderHttpClients.create(scope) : null;
+    provider = new HttpSenderEventListenerProvider(null, exec, http, async);
+    provider.setConfig(
+        ImmutableMap.<String, Object>of(
+            HttpSenderEventListenerProvider.TARGET_URI, uri,
+            HttpSenderEventListenerProvider.SHARED_SECRET, "secret",
+            HttpSenderEventListenerProvider.RETRY, "false"));
+
+    event = new EventRepresentation();
+    event.setId("event-id");
+    event.setTime(System.currentTimeMillis());
+    event.setType(EventType.LOGIN.name());
+    event.setRealmId("realm-uuid");
+    event.setClientId("account-console");
+    event.setUserId("0b7e6d4a-3c2f-4e55-9a1b-2f9d6c3e8a10");
+    event.setIpAddress("10.0.0.1");
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() throws Exception {
+    if (async != null) async.close();
+    if (http != null) http.close();
+    exec.shutdownNow();
+    server.stop(0);
+    serverThreads.shutdownNow();
+  }
+
+  @Benchmark
+  public void send() throws Exception {
+    provider.attempt(provider.new SenderTask(event, BackOff.STOP_BACKOFF)).get();
+  }
+
+  private static Config.Scope scope(Map<String, String> values) {
+    return (Config.Scope)
+        Proxy.newProxyInstance(
+            SendThroughputBenchmark.class.getClassLoader(),
+            new Class<?>[] {Config.Scope.class},
+            (proxy, method, args) -> {
+              String value = values.get((String) args[0]);
+              if (value != null) return value;
+              return args.length > 1 ? args[1] : null;
+            });
+  }
+}
@@ -0,0 +1,55 @@
+package io.phasetwo.keycloak.events;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the per-delivery signatures over a payload: the {@code X-Keycloak-Signature} HMAC, and
+ * the SHA-256 body hash that goes in the {@code Authorization} JWT.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SigningBenchmark {
+
+  @Param({"256", "4096", "65536"})
+  public int payloadBytes;
+
+  @Param({"HmacSHA256"})
+  public String algorithm;
+
+  private byte[] payload;
+
+  @Setup
+  public void setup() {
+    byte[] body = new byte[payloadBytes];
+    Arrays.fill(body, (byte) 'x');
+    payload = ("{\"a\":\"" + new String(body, StandardCharsets.UTF_8) + "\"}").getBytes(
+        StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public String hmac() throws Exception {
+    return HttpSenderEventListenerProvider.calculateHmacSha(payload, "secret", algorithm);
+  }
+
+  @Benchmark
+  public String sha256Hex() throws Exception {
+    return WebhookJwtSigner.sha256Hex(payload);
+  }
+}
@@ -0,0 +1,101 @@
+package io.phasetwo.keycloak.events;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.Config;
+
+/**
+ * The non-blocking delivery engine, selected with {@code httpEngine=async}. A request is handed to
+ * the JDK {@link HttpClient} and the calling thread returns straight away. The response is handled
+ * on a small pool of callback threads, so many deliveries can be in flight without holding a sender
+ * thread each. Shared by all of the sender providers created by a factory, which closes it.
+ */
+@JBossLog
+final class AsyncSenderClient {
+
+  static final String ENGINE = "httpEngine";
+  static final String ENGINE_BLOCKING = "blocking";
+  static final String ENGINE_ASYNC = "async";
+  static final String CALLBACK_THREADS = "asyncCallbackThreads";
+
+  private final HttpClient client;
+  private final ExecutorService callbacks;
+  private final Duration requestTimeout;
+
+  private AsyncSenderClient(HttpClient client, ExecutorService callbacks, Duration requestTimeout) {
+    this.client = client;
+    this.callbacks = callbacks;
+    this.requestTimeout = requestTimeout;
+  }
+
+  /** Create the client if the SPI config selects the async engine, otherwise null. */
+  static AsyncSenderClient create(Config.Scope scope) {
+    String engine = scope.get(ENGINE, ENGINE_BLOCKING);
+    if (!ENGINE_ASYNC.equalsIgnoreCase(engine.trim())) {
+      if (!ENGINE_BLOCKING.equalsIgnoreCase(engine.trim())) {
+        log.warnf("Invalid %s=%s; using %s", ENGINE, engine, ENGINE_BLOCKING);
+      }
+      return null;
+    }
+    int threads =
+        scope.getInt(CALLBACK_THREADS, Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    int connectTimeout =
+        scope.getInt(SenderHttpClients.CONNECT_TIMEOUT, SenderHttpClients.DEFAULT_CONNECT_TIMEOUT);
+    int socketTimeout =
+        scope.getInt(SenderHttpClients.SOCKET_TIMEOUT, SenderHttpClients.DEFAULT_SOCKET_TIMEOUT);
+    log.infof(
+        "async HTTP sender: callbackThreads %d, connectTimeout %d, requestTimeout %d",
+        threads, connectTimeout, socketTimeout);
+    ExecutorService callbacks = Executors.newFixedThreadPool(threads, daemonThreads());
+    HttpClient client =
+        HttpClient.newBuilder()
+            // same protocol as the blocking engine. not every receiver handles an h2c upgrade
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .connectTimeout(Duration.ofMillis(connectTimeout))
+            .executor(callbacks)
+            .build();
+    return new AsyncSenderClient(client, callbacks, Duration.ofMillis(socketTimeout));
+  }
+
+  /**
+   * POST a JSON body. The future completes with the response status, or exceptionally if no
+   * response was received.
+   */
+  CompletableFuture<Integer> post(String uri, byte[] body, Map<String, String> headers) {
+    HttpRequest.Builder request =
+        HttpRequest.newBuilder(URI.create(uri))
+            .timeout(requestTimeout)
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+    headers.forEach(request::header);
+    return client
+        .sendAsync(request.build(), HttpResponse.BodyHandlers.discarding())
+        .thenApply(HttpResponse::statusCode);
+  }
+
+  /** Stop accepting requests, and let those in flight finish on the callback threads. */
+  void close() {
+    client.shutdown();
+    callbacks.shutdown();
+  }
+
+  private static ThreadFactory daemonThreads() {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread t = new Thread(r, "sender-http-callback-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    };
+  }
+}
@@ -0,0 +1,240 @@
+package io.phasetwo.keycloak.events;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.Config;
+
+/**
+ * A circuit breaker per key (a webhook id), so that sends to a receiver that keeps failing are held
+ * back instead of attempted. A breaker records the outcome of the last {@code windowSize} sends.
+ * While it is closed, every send is allowed; once at least {@code minimumCalls} sends have been
+ * recorded and the share of failures reaches {@code failureRateThreshold} percent, it opens. While
+ * it is open, no send is allowed until {@code openMillis} have passed; it is then half-open, and
+ * allows a single probe. The probe closes it again if it succeeds, and reopens it if it fails.
+ */
+@JBossLog
+public class CircuitBreakers {
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  static final String ENABLED = "breakerEnabled";
+  static final String WINDOW_SIZE = "breakerWindowSize";
+  static final String MINIMUM_CALLS = "breakerMinimumCalls";
+  static final String FAILURE_RATE_THRESHOLD = "breakerFailureRateThreshold";
+  static final String OPEN_MILLIS = "breakerOpenMillis";
+
+  static final int DEFAULT_WINDOW_SIZE = 20;
+  static final int DEFAULT_MINIMUM_CALLS = 10;
+  static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+  static final long DEFAULT_OPEN_MILLIS = 30000;
+
+  /** How long a send waits while a half-open breaker's probe is running. */
+  static final long PROBE_WAIT_MILLIS = 1000;
+
+  private final int windowSize;
+  private final int minimumCalls;
+  private final int failureRateThreshold;
+  private final long openMillis;
+  private final LongSupplier clock;
+  private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+  public CircuitBreakers(
+      int windowSize, int minimumCalls, int failureRateThreshold, long openMillis) {
+    this(windowSize, minimumCalls, failureRateThreshold, openMillis, System::currentTimeMillis);
+  }
+
+  CircuitBreakers(
+      int windowSize,
+      int minimumCalls,
+      int failureRateThreshold,
+      long openMillis,
+      LongSupplier clock) {
+    this.windowSize = Math.max(1, windowSize);
+    this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.windowSize));
+    this.failureRateThreshold = failureRateThreshold;
+    this.openMillis = openMillis;
+    this.clock = clock;
+  }
+
+  /** Create the breakers if they are enabled in the SPI config, otherwise null. */
+  static CircuitBreakers create(Config.Scope scope) {
+    if (!scope.getBoolean(ENABLED, false)) {
+      log.infof("%s false. webhook sends are always attempted", ENABLED);
+      return null;
+    }
+    int windowSize = scope.getInt(WINDOW_SIZE, DEFAULT_WINDOW_SIZE);
+    int minimumCalls = scope.getInt(MINIMUM_CALLS, DEFAULT_MINIMUM_CALLS);
+    int threshold = scope.getInt(FAILURE_RATE_THRESHOLD, DEFAULT_FAILURE_RATE_THRESHOLD);
+    long openMillis = scope.getLong(OPEN_MILLIS, DEFAULT_OPEN_MILLIS);
+    log.infof(
+        "circuit breakers: windowSize %d, minimumCalls %d, failureRateThreshold %d%%, open %d",
+        windowSize, minimumCalls, threshold, openMillis);
+    return new CircuitBreakers(windowSize, minimumCalls, threshold, openMillis);
+  }
+
+  /**
+   * Check if a send may be attempted now. If the breaker is open and its open time has passed, this
+   * makes it half-open and allows the caller to send the probe.
+   */
+  public boolean allow(String key) {
+    Breaker breaker = breaker(key);
+    synchronized (breaker) {
+      switch (breaker.state) {
+        case CLOSED:
+          return true;
+        case OPEN:
+          if (clock.getAsLong() < breaker.openUntil) return false;
+          log.infof("circuit breaker for %s is half-open. sending a probe", key);
+          breaker.state = State.HALF_OPEN;
+          return true;
+        case HALF_OPEN:
+        default:
+          return false;
+      }
+    }
+  }
+
+  /** How long a send that was not allowed should wait before asking again. */
+  public long retryAfterMillis(String key) {
+    Breaker breaker = breaker(key);
+    synchronized (breaker) {
+      if (breaker.state == State.OPEN) {
+        return Math.max(1, breaker.openUntil - clock.getAsLong());
+      }
+      return Math.min(openMillis, PROBE_WAIT_MILLIS);
+    }
+  }
+
+  public void success(String key) {
+    record(key, false);
+  }
+
+  public void failure(String key) {
+    record(key, true);
+  }
+
+  private void record(String key, boolean failed) {
+    Breaker breaker = breaker(key);
+    synchronized (breaker) {
+      if (breaker.state == State.HALF_OPEN) {
+        if (failed) {
+          open(key, breaker);
+        } else {
+          log.infof("circuit breaker for %s is closed", key);
+          breaker.state = State.CLOSED;
+          breaker.reset();
+        }
+        return;
+      }
+      if (breaker.state == State.OPEN) return; // a send that started before it opened
+      breaker.add(failed);
+      if (breaker.calls >= minimumCalls
+          && breaker.failures * 100 >= failureRateThreshold * breaker.calls) {
+        open(key, breaker);
+      }
+    }
+  }
+
+  /** Must be called holding the breaker lock. */
+  private void open(String key, Breaker breaker) {
+    log.warnf(
+        "circuit breaker for %s is open for %dms after %d of %d sends failed",
+        key, openMillis, breaker.failures, breaker.calls);
+    breaker.state = State.OPEN;
+    breaker.openUntil = clock.getAsLong() + openMillis;
+    breaker.reset();
+  }
+
+  /** The current state of the breaker for {@code key}. */
+  public Stats stats(String key) {
+    Breaker breaker = breakers.get(key);
+    if (breaker == null) return new Stats(State.CLOSED, 0, 0, 0);
+    synchronized (breaker) {
+      return new Stats(
+          breaker.state,
+          breaker.calls,
+          breaker.failures,
+          breaker.state == State.OPEN ? breaker.openUntil : 0);
+    }
+  }
+
+  /** Forget the breaker for {@code key}, e.g. when its webhook is changed or removed. */
+  public void remove(String key) {
+    breakers.remove(key);
+  }
+
+  private Breaker breaker(String key) {
+    return breakers.computeIfAbsent(key, k -> new Breaker(windowSize));
+  }
+
+  /** A point-in-time view of a breaker. */
+  public static class Stats {
+    private final State state;
+    private final int calls;
+    private final int failures;
+    private final long openUntil;
+
+    Stats(State state, int calls, int failures, long openUntil) {
+      this.state = state;
+      this.calls = calls;
+      this.failures = failures;
+      this.openUntil = openUntil;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    /** Sends recorded in the current window. */
+    public int getCalls() {
+      return calls;
+    }
+
+    /** Failed sends recorded in the current window. */
+    public int getFailures() {
+      return failures;
+    }
+
+    /** When an open breaker becomes half-open, in epoch millis, or 0 if it is not open. */
+    public long getOpenUntil() {
+      return openUntil;
+    }
+  }
+
+  /** Must be accessed holding its lock. */
+  private static class Breaker {
+    private final boolean[] outcomes;
+    private int next = 0;
+    private int calls = 0;
+    private int failures = 0;
+    private State state = State.CLOSED;
+    private long openUntil = 0;
+
+    Breaker(int windowSize) {
+      this.outcomes = new boolean[windowSize];
+    }
+
+    void add(boolean failed) {
+      if (calls == outcomes.length) {
+        if (outcomes[next]) failures--;
+      } else {
+        calls++;
+      }
+      outcomes[next] = failed;
+      if (failed) failures++;
+      next = (next + 1) % outcomes.length;
+    }
+
+    void reset() {
+      next = 0;
+      calls = 0;
+      failures = 0;
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package io.phasetwo.keycloak.events;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Meters for the event pipeline, registered with Micrometer's global registry. Keycloak adds its
+ * Prometheus registry to that one when it is started with {@code --metrics-enabled=true}, so these
+ * show up on {@code /metrics} next to its own. Otherwise the global registry has no registries
+ * under it, and recording is a no-op.
+ *
+ * <p>Sends are tagged with the webhook id they were sent to, so there is one series per webhook.
+ * The meters recorded for each event and send are kept by their tags once registered, so that
+ * recording one is a map lookup rather than a registration. Gauges of objects that a listener
+ * factory creates are returned to it, to be removed when it closes.
+ */
+final class EventMetrics {
+
+  static final String PREFIX = "phasetwo.events.";
+
+  static final String RECEIVED = PREFIX + "received";
+  static final String FANOUT = PREFIX + "webhook.fanout";
+  static final String SEND = PREFIX + "send";
+  static final String RETRIES = PREFIX + "send.retries";
+  static final String DROPPED = PREFIX + "send.dropped";
+  static final String EXECUTOR_QUEUE = PREFIX + "executor.queue";
+  static final String EXECUTOR_ACTIVE = PREFIX + "executor.active";
+  static final String WEBHOOK_QUEUE = PREFIX + "webhook.queue";
+  static final String RECORDER_WRITE = PREFIX + "recorder.write";
+  static final String RECORDER_BUFFER = PREFIX + "recorder.buffer";
+  static final String RETENTION_RUNS = PREFIX + "retention.runs";
+  static final String RETENTION_REMOVED = PREFIX + "retention.removed";
+
+  // why a delivery was given up on
+  static final String RETRIES_EXHAUSTED = "retries_exhausted";
+  static final String NOT_RETRYABLE = "not_retryable";
+  static final String QUEUE_FULL = "queue_full";
+  static final String SHUTDOWN = "shutdown";
+
+  private static MeterRegistry registry = Metrics.globalRegistry;
+
+  private record Tags(String name, String a, String b, String c) {}
+
+  private static final Map<Tags, Meter> meters = new ConcurrentHashMap<>();
+
+  private EventMetrics() {}
+
+  /** Use another registry, for tests. */
+  static void setRegistry(MeterRegistry registry) {
+    EventMetrics.registry = registry;
+    meters.clear();
+  }
+
+  /**
+   * An event received by a listener.
+   *
+   * @param kind {@code user} or {@code admin}
+   */
+  static void received(String listener, String kind) {
+    ((Counter)
+            meters.computeIfAbsent(
+                new Tags(RECEIVED, listener, kind, null),
+                t ->
+                    Counter.builder(RECEIVED)
+                        .description("Events received by a listener")
+                        .tag("listener", listener)
+                        .tag("kind", kind)
+                        .register(registry)))
+        .increment();
+  }
+
+  /** The number of webhooks an event was dispatched to. */
+  static void fanout(int webhooks) {
+    ((DistributionSummary)
+            meters.computeIfAbsent(
+                new Tags(FANOUT, null, null, null),
+                t ->
+                    DistributionSummary.builder(FANOUT)
+                        .description("Webhooks each event is dispatched to")
+                        .register(registry)))
+        .record(webhooks);
+  }
+
+  /**
+   * One attempt to send a delivery, and how long it took.
+   *
+   * @param target the webhook id, or another name for where the delivery went
+   * @param status the response status, 0 for a success with no status, or -1 for no response
+   */
+  static void sent(String listener, String target, int status, long nanos) {
+    String outcome = outcome(status);
+    ((Timer)
+            meters.computeIfAbsent(
+                new Tags(SEND, listener, target, outcome),
+                t ->
+                    Timer.builder(SEND)
+                        .description("Attempts to send a delivery")
+                        .tag("listener", listener)
+                        .tag("target", target)
+                        .tag("outcome", outcome)
+                        .publishPercentileHistogram()
+                        .register(registry)))
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /** The outcome tag for a status: its class, e.g. {@code 2xx}, or {@code error}. */
+  static String outcome(int status) {
+    if (status == 0) return "2xx";
+    if (status < 100 || status > 599) return "error";
+    return (status / 100) + "xx";
+  }
+
+  /** A delivery that will be tried again. */
+  static void retried(String listener, String target) {
+    ((Counter)
+            meters.computeIfAbsent(
+                new Tags(RETRIES, listener, target, null),
+                t ->
+                    Counter.builder(RETRIES)
+                        .description("Delivery attempts that will be retried")
+                        .tag("listener", listener)
+                        .tag("target", target)
+                        .register(registry)))
+        .increment();
+  }
+
+  /** Deliveries that were given up on without being delivered. */
+  static void dropped(String listener, String reason, int count) {
+    if (count <= 0) return;
+    Counter.builder(DROPPED)
+        .description("Deliveries given up on")
+        .tag("listener", listener)
+        .tag("reason", reason)
+        .register(registry)
+        .increment(count);
+  }
+
+  /** The tasks waiting in, and running on, a sender executor. */
+  static void executor(String name, ThreadPoolExecutor pool) {
+    Gauge.builder(EXECUTOR_QUEUE, pool, p -> p.getQueue().size())
+        .description("Send attempts and retries waiting in the executor")
+        .tag("executor", name)
+        .register(registry);
+    Gauge.builder(EXECUTOR_ACTIVE, pool, p -> p.getActiveCount())
+        .description("Threads running send attempts")
+        .tag("executor", name)
+        .register(registry);
+  }
+
+  /** Deliveries waiting in the per-webhook queues. */
+  static List<Meter> webhookQueue(SenderQueue queue) {
+    return List.of(
+        gauge(WEBHOOK_QUEUE, "Deliveries waiting in the per-webhook queues", queue, q -> q.size()));
+  }
+
+  /** A batch of webhook history written to the database, and how long it took. */
+  static void recorded(boolean success, long nanos) {
+    Timer.builder(RECORDER_WRITE)
+        .description("Batches of webhook events and sends written to the database")
+        .tag("outcome", success ? "success" : "error")
+        .publishPercentileHistogram()
+        .register(registry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /** Records waiting to be written. */
+  static List<Meter> recorderBuffer(WebhookRecorder recorder) {
+    return List.of(
+        gauge(RECORDER_BUFFER, "Webhook records waiting to be written", recorder, r -> r.size()));
+  }
+
+  /** The runs of the retention task on this node, and the rows they removed. */
+  static List<Meter> retention(WebhookRetention retention) {
+    return List.of(
+        FunctionTimer.builder(
+                RETENTION_RUNS,
+                retention,
+                r -> r.stats().getRuns(),
+                r -> r.stats().getRunMillis(),
+                TimeUnit.MILLISECONDS)
+            .description("Runs of the webhook history retention task")
+            .register(registry),
+        removed(retention, "sends", r -> r.stats().getSendsRemoved()),
+        removed(retention, "events", r -> r.stats().getEventsRemoved()),
+        removed(retention, "payloads", r -> r.stats().getPayloadsRemoved()));
+  }
+
+  /** Remove meters, e.g. the gauges of a factory that is closing, so they are not read again. */
+  static void remove(List<Meter> removed) {
+    for (Meter meter : removed) registry.remove(meter);
+  }
+
+  private static Meter removed(
+      WebhookRetention retention, String kind, ToDoubleFunction<WebhookRetention> count) {
+    return FunctionCounter.builder(RETENTION_REMOVED, retention, count)
+        .description("Rows removed by the webhook history retention task")
+        .tag("kind", kind)
+        .register(registry);
+  }
+
+  private static <T> Meter gauge(String name, String description, T obj, ToDoubleFunction<T> f) {
+    return Gauge.builder(name, obj, f).description(description).register(registry);
+  }
+}
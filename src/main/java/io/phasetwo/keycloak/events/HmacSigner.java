@@ -0,0 +1,65 @@
+package io.phasetwo.keycloak.events;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Hex encoded HMAC signatures for one secret and algorithm. Signers are cached, and each keeps a
+ * pool of initialized {@link Mac}s, so signing a payload does not look up the algorithm or set up
+ * the key again. The pool holds as many {@code Mac}s as there have been concurrent signers, and
+ * works the same on platform and virtual threads.
+ */
+final class HmacSigner {
+
+  private record Key(String secret, String algorithm) {}
+
+  private static final Cache<Key, HmacSigner> SIGNERS =
+      CacheBuilder.newBuilder().maximumSize(1024).expireAfterAccess(1, TimeUnit.HOURS).build();
+
+  private final SecretKeySpec key;
+  private final Queue<Mac> macs = new ConcurrentLinkedQueue<>();
+
+  private HmacSigner(String secret, String algorithm) throws GeneralSecurityException {
+    this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), algorithm);
+    // fail here, rather than on the first signature, for an unknown algorithm or unusable key
+    macs.add(newMac());
+  }
+
+  /** The signer for a secret and algorithm, e.g. {@code HmacSHA256}. */
+  static HmacSigner get(String secret, String algorithm) throws GeneralSecurityException {
+    try {
+      return SIGNERS.get(new Key(secret, algorithm), () -> new HmacSigner(secret, algorithm));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof GeneralSecurityException) {
+        throw (GeneralSecurityException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /** The signature of the data, in lower case hex. */
+  String sign(byte[] data) throws GeneralSecurityException {
+    Mac mac = macs.poll();
+    if (mac == null) mac = newMac();
+    try {
+      // doFinal leaves the Mac ready for the next signature with the same key
+      return Hex.encode(mac.doFinal(data));
+    } finally {
+      macs.offer(mac);
+    }
+  }
+
+  private Mac newMac() throws GeneralSecurityException {
+    Mac mac = Mac.getInstance(key.getAlgorithm());
+    mac.init(key);
+    return mac;
+  }
+}
@@ -5,19 +5,22 @@ import static java.net.HttpURLConnection.HTTP_OK;
 
 import com.github.xgp.util.BackOff;
 import com.github.xgp.util.ExponentialBackOff;
+import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.SignatureException;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.function.Consumer;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import lombok.extern.jbosslog.JBossLog;
+import org.apache.http.HttpHeaders;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.keycloak.broker.provider.util.LegacySimpleHttp;
 import org.keycloak.models.KeycloakSession;
-import org.keycloak.util.JsonSerialization;
 
 @JBossLog
 public class HttpSenderEventListenerProvider extends SenderEventListenerProvider {
@@ -32,8 +35,31 @@ public class HttpSenderEventListenerProvider extends SenderEventListenerProvider
   protected static final String BACKOFF_MULTIPLIER = "backoffMultiplier";
   protected static final String BACKOFF_RANDOMIZATION_FACTOR = "backoffRandomizationFactor";
 
-  public HttpSenderEventListenerProvider(KeycloakSession session, ScheduledExecutorService exec) {
+  protected final CloseableHttpClient http;
+  private final AsyncSenderClient async;
+
+  public HttpSenderEventListenerProvider(
+      KeycloakSession session, ScheduledExecutorService exec, CloseableHttpClient http) {
+    this(session, exec, http, null);
+  }
+
+  /**
+   * @param async the non-blocking client to send with, or null to send with the blocking {@code
+   *     http} client
+   */
+  HttpSenderEventListenerProvider(
+      KeycloakSession session,
+      ScheduledExecutorService exec,
+      CloseableHttpClient http,
+      AsyncSenderClient async) {
     super(session, exec);
+    this.http = http;
+    this.async = async;
+  }
+
+  @Override
+  protected String listenerId() {
+    return HttpSenderEventListenerProviderFactory.PROVIDER_ID;
   }
 
   @Override
@@ -65,44 +91,80 @@ public class HttpSenderEventListenerProvider extends SenderEventListenerProvider
 
   @Override
   void send(SenderTask task) throws SenderException, IOException {
-    send(task, getTargetUri(), getSharedSecret(), getHmacAlgorithm());
+    send(task, getTargetUri(), hmacHeaders(task, getSharedSecret(), getHmacAlgorithm()));
   }
 
-  protected void send(
-      SenderTask task, String targetUri, Optional<String> sharedSecret, Optional<String> algorithm)
-      throws SenderException, IOException {
-    send(
-        task,
-        targetUri,
-        request ->
-            sharedSecret.ifPresent(
-                secret ->
-                    request.header(
-                        "X-Keycloak-Signature",
-                        hmacFor(
-                            task.getEvent(), secret, algorithm.orElse(HMAC_SHA256_ALGORITHM)))));
+  @Override
+  CompletableFuture<Void> sendAsync(SenderTask task) {
+    return post(task, getTargetUri(), hmacHeaders(task, getSharedSecret(), getHmacAlgorithm()));
+  }
+
+  /** The {@code X-Keycloak-Signature} header for the payload, if there is a shared secret. */
+  protected Map<String, String> hmacHeaders(
+      SenderTask task, Optional<String> sharedSecret, Optional<String> algorithm) {
+    return sharedSecret
+        .map(
+            secret ->
+                ImmutableMap.of(
+                    "X-Keycloak-Signature",
+                    hmacFor(task, secret, algorithm.orElse(HMAC_SHA256_ALGORITHM))))
+        .orElse(ImmutableMap.of());
   }
 
   /**
-   * Send the payload, applying an arbitrary authentication decorator (e.g. an HMAC signature header
-   * or an {@code Authorization: Bearer} JWT) to the request before it is sent.
+   * Send the payload with the given extra headers (e.g. an HMAC signature or an {@code
+   * Authorization: Bearer} JWT) using the configured engine. With the blocking engine the request
+   * is made on the calling thread, and the returned future is already complete.
    */
-  protected void send(SenderTask task, String targetUri, Consumer<LegacySimpleHttp> authDecorator)
+  protected CompletableFuture<Void> post(
+      SenderTask task, String targetUri, Map<String, String> headers) {
+    if (async == null) {
+      try {
+        send(task, targetUri, headers);
+        return CompletableFuture.completedFuture(null);
+      } catch (Exception e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }
+    task.incrementAndGetAttempt();
+    log.debugf("attempting async send to %s", targetUri);
+    try {
+      return async
+          .post(targetUri, task.getPayload(), headers)
+          .handle(
+              (status, e) -> {
+                if (e != null) {
+                  Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                  log.warnf(cause, "Sending exception to %s", targetUri);
+                  throw new CompletionException(new SenderException(false, cause));
+                }
+                SenderException failure = checkStatus(task, targetUri, status);
+                if (failure != null) throw new CompletionException(failure);
+                return null;
+              });
+    } catch (Exception e) {
+      log.warnf(e, "Sending exception to %s", targetUri);
+      return CompletableFuture.failedFuture(new SenderException(false, e));
+    }
+  }
+
+  /** Send the payload on the calling thread, with the given extra headers. */
+  protected void send(SenderTask task, String targetUri, Map<String, String> headers)
       throws SenderException, IOException {
     task.incrementAndGetAttempt();
     log.debugf("attempting send to %s", targetUri);
-    try (CloseableHttpClient http = HttpClients.createDefault()) {
-      LegacySimpleHttp request = LegacySimpleHttp.doPost(targetUri, http).json(task.getEvent());
-      if (authDecorator != null) {
-        authDecorator.accept(request);
-      }
-      LegacySimpleHttp.Response response = request.asResponse();
-      int status = response.getStatus();
-      log.debugf("sent to %s (%d)", targetUri, status);
-      doAfterSend(task, status);
-      if (status < HTTP_OK || status >= HTTP_MULT_CHOICE) { // any 2xx is acceptable
-        log.warnf("Sending failure for %s (Server response:%d) - %s", targetUri, status, task);
-        throw new SenderException(true);
+    try {
+      // the shared, pooled client is owned by the factory and must not be closed here. reading the
+      // status consumes the response, which returns the connection to the pool for reuse.
+      // the body is the task's payload, serialized once and reused for signatures and retries
+      LegacySimpleHttp request =
+          LegacySimpleHttp.doPost(targetUri, http)
+              .header(HttpHeaders.CONTENT_TYPE, "application/json")
+              .entity(new ByteArrayEntity(task.getPayload(), ContentType.APPLICATION_JSON));
+      headers.forEach(request::header);
+      try (LegacySimpleHttp.Response response = request.asResponse()) {
+        SenderException failure = checkStatus(task, targetUri, response.getStatus());
+        if (failure != null) throw failure;
       }
     } catch (SenderException se) {
       // rethrow existing SenderException
@@ -113,6 +175,17 @@ public class HttpSenderEventListenerProvider extends SenderEventListenerProvider
     }
   }
 
+  /** Handle a response, returning the failure to raise if it was not a success. */
+  private SenderException checkStatus(SenderTask task, String targetUri, int status) {
+    log.debugf("sent to %s (%d)", targetUri, status);
+    doAfterSend(task, status);
+    if (status < HTTP_OK || status >= HTTP_MULT_CHOICE) { // any 2xx is acceptable
+      log.warnf("Sending failure for %s (Server response:%d) - %s", targetUri, status, task);
+      return new SenderException(true, status);
+    }
+    return null;
+  }
+
   protected final void doAfterSend(SenderTask task, int httpStatus) {
     try {
       afterSend(task, httpStatus);
@@ -123,10 +196,9 @@ public class HttpSenderEventListenerProvider extends SenderEventListenerProvider
 
   protected void afterSend(SenderTask task, int httpStatus) {}
 
-  protected String hmacFor(Object o, String sharedSecret, String algorithm) {
+  protected String hmacFor(SenderTask task, String sharedSecret, String algorithm) {
     try {
-      String data = JsonSerialization.writeValueAsString(o);
-      return calculateHmacSha(data, sharedSecret, algorithm);
+      return calculateHmacSha(task.getPayload(), sharedSecret, algorithm);
     } catch (Exception e) {
       log.warn("Unable to sign data", e);
     }
@@ -138,25 +210,15 @@ public class HttpSenderEventListenerProvider extends SenderEventListenerProvider
 
   public static String calculateHmacSha(String data, String key, String algorithm)
       throws SignatureException {
-    String result = null;
+    return calculateHmacSha(data.getBytes(StandardCharsets.UTF_8), key, algorithm);
+  }
+
+  public static String calculateHmacSha(byte[] data, String key, String algorithm)
+      throws SignatureException {
     try {
-      SecretKeySpec signingKey = new SecretKeySpec(key.getBytes(), algorithm);
-      Mac mac = Mac.getInstance(algorithm);
-      mac.init(signingKey);
-      byte[] digest = mac.doFinal(data.getBytes());
-      StringBuilder sb = new StringBuilder(digest.length * 2);
-      String s;
-      for (byte b : digest) {
-        s = Integer.toHexString(0xFF & b);
-        if (s.length() == 1) {
-          sb.append('0');
-        }
-        sb.append(s);
-      }
-      result = sb.toString();
+      return HmacSigner.get(key, algorithm).sign(data);
     } catch (Exception e) {
       throw new SignatureException("Failed to generate HMAC : " + e.getMessage());
     }
-    return result;
   }
 }
@@ -1,11 +1,10 @@
 package io.phasetwo.keycloak.events;
 
 import com.google.auto.service.AutoService;
-import com.google.common.util.concurrent.MoreExecutors;
 import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import lombok.extern.jbosslog.JBossLog;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.keycloak.Config;
 import org.keycloak.events.EventListenerProvider;
 import org.keycloak.events.EventListenerProviderFactory;
@@ -18,6 +17,10 @@ public class HttpSenderEventListenerProviderFactory extends MultiEventListenerPr
   public static final String PROVIDER_ID = "ext-event-http";
 
   private ScheduledExecutorService exec;
+  private long shutdownGraceMillis;
+  private long drainTimeoutMillis;
+  private CloseableHttpClient http;
+  private AsyncSenderClient async;
 
   @Override
   public String getId() {
@@ -26,7 +29,8 @@ public class HttpSenderEventListenerProviderFactory extends MultiEventListenerPr
 
   @Override
   protected EventListenerProvider configure(KeycloakSession session, Map<String, Object> config) {
-    HttpSenderEventListenerProvider provider = new HttpSenderEventListenerProvider(session, exec);
+    HttpSenderEventListenerProvider provider =
+        new HttpSenderEventListenerProvider(session, exec, http, async);
     log.debugf("Configuring %s with %s", provider.getClass().getName(), configToString(config));
     provider.setConfig(config);
     return provider;
@@ -34,19 +38,32 @@ public class HttpSenderEventListenerProviderFactory extends MultiEventListenerPr
 
   @Override
   public void init(Config.Scope scope) {
-    exec =
-        MoreExecutors.getExitingScheduledExecutorService(
-            new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors()));
+    exec = SenderExecutors.create(scope, PROVIDER_ID);
+    shutdownGraceMillis = SenderExecutors.shutdownGraceMillis(scope);
+    drainTimeoutMillis = SenderExecutors.drainTimeoutMillis(scope);
+    http = SenderHttpClients.create(scope);
+    async = AsyncSenderClient.create(scope);
   }
 
   @Override
   public void close() {
     try {
-      log.debug("Shutting down scheduler");
-      exec.shutdown();
+      // there is no queue to hand over, so the drain is waiting for sends and retries to finish
+      long drain = Math.max(drainTimeoutMillis, shutdownGraceMillis);
+      log.debugf("Shutting down scheduler. Waiting up to %dms for sends to finish", drain);
+      int dropped = SenderExecutors.shutdown(exec, drain);
+      if (dropped > 0) log.warnf("Dropped %d HTTP sends that were waiting to be retried", dropped);
+      EventMetrics.dropped(PROVIDER_ID, EventMetrics.SHUTDOWN, dropped);
     } catch (Exception e) {
       log.warn("Error in shutdown of scheduler", e);
     }
+    try {
+      log.debug("Closing HTTP client");
+      http.close();
+      if (async != null) async.close();
+    } catch (Exception e) {
+      log.warn("Error closing HTTP client", e);
+    }
   }
 
   protected boolean isAsync() {
@@ -44,6 +44,7 @@ public class MdcLoggerEventStoreProvider extends MdcLoggerEventListenerProvider
 
   @Override
   public void onEvent(Event event) {
+    EventMetrics.received(MdcLoggerEventStoreProviderFactory.PROVIDER_ID, "user");
     if (jpa != null) {
       jpa.onEvent(event);
     }
@@ -52,6 +53,7 @@ public class MdcLoggerEventStoreProvider extends MdcLoggerEventListenerProvider
 
   @Override
   public void onEvent(AdminEvent adminEvent, boolean includeRepresentation) {
+    EventMetrics.received(MdcLoggerEventStoreProviderFactory.PROVIDER_ID, "admin");
     if (jpa != null) {
       jpa.onEvent(adminEvent, includeRepresentation);
     }
@@ -41,6 +41,7 @@ public class ScriptEventListenerProvider implements EventListenerProvider, Confi
 
   @Override
   public void onEvent(Event event) {
+    EventMetrics.received(ScriptEventListenerProviderFactory.PROVIDER_ID, "user");
     if (scriptsDisabled) return;
     log.debugf("run event in js\n%s", config.get(SCRIPT_CODE).toString());
     InvocableScriptAdapter invocableScriptAdapter =
@@ -58,6 +59,7 @@ public class ScriptEventListenerProvider implements EventListenerProvider, Confi
 
   @Override
   public void onEvent(AdminEvent event, boolean b) {
+    EventMetrics.received(ScriptEventListenerProviderFactory.PROVIDER_ID, "admin");
     if (scriptsDisabled) return;
     log.debugf("run admin event in js\n%s", config.get(SCRIPT_CODE).toString());
     InvocableScriptAdapter invocableScriptAdapter =
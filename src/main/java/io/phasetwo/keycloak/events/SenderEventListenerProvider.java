@@ -8,6 +8,8 @@ import io.phasetwo.keycloak.config.Configurable;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -17,6 +19,7 @@ import org.keycloak.events.EventListenerProvider;
 import org.keycloak.events.admin.AdminEvent;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.utils.ModelToRepresentation;
+import org.keycloak.util.JsonSerialization;
 
 @JBossLog
 public abstract class SenderEventListenerProvider implements EventListenerProvider, Configurable {
@@ -36,8 +39,19 @@ public abstract class SenderEventListenerProvider implements EventListenerProvid
     this.config = config;
   }
 
+  /** The name the provider's meters are tagged with, usually its factory's id. */
+  protected String listenerId() {
+    return getClass().getSimpleName();
+  }
+
+  /** Where a task is sent, for the meters of its sends. */
+  protected String target(SenderTask task) {
+    return "default";
+  }
+
   @Override
   public void onEvent(Event event) {
+    EventMetrics.received(listenerId(), "user");
     schedule(
         new SenderTask(ModelToRepresentation.toRepresentation(event), getBackOff()),
         0l,
@@ -46,6 +60,7 @@ public abstract class SenderEventListenerProvider implements EventListenerProvid
 
   @Override
   public void onEvent(AdminEvent event, boolean b) {
+    EventMetrics.received(listenerId(), "admin");
     schedule(
         new SenderTask(ModelToRepresentation.toRepresentation(event), getBackOff()),
         0l,
@@ -60,18 +75,40 @@ public abstract class SenderEventListenerProvider implements EventListenerProvid
   class SenderTask {
     private final Object event;
     private final BackOff backOff;
+    private byte[] payload;
     private int attempt = 0;
     private Map<String, String> properties = Maps.newHashMap();
 
     public SenderTask(Object event, BackOff backOff) {
+      this(event, null, backOff, 0);
+    }
+
+    /**
+     * A task resuming after {@code attempt} earlier attempts, with its payload already serialized
+     * (or null to serialize it from the event).
+     */
+    public SenderTask(Object event, byte[] payload, BackOff backOff, int attempt) {
       this.event = event;
+      this.payload = payload;
       this.backOff = backOff;
+      this.attempt = attempt;
     }
 
     public Object getEvent() {
       return this.event;
     }
 
+    /**
+     * The event serialized as JSON. This is done once, on first use, and the same bytes are sent
+     * and signed on every attempt. Callers must not modify the array.
+     */
+    public synchronized byte[] getPayload() throws IOException {
+      if (payload == null) {
+        payload = JsonSerialization.writeValueAsBytes(event);
+      }
+      return payload;
+    }
+
     public BackOff getBackOff() {
       return this.backOff;
     }
@@ -98,20 +135,33 @@ public abstract class SenderEventListenerProvider implements EventListenerProvid
 
   class SenderException extends Exception {
     private final boolean retryable;
+    private final int status;
 
     public SenderException(boolean retryable) {
+      this(retryable, -1);
+    }
+
+    /** A failure with the response status that caused it. */
+    public SenderException(boolean retryable, int status) {
       super();
       this.retryable = retryable;
+      this.status = status;
     }
 
     public SenderException(boolean retryable, Throwable cause) {
       super(cause);
       this.retryable = retryable;
+      this.status = -1;
     }
 
     public boolean isRetryable() {
       return this.retryable;
     }
+
+    /** The response status, or -1 if no response was received. */
+    public int getStatus() {
+      return this.status;
+    }
   }
 
   BackOff getBackOff() {
@@ -124,33 +174,87 @@ public abstract class SenderEventListenerProvider implements EventListenerProvid
       return;
     }
     try {
-      exec.schedule(
-          () -> {
-            try {
-              send(task);
-            } catch (SenderException | IOException e) {
-              log.trace("sending exception", e);
-              if (e instanceof SenderException && !((SenderException) e).isRetryable()) return;
-              log.tracef(
-                  "BackOff policy is %s",
-                  BackOff.STOP_BACKOFF == task.getBackOff() ? "STOP" : "BACKOFF");
-              long backOffTime = task.getBackOff().nextBackOffMillis();
-              if (backOffTime == BackOff.STOP) return;
-              log.tracef("retrying in %d due to %s", backOffTime, e.getCause());
-              schedule(task, backOffTime, TimeUnit.MILLISECONDS);
-            } catch (Throwable t) {
-              log.warn("Uncaught Sender error", t);
-            }
-          },
-          delay,
-          unit);
+      exec.schedule(() -> attempt(task), delay, unit);
     } catch (Exception e) {
       log.warn("Error scheduling task", e);
     }
   }
 
+  /**
+   * Make one attempt to send a task, and schedule a retry if it fails and may be retried. The
+   * returned future completes when the attempt has been handled.
+   */
+  protected CompletableFuture<Void> attempt(SenderTask task) {
+    final long start = System.nanoTime();
+    CompletableFuture<Void> sent;
+    try {
+      sent = sendAsync(task);
+    } catch (Throwable t) {
+      sent = CompletableFuture.failedFuture(t);
+    }
+    return sent.handle(
+        (v, e) -> {
+          Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+          int status = cause == null ? 0 : -1;
+          if (cause instanceof SenderException) status = ((SenderException) cause).getStatus();
+          EventMetrics.sent(listenerId(), target(task), status, System.nanoTime() - start);
+          completed(task, cause);
+          return null;
+        });
+  }
+
+  private void completed(SenderTask task, Throwable e) {
+    if (e == null) {
+      taskDone(task);
+      return;
+    }
+    if (!(e instanceof SenderException || e instanceof IOException)) {
+      log.warn("Uncaught Sender error", e);
+      EventMetrics.dropped(listenerId(), EventMetrics.NOT_RETRYABLE, 1);
+      taskDone(task);
+      return;
+    }
+    log.trace("sending exception", e);
+    if (e instanceof SenderException && !((SenderException) e).isRetryable()) {
+      EventMetrics.dropped(listenerId(), EventMetrics.NOT_RETRYABLE, 1);
+      taskDone(task);
+      return;
+    }
+    log.tracef(
+        "BackOff policy is %s", BackOff.STOP_BACKOFF == task.getBackOff() ? "STOP" : "BACKOFF");
+    long backOffTime = task.getBackOff().nextBackOffMillis();
+    if (backOffTime == BackOff.STOP) {
+      EventMetrics.dropped(listenerId(), EventMetrics.RETRIES_EXHAUSTED, 1);
+      taskDone(task);
+      return;
+    }
+    log.tracef("retrying in %d due to %s", backOffTime, e.getCause());
+    EventMetrics.retried(listenerId(), target(task));
+    taskRetrying(task, backOffTime);
+    schedule(task, backOffTime, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Send a task without waiting for the response, if the sender supports it. By default this sends
+   * on the calling thread and returns a completed future.
+   */
+  CompletableFuture<Void> sendAsync(SenderTask task) {
+    try {
+      send(task);
+      return CompletableFuture.completedFuture(null);
+    } catch (Exception e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
   abstract void send(SenderTask task) throws SenderException, IOException;
 
+  /** Called when a task will be retried after {@code delayMillis}. */
+  protected void taskRetrying(SenderTask task, long delayMillis) {}
+
+  /** Called when a task has been sent, or has failed and will not be retried. */
+  protected void taskDone(SenderTask task) {}
+
   static final Set<String> IGNORE_KEYS = ImmutableSet.of("secret");
 
   static String formatMap(Map<String, String> map, final Set<String> ignoreKeys) {
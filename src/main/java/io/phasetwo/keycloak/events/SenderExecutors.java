@@ -0,0 +1,112 @@
+package io.phasetwo.keycloak.events;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.Config;
+
+/**
+ * Builds the executor shared by all of the sender providers created by a factory, which schedules
+ * and runs their send attempts. In {@code platform} mode, attempts run on a fixed pool of platform
+ * threads, so a blocking send holds one of them for its whole round trip. In {@code virtual} mode,
+ * a small pool of platform threads only keeps time, and each attempt runs on its own virtual
+ * thread.
+ */
+@JBossLog
+final class SenderExecutors {
+
+  static final String MODE = "executorMode";
+  static final String THREADS = "executorThreads";
+  static final String THREAD_NAME = "executorThreadName";
+  static final String SHUTDOWN_GRACE = "executorShutdownGraceMillis";
+  static final String DRAIN_TIMEOUT = "drainTimeoutMillis";
+
+  static final String MODE_PLATFORM = "platform";
+  static final String MODE_VIRTUAL = "virtual";
+
+  static final int DEFAULT_VIRTUAL_SCHEDULER_THREADS = 1;
+  static final long DEFAULT_SHUTDOWN_GRACE = 0;
+  static final long DEFAULT_DRAIN_TIMEOUT = 10000;
+
+  private SenderExecutors() {}
+
+  /**
+   * @param name the default thread name prefix, usually the provider id
+   */
+  static ScheduledExecutorService create(Config.Scope scope, String name) {
+    String mode = scope.get(MODE, MODE_PLATFORM).trim();
+    String threadName = scope.get(THREAD_NAME, name);
+    boolean virtual = MODE_VIRTUAL.equalsIgnoreCase(mode);
+    if (!virtual && !MODE_PLATFORM.equalsIgnoreCase(mode)) {
+      log.warnf("Invalid %s=%s; using %s", MODE, mode, MODE_PLATFORM);
+    }
+    int threads = threads(scope, virtual);
+    log.infof(
+        "%s sender executor: mode %s, threads %d",
+        threadName, virtual ? MODE_VIRTUAL : MODE_PLATFORM, threads);
+
+    String suffix = virtual ? "-scheduler-%d" : "-%d";
+    ScheduledThreadPoolExecutor pool =
+        new ScheduledThreadPoolExecutor(
+            Math.max(1, threads),
+            new ThreadFactoryBuilder().setNameFormat(threadName + suffix).build());
+    EventMetrics.executor(threadName, pool);
+    ScheduledExecutorService scheduler = MoreExecutors.getExitingScheduledExecutorService(pool);
+    if (!virtual) return scheduler;
+    return new VirtualThreadScheduledExecutor(
+        scheduler,
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(threadName + "-", 0).factory()));
+  }
+
+  private static int threads(Config.Scope scope, boolean virtual) {
+    return scope.getInt(
+        THREADS,
+        virtual ? DEFAULT_VIRTUAL_SCHEDULER_THREADS : Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * How many send attempts the executor runs at the same time: the size of its pool in {@code
+   * platform} mode, and no limit in {@code virtual} mode.
+   */
+  static int concurrency(Config.Scope scope) {
+    if (MODE_VIRTUAL.equalsIgnoreCase(scope.get(MODE, MODE_PLATFORM).trim())) {
+      return Integer.MAX_VALUE;
+    }
+    return Math.max(1, threads(scope, false));
+  }
+
+  static long shutdownGraceMillis(Config.Scope scope) {
+    return scope.getLong(SHUTDOWN_GRACE, DEFAULT_SHUTDOWN_GRACE);
+  }
+
+  /** How long a factory may spend sending what it has queued when it is closed. */
+  static long drainTimeoutMillis(Config.Scope scope) {
+    return scope.getLong(DRAIN_TIMEOUT, DEFAULT_DRAIN_TIMEOUT);
+  }
+
+  /**
+   * Shut down an executor. Running attempts, and retries that are already scheduled, are waited for
+   * up to {@code graceMillis}, after which they are interrupted or dropped. With no grace period,
+   * this returns straight away and leaves them to finish on their own.
+   *
+   * @return the number of tasks that were dropped without running
+   */
+  static int shutdown(ScheduledExecutorService exec, long graceMillis) {
+    exec.shutdown();
+    if (graceMillis <= 0) return 0;
+    try {
+      if (!exec.awaitTermination(graceMillis, TimeUnit.MILLISECONDS)) {
+        log.warnf("Sender executor did not stop within %dms. Interrupting.", graceMillis);
+        return exec.shutdownNow().size();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return exec.shutdownNow().size();
+    }
+    return 0;
+  }
+}
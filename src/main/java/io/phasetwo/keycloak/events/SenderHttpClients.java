@@ -0,0 +1,83 @@
+package io.phasetwo.keycloak.events;
+
+import java.util.concurrent.TimeUnit;
+import lombok.extern.jbosslog.JBossLog;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.keycloak.Config;
+
+/**
+ * Builds the long-lived, connection-pooled HTTP client shared by all of the sender providers
+ * created by a factory. Connections are kept alive and reused across sends (and retries), so a
+ * delivery only pays for a TCP/TLS handshake when the pool has no idle connection to the target.
+ * Idle and expired connections are evicted by a background thread owned by the client, which is
+ * released when the factory closes it.
+ */
+@JBossLog
+final class SenderHttpClients {
+
+  static final String MAX_CONNECTIONS = "maxConnections";
+  static final String MAX_CONNECTIONS_PER_ROUTE = "maxConnectionsPerRoute";
+  static final String CONNECT_TIMEOUT = "connectTimeoutMillis";
+  static final String SOCKET_TIMEOUT = "socketTimeoutMillis";
+  static final String CONNECTION_REQUEST_TIMEOUT = "connectionRequestTimeoutMillis";
+  static final String IDLE_CONNECTION_TIMEOUT = "idleConnectionTimeoutMillis";
+  static final String CONNECTION_TTL = "connectionTtlMillis";
+
+  static final int DEFAULT_MAX_CONNECTIONS = 200;
+  static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+  static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+  static final int DEFAULT_SOCKET_TIMEOUT = 30000;
+  static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 10000;
+  static final int DEFAULT_IDLE_CONNECTION_TIMEOUT = 60000;
+  static final int DEFAULT_CONNECTION_TTL = -1; // no limit, rely on keep-alive and idle eviction
+
+  private SenderHttpClients() {}
+
+  static CloseableHttpClient create(Config.Scope scope) {
+    int maxConnections = scope.getInt(MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+    int maxConnectionsPerRoute =
+        scope.getInt(MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+    int connectTimeout = scope.getInt(CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT);
+    int socketTimeout = scope.getInt(SOCKET_TIMEOUT, DEFAULT_SOCKET_TIMEOUT);
+    int connectionRequestTimeout =
+        scope.getInt(CONNECTION_REQUEST_TIMEOUT, DEFAULT_CONNECTION_REQUEST_TIMEOUT);
+    int idleConnectionTimeout =
+        scope.getInt(IDLE_CONNECTION_TIMEOUT, DEFAULT_IDLE_CONNECTION_TIMEOUT);
+    int connectionTtl = scope.getInt(CONNECTION_TTL, DEFAULT_CONNECTION_TTL);
+    log.infof(
+        "HTTP sender pool: maxConnections %d, maxConnectionsPerRoute %d, connectTimeout %d,"
+            + " socketTimeout %d, connectionRequestTimeout %d, idleConnectionTimeout %d,"
+            + " connectionTtl %d",
+        maxConnections,
+        maxConnectionsPerRoute,
+        connectTimeout,
+        socketTimeout,
+        connectionRequestTimeout,
+        idleConnectionTimeout,
+        connectionTtl);
+
+    PoolingHttpClientConnectionManager connectionManager =
+        new PoolingHttpClientConnectionManager(connectionTtl, TimeUnit.MILLISECONDS);
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+    RequestConfig requestConfig =
+        RequestConfig.custom()
+            .setConnectTimeout(connectTimeout)
+            .setSocketTimeout(socketTimeout)
+            .setConnectionRequestTimeout(connectionRequestTimeout)
+            .build();
+
+    return HttpClientBuilder.create()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(requestConfig)
+        .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+        .evictExpiredConnections()
+        .evictIdleConnections(idleConnectionTimeout, TimeUnit.MILLISECONDS)
+        .build();
+  }
+}
@@ -0,0 +1,458 @@
+package io.phasetwo.keycloak.events;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.Config;
+
+/**
+ * Bounds the work waiting for each target, so that a slow or failing receiver cannot grow memory
+ * without limit or occupy every sender thread. Jobs are queued in a lane per key (a webhook id).
+ * A lane holds at most {@code capacity} jobs that are waiting, either because they are delayed for
+ * a retry or because the lane already has {@code maxInFlight} jobs running. When a lane is full,
+ * the {@link Overflow} policy picks a job to reject instead of queuing it. Running jobs are handed
+ * to the shared executor one at a time as slots free up, so lanes share its threads fairly.
+ *
+ * <p>Unless they are configured, lanes are unbounded and may run as many jobs as the executor
+ * does, so that nothing is dropped or slowed down compared to sending straight to the executor.
+ *
+ * <p>When the queue is {@link #close(long) closed}, jobs that are ready keep running until a
+ * deadline, and jobs that are waiting for a retry are {@link Job#stopped stopped} so that they can
+ * be saved elsewhere.
+ */
+@JBossLog
+public class SenderQueue {
+
+  /** What to do with a job that does not fit in its lane. */
+  public enum Overflow {
+    /** Reject the longest waiting job that is ready to run, and queue the new one. */
+    DROP_OLDEST,
+    /** Reject the new job. */
+    DROP_NEWEST,
+    /** Reject the new job, which hands it over to durable storage to be sent later. */
+    SPILL;
+
+    static Overflow fromConfig(String value) {
+      return Overflow.valueOf(value.trim().toUpperCase().replace('-', '_'));
+    }
+  }
+
+  /** A unit of work in a lane. */
+  public interface Job {
+    /**
+     * Run the job. At most {@code maxInFlight} jobs of a lane run at the same time. A job that
+     * finishes asynchronously returns a future that completes when it is done, and holds its slot
+     * until then; a job that finishes before returning may return null.
+     */
+    CompletableFuture<?> run();
+
+    /**
+     * Called instead of {@link #run()} when the job is rejected because its lane is full.
+     *
+     * @param policy the policy that rejected it
+     * @param delayMillis how long the job was to wait before running
+     */
+    void rejected(Overflow policy, long delayMillis);
+
+    /**
+     * Called instead of {@link #run()} for a job that was still waiting when the queue was closed.
+     * By default the job is dropped.
+     *
+     * @param delayMillis how long the job still had to wait before running
+     * @return true if the job was saved to be run later, e.g. by another node
+     */
+    default boolean stopped(long delayMillis) {
+      return false;
+    }
+  }
+
+  static final String CAPACITY = "queueCapacity";
+  static final String MAX_IN_FLIGHT = "queueMaxInFlight";
+  static final String OVERFLOW = "queueOverflow";
+
+  // unbounded, and as many in flight as the executor runs at once
+  static final int DEFAULT_CAPACITY = 0;
+  static final Overflow DEFAULT_OVERFLOW = Overflow.DROP_NEWEST;
+
+  private final ScheduledExecutorService exec;
+  private final int capacity;
+  private final int maxInFlight;
+  private final Overflow overflow;
+  private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+  private volatile boolean closing = false;
+
+  public SenderQueue(
+      ScheduledExecutorService exec, int capacity, int maxInFlight, Overflow overflow) {
+    this.exec = exec;
+    this.capacity = capacity;
+    this.maxInFlight = maxInFlight;
+    this.overflow = overflow;
+  }
+
+  /**
+   * Create a queue from the SPI config. {@code spillable} says if there is somewhere to spill to;
+   * if not, {@link Overflow#SPILL} is replaced by {@link Overflow#DROP_NEWEST}. A capacity of 0 or
+   * less is unbounded.
+   */
+  static SenderQueue create(Config.Scope scope, ScheduledExecutorService exec, boolean spillable) {
+    int capacity = scope.getInt(CAPACITY, DEFAULT_CAPACITY);
+    if (capacity <= 0) capacity = Integer.MAX_VALUE;
+    int maxInFlight = scope.getInt(MAX_IN_FLIGHT, SenderExecutors.concurrency(scope));
+    Overflow overflow = DEFAULT_OVERFLOW;
+    String value = scope.get(OVERFLOW);
+    if (value != null) {
+      try {
+        overflow = Overflow.fromConfig(value);
+      } catch (IllegalArgumentException e) {
+        log.warnf("Invalid %s=%s; using %s", OVERFLOW, value, DEFAULT_OVERFLOW);
+      }
+    }
+    if (overflow == Overflow.SPILL && !spillable) {
+      log.warnf("%s=spill needs %s=true; using drop-newest", OVERFLOW, WebhookOutbox.ENABLED);
+      overflow = Overflow.DROP_NEWEST;
+    }
+    log.infof(
+        "sender queue: capacity %d, maxInFlight %d, overflow %s", capacity, maxInFlight, overflow);
+    return new SenderQueue(exec, capacity, Math.max(1, maxInFlight), overflow);
+  }
+
+  /**
+   * Queue a job in the lane for {@code key}, to run after {@code delayMillis}. Once the queue is
+   * closing, a job with a delay is stopped straight away.
+   */
+  public void submit(String key, long delayMillis, Job job) {
+    Lane lane = lanes.computeIfAbsent(key, Lane::new);
+    if (closing && delayMillis > 0) {
+      stop(lane, job, delayMillis);
+      return;
+    }
+    Job rejected = null;
+    Delayed delayed = null;
+    synchronized (lane) {
+      if (lane.waiting() >= capacity) {
+        if (overflow == Overflow.DROP_OLDEST) rejected = lane.ready.pollFirst();
+        if (rejected == null) rejected = job;
+      }
+      if (rejected != job) {
+        if (delayMillis > 0) {
+          delayed = new Delayed(job, System.currentTimeMillis() + delayMillis);
+          lane.delayed.add(delayed);
+        } else {
+          lane.ready.addLast(job);
+        }
+      }
+    }
+    if (rejected != null) reject(lane, rejected, rejected == job ? delayMillis : 0);
+    if (rejected == job) return;
+    if (delayed != null) {
+      final Delayed d = delayed;
+      try {
+        d.trigger = exec.schedule(() -> ready(lane, d), delayMillis, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        synchronized (lane) {
+          lane.delayed.remove(d);
+        }
+        log.warn("Task scheduled after shutdown initiated");
+      }
+    } else {
+      dispatch(lane);
+    }
+  }
+
+  /**
+   * Close the queue. Jobs that are waiting for a retry, or that are delayed after this is called,
+   * are stopped. Jobs that are ready are still run, and jobs that are running are waited for, for
+   * up to {@code timeoutMillis}. Jobs that have not started by then are stopped too.
+   *
+   * @return what became of the jobs that were in the queue
+   */
+  public Drained close(long timeoutMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    closing = true;
+    Drained drained = new Drained();
+    for (Lane lane : lanes.values()) {
+      List<Delayed> stopped;
+      synchronized (lane) {
+        stopped = new ArrayList<>(lane.delayed);
+        lane.delayed.clear();
+      }
+      for (Delayed d : stopped) {
+        if (d.trigger != null) d.trigger.cancel(false);
+        stop(lane, d.job, Math.max(0, d.dueAt - System.currentTimeMillis()));
+      }
+    }
+    synchronized (this) {
+      long remaining;
+      while (size() > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+        wait(Math.min(remaining, 100));
+      }
+    }
+    for (Lane lane : lanes.values()) {
+      List<Job> stopped;
+      synchronized (lane) {
+        stopped = new ArrayList<>(lane.ready);
+        lane.ready.clear();
+        drained.running += lane.inFlight;
+      }
+      for (Job job : stopped) stop(lane, job, 0);
+    }
+    for (Lane lane : lanes.values()) {
+      synchronized (lane) {
+        drained.completed += lane.completedClosing;
+        drained.saved += lane.saved;
+        drained.dropped += lane.stopped - lane.saved;
+      }
+    }
+    return drained;
+  }
+
+  /**
+   * Forget the lane of {@code key}, e.g. when its webhook is removed, so that lanes and their
+   * counters do not pile up for webhooks that no longer exist. A lane with jobs is removed once its
+   * last job has finished. A job submitted for the key after this gets a new lane.
+   */
+  public void remove(String key) {
+    lanes.computeIfPresent(
+        key,
+        (k, lane) -> {
+          synchronized (lane) {
+            if (lane.waiting() == 0 && lane.inFlight == 0) return null;
+            lane.retired = true;
+            return lane;
+          }
+        });
+  }
+
+  /** Counters for the lane of {@code key}. */
+  public Stats stats(String key) {
+    Lane lane = lanes.get(key);
+    if (lane == null) return new Stats(0, 0, 0, 0);
+    synchronized (lane) {
+      return new Stats(lane.waiting(), lane.inFlight, lane.dropped, lane.spilled);
+    }
+  }
+
+  /** Number of jobs waiting or running, across all lanes. */
+  public int size() {
+    int size = 0;
+    for (Lane lane : lanes.values()) {
+      synchronized (lane) {
+        size += lane.waiting() + lane.inFlight;
+      }
+    }
+    return size;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  public Overflow getOverflow() {
+    return overflow;
+  }
+
+  private void ready(Lane lane, Delayed delayed) {
+    synchronized (lane) {
+      if (!lane.delayed.remove(delayed)) return; // stopped by close()
+      lane.ready.addLast(delayed.job);
+    }
+    dispatch(lane);
+  }
+
+  private void dispatch(Lane lane) {
+    while (true) {
+      Job next;
+      synchronized (lane) {
+        if (lane.inFlight >= maxInFlight || lane.ready.isEmpty()) return;
+        next = lane.ready.pollFirst();
+        lane.inFlight++;
+      }
+      try {
+        exec.execute(() -> run(lane, next));
+      } catch (RejectedExecutionException e) {
+        synchronized (lane) {
+          lane.inFlight--;
+        }
+        log.warn("Task scheduled after shutdown initiated");
+        return;
+      }
+    }
+  }
+
+  private void run(Lane lane, Job job) {
+    CompletableFuture<?> running = null;
+    try {
+      running = job.run();
+    } catch (Throwable t) {
+      log.warn("Uncaught Sender error", t);
+    }
+    if (running == null) {
+      finished(lane);
+    } else {
+      running.whenComplete((r, e) -> finished(lane));
+    }
+  }
+
+  private void finished(Lane lane) {
+    boolean empty;
+    synchronized (lane) {
+      lane.inFlight--;
+      if (closing) lane.completedClosing++;
+      empty = lane.retired && lane.waiting() == 0 && lane.inFlight == 0;
+    }
+    if (empty && !closing) lanes.remove(lane.key, lane);
+    if (closing) {
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+    dispatch(lane);
+  }
+
+  private void stop(Lane lane, Job job, long delayMillis) {
+    boolean saved = false;
+    try {
+      saved = job.stopped(delayMillis);
+    } catch (Exception e) {
+      log.warnf(e, "Error stopping job for %s", lane.key);
+    }
+    synchronized (lane) {
+      lane.stopped++;
+      if (saved) lane.saved++;
+    }
+  }
+
+  private void reject(Lane lane, Job job, long delayMillis) {
+    boolean first;
+    synchronized (lane) {
+      if (overflow == Overflow.SPILL) lane.spilled++;
+      else lane.dropped++;
+      first = lane.dropped + lane.spilled == 1;
+    }
+    if (first) {
+      log.warnf(
+          "queue for %s is full (%s %d). %s. Further overflows are logged at debug, and counted in"
+              + " the queue stats",
+          lane.key, CAPACITY, capacity, overflow);
+    } else {
+      log.debugf("queue for %s is full. %s", lane.key, overflow);
+    }
+    try {
+      job.rejected(overflow, delayMillis);
+    } catch (Exception e) {
+      log.warnf(e, "Error rejecting job for %s", lane.key);
+    }
+  }
+
+  /** A point-in-time view of a lane. */
+  public static class Stats {
+    private final int depth;
+    private final int inFlight;
+    private final long dropped;
+    private final long spilled;
+
+    Stats(int depth, int inFlight, long dropped, long spilled) {
+      this.depth = depth;
+      this.inFlight = inFlight;
+      this.dropped = dropped;
+      this.spilled = spilled;
+    }
+
+    /** Jobs waiting to run, whether ready or delayed for a retry. */
+    public int getDepth() {
+      return depth;
+    }
+
+    /** Jobs running now. */
+    public int getInFlight() {
+      return inFlight;
+    }
+
+    /** Jobs rejected and dropped since startup. */
+    public long getDropped() {
+      return dropped;
+    }
+
+    /** Jobs rejected and spilled to durable storage since startup. */
+    public long getSpilled() {
+      return spilled;
+    }
+  }
+
+  /** What became of the jobs in a queue when it was closed. */
+  public static class Drained {
+    private int completed;
+    private int saved;
+    private int dropped;
+    private int running;
+
+    /** Jobs that finished while the queue was closing. */
+    public int getCompleted() {
+      return completed;
+    }
+
+    /** Jobs that were stopped and saved to be run later. */
+    public int getSaved() {
+      return saved;
+    }
+
+    /** Jobs that were stopped and dropped. */
+    public int getDropped() {
+      return dropped;
+    }
+
+    /** Jobs still running at the deadline. */
+    public int getRunning() {
+      return running;
+    }
+  }
+
+  /** A job waiting to be ready at {@code dueAt}. */
+  private static class Delayed {
+    private final Job job;
+    private final long dueAt;
+    private volatile ScheduledFuture<?> trigger;
+
+    Delayed(Job job, long dueAt) {
+      this.job = job;
+      this.dueAt = dueAt;
+    }
+  }
+
+  /** Must be accessed holding its lock. */
+  private static class Lane {
+    private final String key;
+    private final Deque<Job> ready = new ArrayDeque<>();
+    private final Set<Delayed> delayed = new LinkedHashSet<>();
+    private int inFlight = 0;
+    private long dropped = 0;
+    private long spilled = 0;
+    private int completedClosing = 0;
+    private int stopped = 0;
+    private int saved = 0;
+    private boolean retired = false;
+
+    Lane(String key) {
+      this.key = key;
+    }
+
+    int waiting() {
+      return ready.size() + delayed.size();
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package io.phasetwo.keycloak.events;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link ScheduledExecutorService} that keeps time on a small pool of platform threads, and runs
+ * each task on a new virtual thread once it is due. A task that blocks on I/O, such as an HTTP
+ * send, then parks its virtual thread instead of holding one of a fixed number of threads.
+ * Periodic tasks are short housekeeping jobs, and run on the scheduler threads.
+ *
+ * <p>As with a {@link java.util.concurrent.ScheduledThreadPoolExecutor}, delayed tasks that were
+ * scheduled before {@link #shutdown()} still run when they are due. The virtual threads are shut
+ * down once the scheduler has terminated, by {@link #awaitTermination}.
+ */
+final class VirtualThreadScheduledExecutor extends AbstractExecutorService
+    implements ScheduledExecutorService {
+
+  private final ScheduledExecutorService scheduler;
+  private final ExecutorService workers;
+
+  VirtualThreadScheduledExecutor(ScheduledExecutorService scheduler, ExecutorService workers) {
+    this.scheduler = scheduler;
+    this.workers = workers;
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    if (isShutdown()) throw new RejectedExecutionException("executor has been shut down");
+    workers.execute(command);
+  }
+
+  @Override
+  public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+    return schedule(new FutureTask<Void>(command, null), delay, unit);
+  }
+
+  @Override
+  public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+    return schedule(new FutureTask<V>(callable), delay, unit);
+  }
+
+  private <V> ScheduledFuture<V> schedule(FutureTask<V> task, long delay, TimeUnit unit) {
+    ScheduledFuture<?> trigger =
+        scheduler.schedule(
+            () -> {
+              if (!task.isCancelled()) workers.execute(task);
+            },
+            delay,
+            unit);
+    return new HandedOff<>(trigger, task);
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleAtFixedRate(
+      Runnable command, long initialDelay, long period, TimeUnit unit) {
+    return scheduler.scheduleAtFixedRate(command, initialDelay, period, unit);
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleWithFixedDelay(
+      Runnable command, long initialDelay, long delay, TimeUnit unit) {
+    return scheduler.scheduleWithFixedDelay(command, initialDelay, delay, unit);
+  }
+
+  @Override
+  public void shutdown() {
+    scheduler.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    List<Runnable> pending = scheduler.shutdownNow();
+    pending.addAll(workers.shutdownNow());
+    return pending;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return scheduler.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return scheduler.isTerminated() && workers.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    if (!scheduler.awaitTermination(timeout, unit)) return false;
+    workers.shutdown();
+    return workers.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+
+  /** The timing of the trigger on the scheduler, and the result of the task it handed off. */
+  private static class HandedOff<V> implements ScheduledFuture<V> {
+    private final ScheduledFuture<?> trigger;
+    private final FutureTask<V> task;
+
+    HandedOff(ScheduledFuture<?> trigger, FutureTask<V> task) {
+      this.trigger = trigger;
+      this.task = task;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return trigger.getDelay(unit);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+      return trigger.compareTo(o);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      trigger.cancel(false);
+      return task.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return task.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      return task.isDone();
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+      return task.get();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      return task.get(timeout, unit);
+    }
+  }
+}
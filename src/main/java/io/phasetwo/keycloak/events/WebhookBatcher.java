@@ -0,0 +1,150 @@
+package io.phasetwo.keycloak.events;
+
+import com.google.common.collect.Lists;
+import io.phasetwo.keycloak.representation.ExtendedAdminEvent;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Gathers events for webhooks that have batching enabled, and hands each batch to a flusher as a
+ * single delivery when it reaches its size limit or byte limit, or when its oldest event has
+ * lingered for the configured time. There is at most one open batch per key (webhook id). Shared by
+ * all providers created by the factory that owns it.
+ */
+@JBossLog
+public class WebhookBatcher {
+
+  private final ScheduledExecutorService exec;
+  private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+
+  public WebhookBatcher(ScheduledExecutorService exec) {
+    this.exec = exec;
+  }
+
+  /**
+   * Add an event to the open batch for {@code key}, creating one if necessary.
+   *
+   * @param key the batch key, usually the webhook id
+   * @param maxSize flush when the batch holds this many events
+   * @param maxBytes flush before the batch would exceed this many bytes; 0 for no limit
+   * @param lingerMillis flush when the oldest event in the batch has waited this long
+   * @param event the event to add
+   * @param bytes the serialized size of the event, counted against {@code maxBytes}
+   * @param flusher receives the events of a batch when it is flushed. The flusher of the batch's
+   *     first event is used for the whole batch.
+   */
+  public void add(
+      String key,
+      int maxSize,
+      int maxBytes,
+      long lingerMillis,
+      ExtendedAdminEvent event,
+      int bytes,
+      Consumer<List<ExtendedAdminEvent>> flusher) {
+    while (true) {
+      Batch batch =
+          batches.computeIfAbsent(key, k -> new Batch(k, maxSize, maxBytes, lingerMillis, flusher));
+      List<ExtendedAdminEvent> full = null;
+      boolean added = false;
+      synchronized (batch) {
+        if (batch.closed) continue; // flushed since we looked it up
+        if (batch.maxBytes > 0 && !batch.events.isEmpty() && batch.bytes + bytes > batch.maxBytes) {
+          // this event would push the batch over its byte limit. send what we have first.
+          full = close(batch);
+        } else {
+          batch.events.add(event);
+          batch.bytes += bytes;
+          added = true;
+          if (batch.events.size() == 1) {
+            batch.linger = scheduleLinger(batch);
+          }
+          if (batch.events.size() >= batch.maxSize
+              || (batch.maxBytes > 0 && batch.bytes >= batch.maxBytes)) {
+            full = close(batch);
+          }
+        }
+      }
+      if (full != null) flush(batch, full);
+      if (added) return;
+    }
+  }
+
+  /** Flush all open batches immediately, e.g. before shutdown. */
+  public void flushAll() {
+    batches.values().forEach(this::flush);
+  }
+
+  /** Approximate number of events currently waiting in open batches. */
+  public int size() {
+    return batches.values().stream().mapToInt(b -> b.events.size()).sum();
+  }
+
+  private ScheduledFuture<?> scheduleLinger(Batch batch) {
+    if (exec.isShutdown()) return null;
+    try {
+      return exec.schedule(() -> flush(batch), batch.lingerMillis, TimeUnit.MILLISECONDS);
+    } catch (Exception e) {
+      log.warn("Error scheduling batch flush", e);
+      return null;
+    }
+  }
+
+  private void flush(Batch batch) {
+    List<ExtendedAdminEvent> events;
+    synchronized (batch) {
+      if (batch.closed) return;
+      events = close(batch);
+    }
+    flush(batch, events);
+  }
+
+  private void flush(Batch batch, List<ExtendedAdminEvent> events) {
+    if (events.isEmpty()) return;
+    log.debugf(
+        "flushing batch of %d events (%d bytes) for %s", events.size(), batch.bytes, batch.key);
+    try {
+      batch.flusher.accept(events);
+    } catch (Exception e) {
+      log.warnf(e, "Error flushing batch for %s", batch.key);
+    }
+  }
+
+  /** Must be called holding the batch lock. */
+  private List<ExtendedAdminEvent> close(Batch batch) {
+    batch.closed = true;
+    batches.remove(batch.key, batch);
+    if (batch.linger != null) batch.linger.cancel(false);
+    return batch.events;
+  }
+
+  private static class Batch {
+    private final String key;
+    private final int maxSize;
+    private final int maxBytes;
+    private final long lingerMillis;
+    private final Consumer<List<ExtendedAdminEvent>> flusher;
+    private final List<ExtendedAdminEvent> events = Lists.newArrayList();
+    private int bytes = 0;
+    private boolean closed = false;
+    private ScheduledFuture<?> linger;
+
+    Batch(
+        String key,
+        int maxSize,
+        int maxBytes,
+        long lingerMillis,
+        Consumer<List<ExtendedAdminEvent>> flusher) {
+      this.key = key;
+      this.maxSize = maxSize;
+      this.maxBytes = maxBytes;
+      this.lingerMillis = lingerMillis;
+      this.flusher = flusher;
+    }
+  }
+}
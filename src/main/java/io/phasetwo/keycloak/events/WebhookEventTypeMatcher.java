@@ -0,0 +1,102 @@
+package io.phasetwo.keycloak.events;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * The event types a webhook is subscribed to, compiled once so that checking an event against them
+ * does not compile regular expressions:
+ *
+ * <ul>
+ *   <li>{@code *} matches everything
+ *   <li>types without regex syntax other than dots (e.g. {@code access.LOGIN}) are matched exactly,
+ *       with a set lookup
+ *   <li>such a type followed by {@code .*} (e.g. {@code access.*}, {@code admin.*}) is a prefix
+ *       check
+ *   <li>anything else is a precompiled regular expression. Invalid expressions only match exactly.
+ * </ul>
+ */
+@JBossLog
+public final class WebhookEventTypeMatcher {
+
+  private static final String ANY = "*";
+  private static final String ANY_SUFFIX = ".*";
+  // '.' is left out, as event types are dotted names (e.g. access.LOGIN) rather than patterns
+  private static final String REGEX_META = "\\^$|?*+()[]{}";
+
+  private final Set<String> eventTypes;
+  private final boolean any;
+  private final Set<String> exact;
+  private final List<String> prefixes;
+  private final List<Pattern> patterns;
+
+  private WebhookEventTypeMatcher(
+      Set<String> eventTypes,
+      boolean any,
+      Set<String> exact,
+      List<String> prefixes,
+      List<Pattern> patterns) {
+    this.eventTypes = eventTypes;
+    this.any = any;
+    this.exact = exact;
+    this.prefixes = prefixes;
+    this.patterns = patterns;
+  }
+
+  public static WebhookEventTypeMatcher compile(Collection<String> eventTypes) {
+    boolean any = false;
+    ImmutableSet.Builder<String> exact = ImmutableSet.builder();
+    ImmutableList.Builder<String> prefixes = ImmutableList.builder();
+    ImmutableList.Builder<Pattern> patterns = ImmutableList.builder();
+    for (String t : eventTypes) {
+      if (t == null) continue;
+      if (ANY.equals(t)) {
+        any = true;
+      } else if (isLiteral(t)) {
+        exact.add(t);
+      } else if (t.endsWith(ANY_SUFFIX) && isLiteral(t.substring(0, t.length() - 2))) {
+        prefixes.add(t.substring(0, t.length() - 2));
+      } else {
+        try {
+          patterns.add(Pattern.compile(t));
+        } catch (PatternSyntaxException e) {
+          log.debugf("Event type %s is not a valid pattern. Matching it exactly.", t);
+          exact.add(t);
+        }
+      }
+    }
+    return new WebhookEventTypeMatcher(
+        ImmutableSet.copyOf(eventTypes), any, exact.build(), prefixes.build(), patterns.build());
+  }
+
+  private static boolean isLiteral(String t) {
+    for (int i = 0; i < t.length(); i++) {
+      if (REGEX_META.indexOf(t.charAt(i)) >= 0) return false;
+    }
+    return true;
+  }
+
+  /** The event types this was compiled from. */
+  public Set<String> getEventTypes() {
+    return eventTypes;
+  }
+
+  public boolean matches(String type) {
+    if (any) return true;
+    if (type == null) return false;
+    if (exact.contains(type)) return true;
+    for (String prefix : prefixes) {
+      if (type.startsWith(prefix)) return true;
+    }
+    for (Pattern pattern : patterns) {
+      if (pattern.matcher(type).matches()) return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,36 @@
+package io.phasetwo.keycloak.events;
+
+import io.phasetwo.keycloak.model.WebhookModel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled {@link WebhookEventTypeMatcher}s cached by webhook id. An entry is recompiled if the
+ * webhook's event types no longer match the ones it was compiled from (e.g. after a change made on
+ * another node), and is dropped when the webhook is changed or removed through the admin API.
+ */
+public class WebhookEventTypeMatchers {
+
+  private final Map<String, WebhookEventTypeMatcher> matchers = new ConcurrentHashMap<>();
+
+  public WebhookEventTypeMatcher get(WebhookModel webhook) {
+    WebhookEventTypeMatcher matcher = matchers.get(webhook.getId());
+    if (matcher == null || !matcher.getEventTypes().equals(webhook.getEventTypes())) {
+      matcher = WebhookEventTypeMatcher.compile(webhook.getEventTypes());
+      matchers.put(webhook.getId(), matcher);
+    }
+    return matcher;
+  }
+
+  public void invalidate(String webhookId) {
+    matchers.remove(webhookId);
+  }
+
+  public void clear() {
+    matchers.clear();
+  }
+
+  public int size() {
+    return matchers.size();
+  }
+}
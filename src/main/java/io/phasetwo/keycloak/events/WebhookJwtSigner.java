@@ -43,8 +43,21 @@ public final class WebhookJwtSigner {
 
   private static final String LIFESPAN_ENV = "WEBHOOK_JWT_LIFESPAN_SECONDS";
 
+  /**
+   * A realm's active signing key for an algorithm, ready to sign with, and the issuer of the
+   * realm's tokens. Neither needs a session once it has been loaded, so it can be cached.
+   */
+  public record RealmSigner(SignatureSignerContext context, String issuer) {}
+
+  private static final int LIFESPAN_SECONDS = lifespanSeconds();
+
   private WebhookJwtSigner() {}
 
+  /** The algorithm to sign with: the given one, or the default when blank. */
+  static String algorithm(String algorithm) {
+    return Strings.isNullOrEmpty(algorithm) ? WebhookModel.DEFAULT_BEARER_ALGORITHM : algorithm;
+  }
+
   /**
    * Sign a bearer JWT for the given realm and payload.
    *
@@ -53,7 +66,7 @@ public final class WebhookJwtSigner {
    * @param algorithm the JWS algorithm (e.g. {@code RS256}); defaults to {@link
    *     WebhookModel#DEFAULT_BEARER_ALGORITHM} when blank
    * @param audience the {@code aud} claim; may be null
-   * @param body the exact serialized request body, hashed into the {@code request_body_sha256} claim
+   * @param body the exact request body bytes, hashed into the {@code request_body_sha256} claim
    * @param fallbackBaseUri base URI to derive the issuer from when neither the realm frontend URL
    *     nor {@code KC_HOSTNAME} is set; may be null
    * @return the signed compact JWS, or null if it could not be produced
@@ -63,32 +76,59 @@ public final class WebhookJwtSigner {
       RealmModel realm,
       String algorithm,
       String audience,
-      String body,
+      byte[] body,
       String fallbackBaseUri) {
     try {
-      String alg =
-          Strings.isNullOrEmpty(algorithm) ? WebhookModel.DEFAULT_BEARER_ALGORITHM : algorithm;
-
-      KeyWrapper key = session.keys().getActiveKey(realm, KeyUse.SIG, alg);
-      if (key == null) {
-        log.warnf(
-            "No active %s signing key for realm %s; cannot sign webhook JWT", alg, realm.getName());
-        return null;
-      }
-      SignatureSignerContext signer = session.getProvider(SignatureProvider.class, alg).signer(key);
+      RealmSigner signer = signer(session, realm, algorithm, fallbackBaseUri);
+      return signer != null ? sign(signer, audience, body) : null;
+    } catch (Exception e) {
+      log.warn("Unable to sign webhook JWT", e);
+      return null;
+    }
+  }
 
+  /**
+   * Load the realm's active signing key for the algorithm, and resolve its issuer.
+   *
+   * @return the signer, or null if the realm has no active key for the algorithm
+   */
+  public static RealmSigner signer(
+      KeycloakSession session, RealmModel realm, String algorithm, String fallbackBaseUri) {
+    String alg = algorithm(algorithm);
+    KeyWrapper key = session.keys().getActiveKey(realm, KeyUse.SIG, alg);
+    if (key == null) {
+      log.warnf(
+          "No active %s signing key for realm %s; cannot sign webhook JWT", alg, realm.getName());
+      return null;
+    }
+    return new RealmSigner(
+        session.getProvider(SignatureProvider.class, alg).signer(key),
+        resolveIssuer(realm, fallbackBaseUri));
+  }
+
+  /**
+   * Sign a bearer JWT for the payload with a loaded signer. Needs no session.
+   *
+   * @return the signed compact JWS, or null if it could not be produced
+   */
+  public static String sign(RealmSigner signer, String audience, byte[] body) {
+    try {
       int now = Time.currentTime();
       JsonWebToken token = new JsonWebToken();
       token.id(KeycloakModelUtils.generateId());
-      token.issuer(resolveIssuer(realm, fallbackBaseUri));
+      token.issuer(signer.issuer());
       if (!Strings.isNullOrEmpty(audience)) {
         token.audience(audience);
       }
       token.iat((long) now);
-      token.exp((long) (now + lifespanSeconds()));
+      token.exp((long) (now + LIFESPAN_SECONDS));
       token.setOtherClaims(BODY_HASH_CLAIM, sha256Hex(body));
 
-      return new JWSBuilder().type("JWT").kid(key.getKid()).jsonContent(token).sign(signer);
+      return new JWSBuilder()
+          .type("JWT")
+          .kid(signer.context().getKid())
+          .jsonContent(token)
+          .sign(signer.context());
     } catch (Exception e) {
       log.warn("Unable to sign webhook JWT", e);
       return null;
@@ -134,14 +174,11 @@ public final class WebhookJwtSigner {
   }
 
   static String sha256Hex(String data) throws Exception {
+    return sha256Hex(data.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static String sha256Hex(byte[] data) throws Exception {
     MessageDigest md = MessageDigest.getInstance("SHA-256");
-    byte[] digest = md.digest(data.getBytes(StandardCharsets.UTF_8));
-    StringBuilder sb = new StringBuilder(digest.length * 2);
-    for (byte b : digest) {
-      String s = Integer.toHexString(0xFF & b);
-      if (s.length() == 1) sb.append('0');
-      sb.append(s);
-    }
-    return sb.toString();
+    return Hex.encode(md.digest(data));
   }
 }
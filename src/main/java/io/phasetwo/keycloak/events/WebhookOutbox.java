@@ -0,0 +1,248 @@
+package io.phasetwo.keycloak.events;
+
+import io.phasetwo.keycloak.events.SenderEventListenerProvider.SenderTask;
+import io.phasetwo.keycloak.model.WebhookOutboxModel;
+import io.phasetwo.keycloak.model.WebhookProvider;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.Config;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Persists pending webhook deliveries in the {@code WEBHOOK_OUTBOX} table so they survive a
+ * restart. A delivery is written in the same transaction that decides to send it, claimed by this
+ * node for a lease, and removed once it has been delivered or abandoned. While a delivery is
+ * waiting for a retry, its claim is extended past the next attempt. A poller on every node renews
+ * the claims this node still holds, however long the deliveries wait in its queues, then claims
+ * due deliveries whose claim has expired (i.e. the node that owned them went away) and resumes
+ * them, using {@code SELECT ... FOR UPDATE SKIP LOCKED} so that nodes never claim the same rows.
+ * Delivery is at-least-once: a delivery is only sent again if its node stops renewing while it is
+ * in flight.
+ */
+@JBossLog
+public class WebhookOutbox {
+
+  static final String ENABLED = "outboxEnabled";
+  static final String POLL_INTERVAL = "outboxPollIntervalMillis";
+  static final String BATCH_SIZE = "outboxBatchSize";
+  static final String LEASE = "outboxLeaseMillis";
+  static final String MAX_AGE = "outboxMaxAgeMillis";
+
+  static final long DEFAULT_POLL_INTERVAL = 5000;
+  static final int DEFAULT_BATCH_SIZE = 100;
+  // longer than a single attempt can take with the default connect, pool and socket timeouts
+  static final long DEFAULT_LEASE = 60000;
+  static final long DEFAULT_MAX_AGE = 86400000;
+
+  static final String OUTBOX_ID = "outboxId";
+
+  private final String nodeId;
+  private final long pollIntervalMillis;
+  private final int batchSize;
+  private final long leaseMillis;
+  private final long maxAgeMillis;
+
+  private KeycloakSessionFactory factory;
+  private ScheduledFuture<?> poller;
+
+  WebhookOutbox(long pollIntervalMillis, int batchSize, long leaseMillis, long maxAgeMillis) {
+    this.nodeId = KeycloakModelUtils.generateId();
+    this.pollIntervalMillis = pollIntervalMillis;
+    this.batchSize = batchSize;
+    this.leaseMillis = leaseMillis;
+    this.maxAgeMillis = maxAgeMillis;
+  }
+
+  /** Create the outbox if it is enabled in the SPI config, otherwise null. */
+  static WebhookOutbox create(Config.Scope scope) {
+    boolean enabled = scope.getBoolean(ENABLED, false);
+    if (!enabled) {
+      log.infof("%s false. webhook deliveries are held in memory only", ENABLED);
+      return null;
+    }
+    long pollInterval = scope.getLong(POLL_INTERVAL, DEFAULT_POLL_INTERVAL);
+    int batchSize = scope.getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE);
+    long lease = scope.getLong(LEASE, DEFAULT_LEASE);
+    long maxAge = scope.getLong(MAX_AGE, DEFAULT_MAX_AGE);
+    if (lease < 3 * pollInterval) {
+      log.warnf(
+          "%s %d is less than 3 * %s %d. queued deliveries may be claimed and sent again by another"
+              + " node if a poll is late",
+          LEASE, lease, POLL_INTERVAL, pollInterval);
+    }
+    log.infof(
+        "webhook outbox: pollInterval %d, batchSize %d, lease %d, maxAge %d",
+        pollInterval, batchSize, lease, maxAge);
+    return new WebhookOutbox(pollInterval, batchSize, lease, maxAge);
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  /** Start polling for due deliveries that no live node has claimed. */
+  public void start(KeycloakSessionFactory factory, ScheduledExecutorService exec) {
+    this.factory = factory;
+    this.poller =
+        exec.scheduleWithFixedDelay(
+            this::poll, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public void stop() {
+    if (poller != null) poller.cancel(false);
+  }
+
+  /**
+   * Write a task to the outbox in the given session's transaction, claimed by this node. The id of
+   * the row is recorded in the task's properties.
+   */
+  void store(KeycloakSession session, String realmId, String webhookId, SenderTask task)
+      throws IOException {
+    String id = KeycloakModelUtils.generateId();
+    String payload = new String(task.getPayload(), StandardCharsets.UTF_8);
+    RealmModel realm = session.realms().getRealm(realmId);
+    session
+        .getProvider(WebhookProvider.class)
+        .storeOutbox(realm, webhookId, id, payload, nodeId, leaseFrom(0));
+    task.getProperties().put(OUTBOX_ID, id);
+  }
+
+  /** Record a failed attempt, and keep the claim until after the next attempt is due. */
+  void retrying(SenderTask task, long delayMillis) {
+    String id = task.getProperties().get(OUTBOX_ID);
+    if (id == null) return;
+    try {
+      KeycloakModelUtils.runJobInTransaction(
+          factory,
+          (session) -> {
+            WebhookOutboxModel outbox =
+                session.getProvider(WebhookProvider.class).getOutboxById(id);
+            if (outbox == null) return;
+            outbox.setAttempt(task.getAttempt());
+            outbox.setNextAttemptAt(new Date(System.currentTimeMillis() + delayMillis));
+            outbox.claim(nodeId, leaseFrom(delayMillis));
+          });
+    } catch (Exception e) {
+      log.warnf(e, "Error updating outbox delivery %s", id);
+    }
+  }
+
+  /**
+   * Hand a task over to the outbox without a claim, so that whichever node polls first sends it
+   * once it is due. Used for tasks that do not fit in this node's queue, or that are still waiting
+   * when it shuts down.
+   *
+   * @return true if the task was handed over
+   */
+  boolean spill(SenderTask task, long delayMillis) {
+    String id = task.getProperties().get(OUTBOX_ID);
+    Date nextAttemptAt = new Date(System.currentTimeMillis() + delayMillis);
+    try {
+      String payload = new String(task.getPayload(), StandardCharsets.UTF_8);
+      KeycloakModelUtils.runJobInTransaction(
+          factory,
+          (session) -> {
+            WebhookProvider webhooks = session.getProvider(WebhookProvider.class);
+            WebhookOutboxModel outbox;
+            if (id != null) {
+              outbox = webhooks.getOutboxById(id);
+              if (outbox == null) return; // already finished elsewhere
+            } else {
+              RealmModel realm = session.realms().getRealm(task.getProperties().get("realmId"));
+              outbox =
+                  webhooks.storeOutbox(
+                      realm,
+                      task.getProperties().get("webhookId"),
+                      KeycloakModelUtils.generateId(),
+                      payload,
+                      null,
+                      null);
+            }
+            outbox.setAttempt(task.getAttempt());
+            outbox.setNextAttemptAt(nextAttemptAt);
+            outbox.claim(null, null);
+          });
+      return true;
+    } catch (Exception e) {
+      log.warnf(e, "Error spilling webhook delivery to the outbox: %s", task);
+      return false;
+    }
+  }
+
+  /** Remove a task's row once it has been delivered or abandoned. */
+  void done(SenderTask task) {
+    String id = task.getProperties().get(OUTBOX_ID);
+    if (id == null) return;
+    try {
+      KeycloakModelUtils.runJobInTransaction(
+          factory, (session) -> session.getProvider(WebhookProvider.class).removeOutbox(id));
+    } catch (Exception e) {
+      log.warnf(e, "Error removing outbox delivery %s", id);
+    }
+  }
+
+  /**
+   * Renew the claims this node holds, then claim due deliveries and hand them back to a sender to
+   * resume.
+   */
+  void poll() {
+    final List<Runnable> resumed = new CopyOnWriteArrayList<>();
+    try {
+      KeycloakModelUtils.runJobInTransaction(
+          factory,
+          (session) -> {
+            WebhookSenderEventListenerProvider sender =
+                (WebhookSenderEventListenerProvider)
+                    session.getProvider(
+                        EventListenerProvider.class,
+                        WebhookSenderEventListenerProviderFactory.PROVIDER_ID);
+            WebhookProvider webhooks = session.getProvider(WebhookProvider.class);
+            int renewed = webhooks.renewOutboxClaims(nodeId, leaseFrom(0));
+            if (renewed > 0) log.tracef("renewed %d outbox claims", renewed);
+            long now = System.currentTimeMillis();
+            webhooks
+                .claimOutbox(nodeId, leaseFrom(0), batchSize)
+                .forEach(
+                    outbox -> {
+                      if (outbox.getCreatedAt() != null
+                          && now - outbox.getCreatedAt().getTime() > maxAgeMillis) {
+                        log.warnf(
+                            "Abandoning outbox delivery %s to webhook %s created at %s",
+                            outbox.getId(), outbox.getWebhookId(), outbox.getCreatedAt());
+                        webhooks.removeOutbox(outbox.getId());
+                        return;
+                      }
+                      SenderTask task = sender.resume(session, outbox);
+                      if (task == null) {
+                        webhooks.removeOutbox(outbox.getId());
+                        return;
+                      }
+                      resumed.add(() -> sender.schedule(task, 0l, TimeUnit.MILLISECONDS));
+                    });
+          });
+    } catch (Exception e) {
+      log.warn("Error polling webhook outbox", e);
+      return;
+    }
+    if (resumed.size() > 0) {
+      log.debugf("resuming %d deliveries from the outbox", resumed.size());
+    }
+    // only send once the claims have been committed
+    resumed.forEach(Runnable::run);
+  }
+
+  private Date leaseFrom(long delayMillis) {
+    return new Date(System.currentTimeMillis() + delayMillis + leaseMillis);
+  }
+}
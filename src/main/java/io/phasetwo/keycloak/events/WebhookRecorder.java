@@ -0,0 +1,214 @@
+package io.phasetwo.keycloak.events;
+
+import com.google.common.collect.ImmutableList;
+import io.phasetwo.keycloak.model.KeycloakEventType;
+import io.phasetwo.keycloak.model.WebhookProvider;
+import io.phasetwo.keycloak.model.WebhookRecord;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Writes the webhook event and send history behind the deliveries. Records are buffered in memory
+ * and written in batches, each in one transaction, every {@code flushIntervalMillis} or as soon as
+ * a batch is full. The buffer is bounded. When it is full, the thread adding a record writes the
+ * buffer out itself, so the history slows deliveries down rather than being lost. If a batch
+ * cannot be written, its records are written one at a time, so that one bad record does not lose
+ * the others. Whatever is buffered is written when the recorder is stopped.
+ *
+ * <p>Only one batch is written at a time, and the writer skips events and payloads that are
+ * already stored. An event or payload stored concurrently by another node violates the unique
+ * constraint on its id, which fails its batch. When it is then written on its own, the violation
+ * is ignored, as the record is already there, and the other records of the batch are written as
+ * usual.
+ */
+@JBossLog
+public class WebhookRecorder {
+
+  static final String FLUSH_INTERVAL = "recorderFlushIntervalMillis";
+  static final String BATCH_SIZE = "recorderBatchSize";
+  static final String BUFFER_SIZE = "recorderBufferSize";
+
+  static final long DEFAULT_FLUSH_INTERVAL = 1000;
+  static final int DEFAULT_BATCH_SIZE = 200;
+  static final int DEFAULT_BUFFER_SIZE = 10000;
+
+  private final long flushIntervalMillis;
+  private final int batchSize;
+  private final BlockingQueue<Object> buffer;
+  private final AtomicBoolean triggered = new AtomicBoolean();
+  private final Object flushLock = new Object();
+
+  private Consumer<List<Object>> writer;
+  private ScheduledExecutorService exec;
+  private ScheduledFuture<?> flusher;
+
+  WebhookRecorder(long flushIntervalMillis, int batchSize, int bufferSize) {
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.batchSize = batchSize;
+    this.buffer = new ArrayBlockingQueue<>(bufferSize);
+  }
+
+  static WebhookRecorder create(Config.Scope scope) {
+    long flushInterval = scope.getLong(FLUSH_INTERVAL, DEFAULT_FLUSH_INTERVAL);
+    int batchSize = scope.getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE);
+    int bufferSize = scope.getInt(BUFFER_SIZE, DEFAULT_BUFFER_SIZE);
+    log.infof(
+        "webhook recorder: flushInterval %d, batchSize %d, bufferSize %d",
+        flushInterval, batchSize, bufferSize);
+    return new WebhookRecorder(
+        Math.max(1, flushInterval), Math.max(1, batchSize), Math.max(1, bufferSize));
+  }
+
+  /** Start writing records to the {@link WebhookProvider}. */
+  public void start(KeycloakSessionFactory factory, ScheduledExecutorService exec) {
+    start(
+        (records) -> {
+          List<WebhookRecord.Event> events = new ArrayList<>();
+          List<WebhookRecord.Payload> payloads = new ArrayList<>();
+          List<WebhookRecord.Send> sends = new ArrayList<>();
+          for (Object r : records) {
+            if (r instanceof WebhookRecord.Event) events.add((WebhookRecord.Event) r);
+            else if (r instanceof WebhookRecord.Payload) payloads.add((WebhookRecord.Payload) r);
+            else sends.add((WebhookRecord.Send) r);
+          }
+          KeycloakModelUtils.runJobInTransaction(
+              factory,
+              (session) ->
+                  session.getProvider(WebhookProvider.class).storeRecords(events, payloads, sends));
+        },
+        exec);
+  }
+
+  /** Start writing records with {@code writer}, which writes a batch in one transaction. */
+  void start(Consumer<List<Object>> writer, ScheduledExecutorService exec) {
+    this.writer = writer;
+    this.exec = exec;
+    this.flusher =
+        exec.scheduleWithFixedDelay(
+            this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stop flushing on an interval, and write whatever is buffered. */
+  public void stop() {
+    if (flusher != null) flusher.cancel(false);
+    log.debugf("Writing %d buffered webhook records", buffer.size());
+    flush();
+  }
+
+  /** Record a Keycloak event that is being sent to webhooks. */
+  public void event(String realmId, KeycloakEventType type, String id, Object eventObject) {
+    add(new WebhookRecord.Event(realmId, type, id, eventObject));
+  }
+
+  /** Record a payload that was sent, under the SHA-256 of its body. */
+  public void payload(String realmId, String hash, String body) {
+    add(new WebhookRecord.Payload(realmId, hash, body));
+  }
+
+  /** Record an attempt to send an event to a webhook. */
+  public void send(
+      String realmId,
+      String webhookId,
+      KeycloakEventType type,
+      String eventId,
+      String id,
+      String eventType,
+      int status,
+      Date sentAt,
+      String payloadHash) {
+    add(
+        new WebhookRecord.Send(
+            realmId, webhookId, type, eventId, id, eventType, status, sentAt, payloadHash));
+  }
+
+  /** Number of records waiting to be written. */
+  public int size() {
+    return buffer.size();
+  }
+
+  private void add(Object record) {
+    if (buffer.offer(record)) {
+      if (buffer.size() >= batchSize) trigger();
+      return;
+    }
+    log.debug("Webhook record buffer is full. Writing it on the calling thread.");
+    flush();
+    if (!buffer.offer(record)) write(ImmutableList.of(record));
+  }
+
+  /** Write a full batch on the executor, unless a write is already on its way. */
+  private void trigger() {
+    if (exec == null || !triggered.compareAndSet(false, true)) return;
+    try {
+      exec.execute(
+          () -> {
+            triggered.set(false);
+            flush();
+          });
+    } catch (RejectedExecutionException e) {
+      triggered.set(false);
+    }
+  }
+
+  /** Write everything that is buffered, a batch at a time. */
+  void flush() {
+    synchronized (flushLock) {
+      while (!buffer.isEmpty()) {
+        List<Object> batch = new ArrayList<>(batchSize);
+        buffer.drainTo(batch, batchSize);
+        write(batch);
+      }
+    }
+  }
+
+  private void write(List<Object> batch) {
+    if (writer == null) {
+      log.warnf("Webhook recorder not started. Dropping %d records.", batch.size());
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      writer.accept(batch);
+      EventMetrics.recorded(true, System.nanoTime() - start);
+      log.tracef("wrote %d webhook records", batch.size());
+      return;
+    } catch (Exception e) {
+      EventMetrics.recorded(false, System.nanoTime() - start);
+      if (batch.size() == 1) {
+        failed(batch.get(0), e);
+        return;
+      }
+      log.warnf(e, "Error writing %d webhook records. Writing them one at a time.", batch.size());
+    }
+    for (Object record : batch) {
+      try {
+        writer.accept(ImmutableList.of(record));
+      } catch (Exception e) {
+        failed(record, e);
+      }
+    }
+  }
+
+  private static void failed(Object record, Exception e) {
+    if (record instanceof WebhookRecord.Event && WebhookRecord.isConstraintViolation(e)) {
+      log.debugf("Webhook event %s already stored", ((WebhookRecord.Event) record).getId());
+    } else if (record instanceof WebhookRecord.Payload && WebhookRecord.isConstraintViolation(e)) {
+      log.debugf("Webhook payload %s already stored", ((WebhookRecord.Payload) record).getHash());
+    } else {
+      log.warn("Error writing webhook record", e);
+    }
+  }
+}
@@ -0,0 +1,425 @@
+package io.phasetwo.keycloak.events;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.phasetwo.keycloak.model.WebhookModel;
+import io.phasetwo.keycloak.model.WebhookProvider;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.Config;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.cluster.ExecutionResult;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Removes old rows from the webhook event and send history. Every {@code intervalMillis} one node
+ * in the cluster goes through each realm, and removes the sends to each webhook that are older
+ * than the realm's max age, or beyond its max number of sends per webhook. Then it removes the
+ * events and payloads without any sends that are older than the realm's max age, or than the
+ * longest a delivery may wait in the outbox if that is longer, so that an event is never removed
+ * before its pending sends are recorded. Rows are removed a chunk at a time, each chunk in its own
+ * short transaction, so that the task never holds locks on many rows, or for long. The max age
+ * and max sends can be set for a realm with realm attributes, and otherwise come from the SPI
+ * config.
+ *
+ * <p>The task runs on its own thread, so that a long run does not hold up deliveries.
+ */
+@JBossLog
+public class WebhookRetention {
+
+  static final String ENABLED = "retentionEnabled";
+  static final String INTERVAL = "retentionIntervalMillis";
+  static final String MAX_AGE = "retentionMaxAgeMillis";
+  static final String MAX_SENDS = "retentionMaxSendsPerWebhook";
+  static final String CHUNK_SIZE = "retentionChunkSize";
+
+  static final long DEFAULT_INTERVAL = 3600000;
+  static final long DEFAULT_MAX_AGE = 2592000000L; // 30 days
+  static final long DEFAULT_MAX_SENDS = 0;
+  static final int DEFAULT_CHUNK_SIZE = 500;
+
+  static final String MAX_AGE_ATTRIBUTE = "_providerConfig.ext-event-webhook.retentionMaxAgeMillis";
+  static final String MAX_SENDS_ATTRIBUTE =
+      "_providerConfig.ext-event-webhook.retentionMaxSendsPerWebhook";
+
+  // how long a stopping task may take to finish the chunk it is removing
+  static final long STOP_TIMEOUT = 5000;
+
+  private static final String TASK_KEY = "ext-event-webhook-retention";
+
+  private final long intervalMillis;
+  private final long maxAgeMillis;
+  private final long maxSends;
+  private final int chunkSize;
+  private final long pendingMaxAgeMillis;
+
+  private final AtomicLong runs = new AtomicLong();
+  private final AtomicLong sendsRemoved = new AtomicLong();
+  private final AtomicLong eventsRemoved = new AtomicLong();
+  private final AtomicLong payloadsRemoved = new AtomicLong();
+  private final AtomicLong runMillis = new AtomicLong();
+  private volatile long lastRunMillis;
+
+  private KeycloakSessionFactory factory;
+  private ScheduledExecutorService exec;
+  private volatile boolean stopped;
+
+  /**
+   * @param pendingMaxAgeMillis the longest a delivery may wait before it is sent or abandoned
+   */
+  WebhookRetention(
+      long intervalMillis,
+      long maxAgeMillis,
+      long maxSends,
+      int chunkSize,
+      long pendingMaxAgeMillis) {
+    this.intervalMillis = intervalMillis;
+    this.maxAgeMillis = maxAgeMillis;
+    this.maxSends = maxSends;
+    this.chunkSize = chunkSize;
+    this.pendingMaxAgeMillis = pendingMaxAgeMillis;
+  }
+
+  /** Create the retention task if it is enabled in the SPI config, otherwise null. */
+  static WebhookRetention create(Config.Scope scope) {
+    boolean enabled = scope.getBoolean(ENABLED, false);
+    if (!enabled) {
+      log.infof("%s false. webhook events and sends are kept until their events expire", ENABLED);
+      return null;
+    }
+    long interval = scope.getLong(INTERVAL, DEFAULT_INTERVAL);
+    long maxAge = scope.getLong(MAX_AGE, DEFAULT_MAX_AGE);
+    long maxSends = scope.getLong(MAX_SENDS, DEFAULT_MAX_SENDS);
+    int chunkSize = scope.getInt(CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+    long pendingMaxAge = scope.getLong(WebhookOutbox.MAX_AGE, WebhookOutbox.DEFAULT_MAX_AGE);
+    log.infof(
+        "webhook retention: interval %d, maxAge %d, maxSendsPerWebhook %d, chunkSize %d",
+        interval, maxAge, maxSends, chunkSize);
+    return new WebhookRetention(
+        Math.max(1000, interval), maxAge, maxSends, Math.max(1, chunkSize), pendingMaxAge);
+  }
+
+  /** Start running the task every {@code intervalMillis}. */
+  public void start(KeycloakSessionFactory factory) {
+    this.factory = factory;
+    this.exec =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("webhook-retention-%d")
+                .setDaemon(true)
+                .build());
+    exec.scheduleWithFixedDelay(this::run, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stop running the task, and wait briefly for it to finish the chunk it is removing. */
+  public void stop() {
+    stopped = true;
+    if (exec == null) return;
+    exec.shutdown();
+    try {
+      if (!exec.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+        log.warn("Webhook retention task did not stop in time");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Run the task, unless another node is already running it. */
+  void run() {
+    // the cluster lock needs no transaction, and the task runs its own
+    try (KeycloakSession session = factory.create()) {
+      ExecutionResult<Void> result =
+          session
+              .getProvider(ClusterProvider.class)
+              .executeIfNotExecuted(
+                  TASK_KEY,
+                  (int) Math.max(1, intervalMillis / 1000),
+                  () -> {
+                    purge();
+                    return null;
+                  });
+      if (!result.isExecuted()) log.debug("Webhook retention is running on another node");
+    } catch (Exception e) {
+      log.warn("Error removing old webhook events and sends", e);
+    }
+  }
+
+  private void purge() {
+    long start = System.currentTimeMillis();
+    long sends = 0;
+    long events = 0;
+    long payloads = 0;
+    List<String> realmIds =
+        KeycloakModelUtils.runJobInTransactionWithResult(
+            factory,
+            (session) ->
+                session
+                    .realms()
+                    .getRealmsStream()
+                    .map(RealmModel::getId)
+                    .collect(Collectors.toList()));
+    for (String realmId : realmIds) {
+      if (stopped) break;
+      Policy policy =
+          KeycloakModelUtils.runJobInTransactionWithResult(
+              factory, (session) -> policy(session, realmId));
+      if (policy == null || (policy.maxAgeMillis <= 0 && policy.maxSends <= 0)) continue;
+      for (String webhookId : policy.webhookIds) {
+        if (policy.maxAgeMillis > 0) {
+          Date before = new Date(start - policy.maxAgeMillis);
+          sends +=
+              removeAll(
+                  realmId,
+                  webhookId,
+                  (webhooks, realm, webhook) ->
+                      webhooks.removeSendsBefore(realm, webhook, before, chunkSize));
+        }
+        if (policy.maxSends > 0) {
+          // the oldest send to keep. everything after it in the send history is removed
+          Oldest last =
+              KeycloakModelUtils.runJobInTransactionWithResult(
+                  factory,
+                  (session) -> {
+                    RealmModel realm = session.realms().getRealm(realmId);
+                    if (realm == null) return null;
+                    WebhookProvider webhooks = session.getProvider(WebhookProvider.class);
+                    WebhookModel webhook = webhooks.getWebhookById(realm, webhookId);
+                    if (webhook == null) return null;
+                    return webhooks
+                        .getSends(realm, webhook, policy.maxSends - 1, 1)
+                        .findFirst()
+                        .map(s -> new Oldest(s.getSentAt(), s.getId()))
+                        .orElse(null);
+                  });
+          if (last != null) {
+            Date sentAt = last.sentAt;
+            String id = last.id;
+            sends +=
+                removeAll(
+                    realmId,
+                    webhookId,
+                    (webhooks, realm, webhook) ->
+                        webhooks.removeSendsAfter(realm, webhook, sentAt, id, chunkSize));
+          }
+        }
+      }
+      long unsentMaxAge = unsentMaxAge(policy.maxAgeMillis, pendingMaxAgeMillis);
+      if (unsentMaxAge <= 0) continue;
+      Date storedBefore = new Date(start - unsentMaxAge);
+      events +=
+          inChunks(
+              chunkSize,
+              () ->
+                  KeycloakModelUtils.runJobInTransactionWithResult(
+                      factory,
+                      (session) -> {
+                        RealmModel realm = session.realms().getRealm(realmId);
+                        if (realm == null) return 0;
+                        return session
+                            .getProvider(WebhookProvider.class)
+                            .removeUnsentEvents(realm, storedBefore, chunkSize);
+                      }),
+              () -> stopped);
+      payloads +=
+          inChunks(
+              chunkSize,
+              () ->
+                  KeycloakModelUtils.runJobInTransactionWithResult(
+                      factory,
+                      (session) -> {
+                        RealmModel realm = session.realms().getRealm(realmId);
+                        if (realm == null) return 0;
+                        return session
+                            .getProvider(WebhookProvider.class)
+                            .removeUnsentPayloads(realm, storedBefore, chunkSize);
+                      }),
+              () -> stopped);
+    }
+    long took = System.currentTimeMillis() - start;
+    runs.incrementAndGet();
+    sendsRemoved.addAndGet(sends);
+    eventsRemoved.addAndGet(events);
+    payloadsRemoved.addAndGet(payloads);
+    runMillis.addAndGet(took);
+    lastRunMillis = took;
+    if (sends > 0 || events > 0 || payloads > 0) {
+      log.infof(
+          "Removed %d old webhook sends, %d webhook events and %d payloads in %dms",
+          sends, events, payloads, took);
+    } else {
+      log.debugf("No old webhook sends, events or payloads to remove (%dms)", took);
+    }
+  }
+
+  /** Remove a webhook's sends a chunk at a time, each chunk in its own transaction. */
+  private long removeAll(String realmId, String webhookId, SendRemover remover) {
+    return inChunks(
+        chunkSize,
+        () ->
+            KeycloakModelUtils.runJobInTransactionWithResult(
+                factory,
+                (session) -> {
+                  RealmModel realm = session.realms().getRealm(realmId);
+                  if (realm == null) return 0;
+                  WebhookProvider webhooks = session.getProvider(WebhookProvider.class);
+                  WebhookModel webhook = webhooks.getWebhookById(realm, webhookId);
+                  if (webhook == null) return 0;
+                  return remover.remove(webhooks, realm, webhook);
+                }),
+        () -> stopped);
+  }
+
+  /**
+   * How old an event or payload without any sends must be to be removed, or 0 to keep them. They
+   * are only removed if the realm has a max age, and never before a pending delivery could still
+   * record a send for them.
+   */
+  static long unsentMaxAge(long maxAgeMillis, long pendingMaxAgeMillis) {
+    if (maxAgeMillis <= 0) return 0;
+    return Math.max(maxAgeMillis, pendingMaxAgeMillis);
+  }
+
+  /**
+   * Remove chunks until one is not full, or the task is stopped.
+   *
+   * @return the number of rows removed
+   */
+  static long inChunks(int chunkSize, IntSupplier chunk, BooleanSupplier stopped) {
+    long total = 0;
+    while (!stopped.getAsBoolean()) {
+      int removed = chunk.getAsInt();
+      total += removed;
+      if (removed < chunkSize) break;
+    }
+    return total;
+  }
+
+  private Policy policy(KeycloakSession session, String realmId) {
+    RealmModel realm = session.realms().getRealm(realmId);
+    if (realm == null) return null;
+    long maxAge = setting(realm, MAX_AGE_ATTRIBUTE, maxAgeMillis);
+    long sends = Math.min(setting(realm, MAX_SENDS_ATTRIBUTE, maxSends), Integer.MAX_VALUE);
+    List<String> webhookIds =
+        session
+            .getProvider(WebhookProvider.class)
+            .getWebhooksStream(realm)
+            .map(WebhookModel::getId)
+            .collect(Collectors.toList());
+    return new Policy(maxAge, (int) sends, webhookIds);
+  }
+
+  private static long setting(RealmModel realm, String attribute, long defaultValue) {
+    return parse(realm.getAttribute(attribute), defaultValue, attribute, realm.getName());
+  }
+
+  /** A realm's setting, or the default if it is not set or not a number. */
+  static long parse(String value, long defaultValue, String attribute, String realm) {
+    if (value == null || value.isBlank()) return defaultValue;
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      log.warnf("Invalid %s %s in realm %s. Using %d.", attribute, value, realm, defaultValue);
+      return defaultValue;
+    }
+  }
+
+  /** Counters of what the task has removed on this node, and the time it took. */
+  public Stats stats() {
+    return new Stats(
+        runs.get(),
+        sendsRemoved.get(),
+        eventsRemoved.get(),
+        payloadsRemoved.get(),
+        runMillis.get(),
+        lastRunMillis);
+  }
+
+  @FunctionalInterface
+  private interface SendRemover {
+    int remove(WebhookProvider webhooks, RealmModel realm, WebhookModel webhook);
+  }
+
+  private static class Policy {
+    private final long maxAgeMillis;
+    private final int maxSends;
+    private final List<String> webhookIds;
+
+    Policy(long maxAgeMillis, int maxSends, List<String> webhookIds) {
+      this.maxAgeMillis = maxAgeMillis;
+      this.maxSends = maxSends;
+      this.webhookIds = webhookIds;
+    }
+  }
+
+  /** The position of the oldest send to keep in a webhook's send history. */
+  private static class Oldest {
+    private final Date sentAt;
+    private final String id;
+
+    Oldest(Date sentAt, String id) {
+      this.sentAt = sentAt;
+      this.id = id;
+    }
+  }
+
+  public static class Stats {
+    private final long runs;
+    private final long sendsRemoved;
+    private final long eventsRemoved;
+    private final long payloadsRemoved;
+    private final long runMillis;
+    private final long lastRunMillis;
+
+    Stats(
+        long runs,
+        long sendsRemoved,
+        long eventsRemoved,
+        long payloadsRemoved,
+        long runMillis,
+        long lastRunMillis) {
+      this.runs = runs;
+      this.sendsRemoved = sendsRemoved;
+      this.eventsRemoved = eventsRemoved;
+      this.payloadsRemoved = payloadsRemoved;
+      this.runMillis = runMillis;
+      this.lastRunMillis = lastRunMillis;
+    }
+
+    /** Runs of the task on this node. */
+    public long getRuns() {
+      return runs;
+    }
+
+    public long getSendsRemoved() {
+      return sendsRemoved;
+    }
+
+    public long getEventsRemoved() {
+      return eventsRemoved;
+    }
+
+    public long getPayloadsRemoved() {
+      return payloadsRemoved;
+    }
+
+    /** Total time spent in runs of the task on this node. */
+    public long getRunMillis() {
+      return runMillis;
+    }
+
+    public long getLastRunMillis() {
+      return lastRunMillis;
+    }
+  }
+}
@@ -1,28 +1,37 @@
 package io.phasetwo.keycloak.events;
 
+import com.github.xgp.util.BackOff;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import io.phasetwo.keycloak.model.KeycloakEventType;
-import io.phasetwo.keycloak.model.WebhookEventModel;
 import io.phasetwo.keycloak.model.WebhookModel;
+import io.phasetwo.keycloak.model.WebhookOutboxModel;
 import io.phasetwo.keycloak.model.WebhookProvider;
-import io.phasetwo.keycloak.model.WebhookSendModel;
 import io.phasetwo.keycloak.representation.ExtendedAdminEvent;
 import io.phasetwo.keycloak.representation.ExtendedAuthDetails;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import lombok.extern.jbosslog.JBossLog;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.jboss.logging.Logger;
 import org.keycloak.events.Event;
 import org.keycloak.events.EventType;
 import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.ResourceType;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
@@ -43,6 +52,12 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
   public static final String MDC_KEY_PREFIX = "webhook.";
   public static final String LOG_MESSAGE = "Webhook Send";
 
+  /** Queue lane for deliveries to the system catch-all webhook. */
+  static final String SYSTEM_LANE = "system";
+
+  /** Task property holding the hash of the payload, once it has been recorded. */
+  private static final String PAYLOAD_HASH = "payloadHash";
+
   private static final Logger WEBHOOK_SEND_LOGGER = Logger.getLogger(WEBHOOK_SEND_LOGGER_NAME);
 
   private final RunnableTransaction runnableTrx;
@@ -50,6 +65,13 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
 
   private final WebhookSenderConfig config;
   private final WebhookProvider webhooks;
+  private final WebhookBatcher batcher;
+  private final WebhookOutbox outbox;
+  private final WebhookEventTypeMatchers matchers;
+  private final SenderQueue queue;
+  private final CircuitBreakers breakers;
+  private final WebhookRecorder recorder;
+  private final WebhookSigners signers;
 
   private final String systemUri;
   private final String systemSecret;
@@ -62,8 +84,19 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
   private final String contextBaseUri;
 
   public WebhookSenderEventListenerProvider(
-      KeycloakSession session, ScheduledExecutorService exec, WebhookSenderConfig config) {
-    super(session, exec);
+      KeycloakSession session,
+      ScheduledExecutorService exec,
+      CloseableHttpClient http,
+      AsyncSenderClient async,
+      WebhookSenderConfig config,
+      WebhookBatcher batcher,
+      WebhookOutbox outbox,
+      WebhookEventTypeMatchers matchers,
+      SenderQueue queue,
+      CircuitBreakers breakers,
+      WebhookRecorder recorder,
+      WebhookSigners signers) {
+    super(session, exec, http, async);
     this.factory = session.getKeycloakSessionFactory();
     this.runnableTrx = new RunnableTransaction();
     session.getTransactionManager().enlistAfterCompletion(runnableTrx);
@@ -76,6 +109,13 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
     this.contextBaseUri = captureBaseUri(session);
     this.config = config;
     this.webhooks = session.getProvider(WebhookProvider.class);
+    this.batcher = batcher;
+    this.outbox = outbox;
+    this.matchers = matchers;
+    this.queue = queue;
+    this.breakers = breakers;
+    this.recorder = recorder;
+    this.signers = signers;
   }
 
   private static String captureBaseUri(KeycloakSession session) {
@@ -87,9 +127,21 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
     }
   }
 
+  @Override
+  protected String listenerId() {
+    return WebhookSenderEventListenerProviderFactory.PROVIDER_ID;
+  }
+
+  /** Sends are tagged with their webhook's id, or the system lane. */
+  @Override
+  protected String target(SenderTask task) {
+    return laneOf(task);
+  }
+
   @Override
   public void onEvent(Event event) {
     log.debugf("onEvent %s %s", event.getType(), event.getId());
+    EventMetrics.received(listenerId(), "user");
     try {
       ExtendedAdminEvent customEvent = completeAdminEventAttributes("", event);
       runnableTrx.addRunnable(
@@ -106,6 +158,11 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
         adminEvent.getOperationType(),
         adminEvent.getResourceTypeAsString(),
         adminEvent.getResourcePath());
+    EventMetrics.received(listenerId(), "admin");
+    if (signers != null && signingChanged(adminEvent)) {
+      // e.g. a key provider added, disabled or reprioritized, or a new frontend URL
+      signers.invalidate(adminEvent.getRealmId());
+    }
     try {
       ExtendedAdminEvent customEvent = completeAdminEventAttributes("", adminEvent);
       runnableTrx.addRunnable(
@@ -115,7 +172,7 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
     }
   }
 
-  private synchronized void storeEvent(
+  private void storeEvent(
       KeycloakSession session, KeycloakEventType type, ExtendedAdminEvent event) {
     if (!config.shouldStoreWebhookEvents()) {
       log.tracef("storeWebhookEvents is %s. skipping...", config.shouldStoreWebhookEvents());
@@ -146,17 +203,9 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
       return;
     }
 
-    // look it up first, as we might have multiple webhooks
-    WebhookEventModel we = webhooks.getEvent(realm, type, event.getId());
-    if (we != null) {
-      log.tracef("Webhook event %s already stored. Skipping.", event.getId());
-      return;
-    }
-
-    we = webhooks.storeEvent(realm, type, event.getId(), event);
-    log.tracef(
-        "Webhook event stored [%s] %s, %s, %s, %s",
-        we.getId(), event.getRealmId(), we.getEventType(), we.getEventId(), we.getAdminEventId());
+    // written behind, and skipped there if it has already been stored
+    recorder.event(event.getRealmId(), type, event.getId(), event);
+    log.tracef("Webhook event recorded %s, %s, %s", event.getRealmId(), type, event.getId());
   }
 
   public void processEvent(ExtendedAdminEvent event, String realmId) {
@@ -173,8 +222,8 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
           }
           RealmModel realm = session.realms().getRealm(realmId);
           WebhookProvider webhooks = session.getProvider(WebhookProvider.class);
-          webhooks
-              .getWebhooksStream(realm)
+          AtomicInteger fanout = new AtomicInteger();
+          webhooks.getWebhookSnapshots(realm).stream()
               .filter(w -> w.isEnabled())
               .filter(w -> !Strings.isNullOrEmpty(w.getUrl()))
               .forEach(
@@ -183,13 +232,16 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
                     customEvent.setUid(KeycloakModelUtils.generateId());
                     log.tracef("Got custom event with UID %s", customEvent.getUid());
                     if (!enabledFor(w, customEvent)) return;
-                    schedule(w, customEvent);
+                    fanout.incrementAndGet();
+                    dispatch(session, w, customEvent);
                   });
+          EventMetrics.fanout(fanout.get());
           // for system owner catch-all
           if (!Strings.isNullOrEmpty(systemUri)) {
             ExtendedAdminEvent customEvent = clone(event);
             customEvent.setUid(KeycloakModelUtils.generateId());
             schedule(
+                session,
                 null,
                 customEvent,
                 systemUri,
@@ -202,24 +254,55 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
   }
 
   @Override
-  protected synchronized void afterSend(final SenderTask task, final int httpStatus) {
+  protected void afterSend(final SenderTask task, final int httpStatus) {
     final String webhookId = task.getProperties().get("webhookId");
     if (webhookId == null) return;
-    final ExtendedAdminEvent customEvent = (ExtendedAdminEvent) task.getEvent();
-    final KeycloakEventType eventType = KeycloakEventType.fromTypeString(customEvent.getType());
-    if (!eventType.keycloakNative()) {
-      log.tracef("%s event type. Skipping send storage.", customEvent.getType());
-      return;
-    }
-
     final Date sentAt = new Date();
+    final String payloadHash = config.shouldStoreWebhookEvents() ? recordPayload(task) : null;
+    for (ExtendedAdminEvent customEvent : eventsOf(task)) {
+      final KeycloakEventType eventType = KeycloakEventType.fromTypeString(customEvent.getType());
+      if (config.shouldStoreWebhookEvents()) {
+        storeWebhookSend(task, customEvent, webhookId, httpStatus, sentAt, payloadHash);
+      }
+      if (!eventType.keycloakNative()) {
+        log.tracef("%s event type. Skipping send logging.", customEvent.getType());
+        continue;
+      }
+      if (config.shouldLogWebhookEvents()) {
+        logWebhookSend(task, customEvent, eventType, webhookId, httpStatus, sentAt);
+      }
+    }
+  }
 
-    if (config.shouldStoreWebhookEvents()) {
-      storeWebhookSend(task, customEvent, webhookId, httpStatus, sentAt);
+  /**
+   * Record the payload of a task under the SHA-256 of its body, the first time it is sent, and
+   * return the hash. Retries send the same bytes, so they only refer to the payload that was
+   * recorded by the first attempt. The payload is only written if one of the task's sends has no
+   * stored event.
+   */
+  private String recordPayload(final SenderTask task) {
+    String hash = task.getProperties().get(PAYLOAD_HASH);
+    if (hash != null) return hash;
+    try {
+      byte[] payload = task.getPayload();
+      hash = WebhookJwtSigner.sha256Hex(payload);
+      ExtendedAdminEvent first = eventsOf(task).get(0);
+      recorder.payload(first.getRealmId(), hash, new String(payload, StandardCharsets.UTF_8));
+      task.getProperties().put(PAYLOAD_HASH, hash);
+      return hash;
+    } catch (Exception e) {
+      log.warn("Unable to record webhook payload", e);
+      return null;
     }
-    if (config.shouldLogWebhookEvents()) {
-      logWebhookSend(task, customEvent, eventType, webhookId, httpStatus, sentAt);
+  }
+
+  /** The events carried by a task: one, or several for a batched delivery. */
+  @SuppressWarnings("unchecked")
+  private static List<ExtendedAdminEvent> eventsOf(SenderTask task) {
+    if (task.getEvent() instanceof List) {
+      return (List<ExtendedAdminEvent>) task.getEvent();
     }
+    return ImmutableList.of((ExtendedAdminEvent) task.getEvent());
   }
 
   private void storeWebhookSend(
@@ -227,34 +310,19 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
       final ExtendedAdminEvent customEvent,
       final String webhookId,
       final int httpStatus,
-      final Date sentAt) {
-    KeycloakModelUtils.runJobInTransaction(
-        factory,
-        (session) -> {
-          RealmModel realm = session.realms().getRealm(customEvent.getRealmId());
-          WebhookProvider webhooks = session.getProvider(WebhookProvider.class);
-          WebhookModel webhook = webhooks.getWebhookById(realm, webhookId);
-          WebhookEventModel event =
-              webhooks.getEvent(
-                  realm,
-                  KeycloakEventType.fromTypeString(customEvent.getType()),
-                  customEvent.getId());
-          if (event == null) {
-            log.tracef(
-                "No event for [%s] %s. Skipping send storage.",
-                customEvent.getType(), customEvent.getId());
-          } else {
-            // look it up first, as we might be here for a retry/resend
-            WebhookSendModel webhookSend = webhooks.getSendById(realm, customEvent.getUid());
-            if (webhookSend == null) {
-              webhookSend =
-                  webhooks.storeSend(webhook, event, customEvent.getUid(), customEvent.getType());
-            }
-            webhookSend.setStatus(httpStatus);
-            webhookSend.incrementRetries();
-            webhookSend.setSentAt(sentAt);
-          }
-        });
+      final Date sentAt,
+      final String payloadHash) {
+    // written behind, after the event and payload. a retry or resend updates the same send.
+    recorder.send(
+        customEvent.getRealmId(),
+        webhookId,
+        KeycloakEventType.fromTypeString(customEvent.getType()),
+        customEvent.getId(),
+        customEvent.getUid(),
+        customEvent.getType(),
+        httpStatus,
+        sentAt,
+        payloadHash);
   }
 
   private void logWebhookSend(
@@ -266,7 +334,11 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
       final Date sentAt) {
     String rawPayload = null;
     try {
-      rawPayload = JsonSerialization.writeValueAsString(customEvent);
+      // reuse the bytes that were sent, unless this event was one of a batch
+      rawPayload =
+          task.getEvent() == customEvent
+              ? new String(task.getPayload(), StandardCharsets.UTF_8)
+              : JsonSerialization.writeValueAsString(customEvent);
     } catch (IOException e) {
       log.warnf(e, "Unable to serialize webhook payload for logging [%s]", customEvent.getUid());
     }
@@ -285,8 +357,63 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
     }
   }
 
+  /**
+   * Send an event to a webhook, either on its own or, if the webhook has batching enabled, as part
+   * of the webhook's next batch.
+   */
+  private void dispatch(
+      KeycloakSession session, WebhookModel webhook, ExtendedAdminEvent customEvent) {
+    if (!webhook.isBatchEnabled()) {
+      schedule(session, webhook, customEvent);
+      return;
+    }
+    int maxBytes = webhook.getBatchMaxBytes() != null ? webhook.getBatchMaxBytes() : 0;
+    int lingerMillis =
+        webhook.getBatchLingerMillis() != null
+            ? webhook.getBatchLingerMillis()
+            : WebhookModel.DEFAULT_BATCH_LINGER_MILLIS;
+    int bytes = 0;
+    if (maxBytes > 0) {
+      try {
+        bytes = JsonSerialization.writeValueAsBytes(customEvent).length;
+      } catch (IOException e) {
+        log.warnf(e, "Unable to size webhook payload for batching [%s]", customEvent.getUid());
+      }
+    }
+    final String webhookId = webhook.getId();
+    final String url = webhook.getUrl();
+    final String secret = webhook.getSecret();
+    final String algorithm = webhook.getAlgorithm();
+    final String authType = webhook.getAuthType();
+    final String audience = webhook.getAudience();
+    batcher.add(
+        webhookId,
+        webhook.getBatchSize(),
+        maxBytes,
+        lingerMillis,
+        customEvent,
+        bytes,
+        events ->
+            schedule(
+                null,
+                webhookId,
+                ImmutableList.copyOf(events),
+                customEvent.getRealmId(),
+                url,
+                secret,
+                algorithm,
+                authType,
+                audience));
+  }
+
   public void schedule(WebhookModel webhook, ExtendedAdminEvent customEvent) {
+    schedule(null, webhook, customEvent);
+  }
+
+  private void schedule(
+      KeycloakSession session, WebhookModel webhook, ExtendedAdminEvent customEvent) {
     schedule(
+        session,
         webhook.getId(),
         customEvent,
         webhook.getUrl(),
@@ -297,6 +424,7 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
   }
 
   private void schedule(
+      KeycloakSession session,
       String webhookId,
       ExtendedAdminEvent customEvent,
       String url,
@@ -304,64 +432,320 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
       String algorithm,
       String authType,
       String audience) {
-    SenderTask task = new SenderTask(customEvent, getBackOff());
+    schedule(
+        session,
+        webhookId,
+        customEvent,
+        customEvent.getRealmId(),
+        url,
+        secret,
+        algorithm,
+        authType,
+        audience);
+  }
+
+  /**
+   * Schedule a send of a payload, which is either a single {@link ExtendedAdminEvent} or, for a
+   * batched delivery, a list of them that is sent as a JSON array. If the outbox is enabled, the
+   * delivery is written to it in the transaction of {@code session}, or in a new one if that is
+   * null.
+   */
+  private void schedule(
+      KeycloakSession session,
+      String webhookId,
+      Object payload,
+      String realmId,
+      String url,
+      String secret,
+      String algorithm,
+      String authType,
+      String audience) {
+    SenderTask task =
+        newTask(webhookId, payload, null, realmId, url, secret, algorithm, authType, audience, 0);
+    if (outbox == null || realmId == null) {
+      schedule(task, 0l, TimeUnit.MILLISECONDS);
+    } else if (session == null) {
+      try {
+        KeycloakModelUtils.runJobInTransaction(factory, (s) -> enqueue(s, realmId, task));
+      } catch (Exception e) {
+        log.warn("Error writing webhook delivery to the outbox. Sending from memory only.", e);
+        task.getProperties().remove(WebhookOutbox.OUTBOX_ID);
+        schedule(task, 0l, TimeUnit.MILLISECONDS);
+      }
+    } else {
+      enqueue(session, realmId, task);
+    }
+  }
+
+  /** Write the task to the outbox, and send it once that has been committed. */
+  private void enqueue(KeycloakSession session, String realmId, SenderTask task) {
+    try {
+      outbox.store(session, realmId, task.getProperties().get("webhookId"), task);
+    } catch (IOException e) {
+      log.warn("Error serializing webhook delivery for the outbox. Sending from memory only.", e);
+      schedule(task, 0l, TimeUnit.MILLISECONDS);
+      return;
+    }
+    RunnableTransaction afterCommit = new RunnableTransaction();
+    afterCommit.addRunnable(() -> schedule(task, 0l, TimeUnit.MILLISECONDS));
+    session.getTransactionManager().enlistAfterCompletion(afterCommit);
+  }
+
+  /**
+   * Rebuild a task for a delivery claimed from the outbox, resolving the webhook's current url and
+   * credentials. Returns null if the delivery can no longer be made, e.g. because the webhook was
+   * disabled or removed.
+   */
+  SenderTask resume(KeycloakSession session, WebhookOutboxModel delivery) {
+    Object payload;
+    try {
+      String json = delivery.getPayload().trim();
+      if (json.startsWith("[")) {
+        payload =
+            ImmutableList.copyOf(JsonSerialization.readValue(json, ExtendedAdminEvent[].class));
+      } else {
+        payload = JsonSerialization.readValue(json, ExtendedAdminEvent.class);
+      }
+    } catch (IOException e) {
+      log.warnf(e, "Unable to read outbox delivery %s", delivery.getId());
+      return null;
+    }
+    // send the same bytes as the first attempt, so signatures are over an identical body
+    byte[] serialized = delivery.getPayload().getBytes(StandardCharsets.UTF_8);
+    int attempt = delivery.getAttempt() != null ? delivery.getAttempt() : 0;
+    String webhookId = delivery.getWebhookId();
+    if (webhookId == null) {
+      if (Strings.isNullOrEmpty(systemUri)) return null;
+      return outboxTask(
+          delivery,
+          newTask(
+              null,
+              payload,
+              serialized,
+              delivery.getRealmId(),
+              systemUri,
+              systemSecret,
+              systemAlgorithm,
+              systemAuthType,
+              systemAudience,
+              attempt));
+    }
+    RealmModel realm = session.realms().getRealm(delivery.getRealmId());
+    WebhookModel webhook =
+        realm != null
+            ? session.getProvider(WebhookProvider.class).getWebhookById(realm, webhookId)
+            : null;
+    if (webhook == null || !webhook.isEnabled() || Strings.isNullOrEmpty(webhook.getUrl())) {
+      log.debugf("Webhook %s for outbox delivery %s is gone", webhookId, delivery.getId());
+      return null;
+    }
+    return outboxTask(
+        delivery,
+        newTask(
+            webhookId,
+            payload,
+            serialized,
+            delivery.getRealmId(),
+            webhook.getUrl(),
+            webhook.getSecret(),
+            webhook.getAlgorithm(),
+            webhook.getAuthType(),
+            webhook.getAudience(),
+            attempt));
+  }
+
+  private static SenderTask outboxTask(WebhookOutboxModel delivery, SenderTask task) {
+    task.getProperties().put(WebhookOutbox.OUTBOX_ID, delivery.getId());
+    return task;
+  }
+
+  private SenderTask newTask(
+      String webhookId,
+      Object payload,
+      byte[] serialized,
+      String realmId,
+      String url,
+      String secret,
+      String algorithm,
+      String authType,
+      String audience,
+      int attempt) {
+    SenderTask task = new SenderTask(payload, serialized, getBackOff(), attempt);
     task.getProperties().put("webhookId", webhookId);
     task.getProperties().put("url", url);
     if (secret != null) task.getProperties().put("secret", secret);
     if (algorithm != null) task.getProperties().put("algorithm", algorithm);
     if (authType != null) task.getProperties().put("authType", authType);
     if (audience != null) task.getProperties().put("audience", audience);
-    if (customEvent.getRealmId() != null) {
-      task.getProperties().put("realmId", customEvent.getRealmId());
+    if (realmId != null) {
+      task.getProperties().put("realmId", realmId);
     }
-    schedule(task, 0l, TimeUnit.MILLISECONDS);
+    if (payload instanceof List) {
+      task.getProperties().put("batchSize", Integer.toString(((List<?>) payload).size()));
+    }
+    return task;
+  }
+
+  /** Queue the task in its webhook's lane, so each webhook's backlog is bounded. */
+  @Override
+  protected void schedule(SenderTask task, long delay, TimeUnit unit) {
+    final String lane = laneOf(task);
+    queue.submit(
+        lane,
+        unit.toMillis(delay),
+        new SenderQueue.Job() {
+          @Override
+          public CompletableFuture<?> run() {
+            if (breakers != null && !breakers.allow(lane)) {
+              park(task, lane);
+              return null;
+            }
+            return attempt(task);
+          }
+
+          @Override
+          public void rejected(SenderQueue.Overflow policy, long delayMillis) {
+            overflow(task, policy, delayMillis);
+          }
+
+          @Override
+          public boolean stopped(long delayMillis) {
+            return handOver(task, delayMillis);
+          }
+        });
+  }
+
+  private static String laneOf(SenderTask task) {
+    String webhookId = task.getProperties().get("webhookId");
+    return webhookId != null ? webhookId : SYSTEM_LANE;
+  }
+
+  /**
+   * Hold back a task while its webhook's circuit breaker is open, without making an attempt. It is
+   * handed to the outbox until the breaker's next probe if the outbox is enabled, and otherwise
+   * waits in its queue. The time it waits there counts against its backoff like a failed attempt,
+   * so it is dropped once its retries would have run out.
+   */
+  private void park(SenderTask task, String lane) {
+    long delayMillis = breakers.retryAfterMillis(lane);
+    log.tracef("circuit breaker for %s is open. parking %s for %dms", lane, task, delayMillis);
+    if (outbox != null && task.getProperties().get("realmId") != null) {
+      outbox.spill(task, delayMillis);
+      return;
+    }
+    if (task.getBackOff().nextBackOffMillis() == BackOff.STOP) {
+      log.debugf(
+          "circuit breaker for %s is open and retries are exhausted. dropping %s", lane, task);
+      EventMetrics.dropped(listenerId(), EventMetrics.RETRIES_EXHAUSTED, 1);
+      taskDone(task);
+      return;
+    }
+    schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Hand a task that is still waiting at shutdown to the outbox, so that another node sends it, or
+   * drop it if there is no outbox.
+   */
+  private boolean handOver(SenderTask task, long delayMillis) {
+    if (outbox != null && task.getProperties().get("realmId") != null) {
+      log.debugf("Shutting down. Handing delivery to the outbox: %s", task);
+      return outbox.spill(task, delayMillis);
+    }
+    log.warnf("Shutting down. Dropping delivery: %s", task);
+    return false;
+  }
+
+  /** Spill a task that did not fit in its queue to the outbox, or drop it. */
+  private void overflow(SenderTask task, SenderQueue.Overflow policy, long delayMillis) {
+    if (policy == SenderQueue.Overflow.SPILL
+        && outbox != null
+        && task.getProperties().get("realmId") != null) {
+      log.debugf("Webhook queue full. Spilling delivery to the outbox: %s", task);
+      outbox.spill(task, delayMillis);
+      return;
+    }
+    log.warnf("Webhook queue full. Dropping delivery: %s", task);
+    EventMetrics.dropped(listenerId(), EventMetrics.QUEUE_FULL, 1);
+    taskDone(task);
+  }
+
+  @Override
+  protected void taskRetrying(SenderTask task, long delayMillis) {
+    if (outbox != null) outbox.retrying(task, delayMillis);
+  }
+
+  @Override
+  protected void taskDone(SenderTask task) {
+    if (outbox != null) outbox.done(task);
   }
 
   /** Check if the event type is enabled for this webhook */
   private boolean enabledFor(WebhookModel webhook, ExtendedAdminEvent customEvent) {
     String type = customEvent.getType();
     log.debugf("Checking webhook enabled for %s [%s]", type, webhook.getEventTypes());
-    for (String t : webhook.getEventTypes()) {
-      if ("*".equals(t)) return true;
-      if ("access.*".equals(t) && type.startsWith("access.")) return true;
-      if ("admin.*".equals(t) && type.startsWith("admin.")) return true;
-      if ("system.*".equals(t) && type.startsWith("system.")) return true;
-      try {
-        if (Pattern.matches(t, type)) return true;
-      } catch (Exception e) {
-      }
-      if (t.equals(type)) return true;
-    }
-    return false;
+    return matchers.get(webhook).matches(type);
   }
 
   @Override
   void send(SenderTask task) throws SenderException, IOException {
-    String targetUri = task.getProperties().get("url");
+    send(task, task.getProperties().get("url"), authHeaders(task));
+  }
+
+  /** Send a task, recording the outcome with its webhook's circuit breaker. */
+  @Override
+  CompletableFuture<Void> sendAsync(SenderTask task) {
+    CompletableFuture<Void> sent = post(task, task.getProperties().get("url"), authHeaders(task));
+    if (breakers == null) return sent;
+    String lane = laneOf(task);
+    return sent.whenComplete(
+        (v, e) -> {
+          Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+          if (cause == null) breakers.success(lane);
+          else if (cause instanceof SenderException && !receiverFailed((SenderException) cause))
+            breakers.success(lane);
+          else breakers.failure(lane);
+        });
+  }
+
+  /**
+   * Check if a failed send means the receiver is unavailable, as opposed to it rejecting this
+   * request: no response, a server error, or a response asking us to slow down.
+   */
+  private static boolean receiverFailed(SenderException e) {
+    int status = e.getStatus();
+    return status < 0 || status >= 500 || status == 408 || status == 429;
+  }
+
+  /** The authentication headers for the task's webhook, computed before the request is made. */
+  private Map<String, String> authHeaders(SenderTask task) {
     String authType = task.getProperties().get("authType");
     if (WebhookModel.AUTH_TYPE_BEARER.equalsIgnoreCase(authType)) {
       String bearer = generateBearerToken(task);
-      send(
-          task,
-          targetUri,
-          request -> {
-            if (bearer != null) request.header("Authorization", "Bearer " + bearer);
-          });
+      return bearer != null
+          ? ImmutableMap.of("Authorization", "Bearer " + bearer)
+          : ImmutableMap.of();
     } else if (WebhookModel.AUTH_TYPE_NONE.equalsIgnoreCase(authType)) {
       // explicitly unauthenticated: never attach a signature, even if a secret is present
-      send(task, targetUri, Optional.empty(), Optional.empty());
+      return ImmutableMap.of();
     } else {
       // hmac (or a legacy webhook with no authType): sign only when a secret is present
       Optional<String> sharedSecret = Optional.ofNullable(task.getProperties().get("secret"));
       Optional<String> hmacAlgorithm = Optional.ofNullable(task.getProperties().get("algorithm"));
-      send(task, targetUri, sharedSecret, hmacAlgorithm);
+      return hmacHeaders(task, sharedSecret, hmacAlgorithm);
     }
   }
 
+  /** Whether an admin event may change the realm's signing keys or token issuer. */
+  private static boolean signingChanged(AdminEvent adminEvent) {
+    return adminEvent.getResourceType() == ResourceType.COMPONENT
+        || adminEvent.getResourceType() == ResourceType.REALM;
+  }
+
   /**
-   * Mint a fresh realm-signed JWT for this send attempt. Runs in its own transaction because {@code
-   * send} executes on a background scheduler thread with no live request session, and signing needs
-   * the realm's active signing key.
+   * Mint a fresh realm-signed JWT for this send attempt. The realm's signing key is loaded in its
+   * own transaction, because {@code send} executes on a background scheduler thread with no live
+   * request session, and is then cached, so that most sends only sign.
    */
   private String generateBearerToken(SenderTask task) {
     String realmId = task.getProperties().get("realmId");
@@ -369,26 +753,37 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
       log.warn("Cannot generate webhook bearer token: missing realmId");
       return null;
     }
-    String algorithm = task.getProperties().get("algorithm");
+    String algorithm = WebhookJwtSigner.algorithm(task.getProperties().get("algorithm"));
     String audience = task.getProperties().get("audience");
-    final AtomicReference<String> token = new AtomicReference<>();
+    WebhookJwtSigner.RealmSigner signer =
+        signers != null
+            ? signers.get(realmId, algorithm, contextBaseUri, () -> loadSigner(realmId, algorithm))
+            : loadSigner(realmId, algorithm);
+    if (signer == null) return null;
+    try {
+      return WebhookJwtSigner.sign(signer, audience, task.getPayload());
+    } catch (Exception e) {
+      log.warn("Error generating webhook bearer token", e);
+      return null;
+    }
+  }
+
+  private WebhookJwtSigner.RealmSigner loadSigner(String realmId, String algorithm) {
     try {
-      final String body = JsonSerialization.writeValueAsString(task.getEvent());
-      KeycloakModelUtils.runJobInTransaction(
+      return KeycloakModelUtils.runJobInTransactionWithResult(
           factory,
           (session) -> {
             RealmModel realm = session.realms().getRealm(realmId);
             if (realm == null) {
               log.warnf("Cannot generate webhook bearer token: realm %s not found", realmId);
-              return;
+              return null;
             }
-            token.set(
-                WebhookJwtSigner.sign(session, realm, algorithm, audience, body, contextBaseUri));
+            return WebhookJwtSigner.signer(session, realm, algorithm, contextBaseUri);
           });
     } catch (Exception e) {
-      log.warn("Error generating webhook bearer token", e);
+      log.warn("Error loading webhook signing key", e);
+      return null;
     }
-    return token.get();
   }
 
   private ExtendedAdminEvent completeAdminEventAttributes(String uid, Event event) {
@@ -460,16 +855,10 @@ public class WebhookSenderEventListenerProvider extends HttpSenderEventListenerP
     return event;
   }
 
-  /** deep clone the event */
+  /** copy the event for a send, without its uid */
   private static ExtendedAdminEvent clone(ExtendedAdminEvent event) {
-    try {
-      ExtendedAdminEvent customEvent =
-          JsonSerialization.readValue(
-              JsonSerialization.writeValueAsString(event), ExtendedAdminEvent.class);
-      customEvent.setUid(null);
-      return customEvent;
-    } catch (IOException e) {
-      throw new IllegalStateException("Event can't be cloned because of serialization issue.", e);
-    }
+    ExtendedAdminEvent customEvent = new ExtendedAdminEvent(event);
+    customEvent.setUid(null);
+    return customEvent;
   }
 }
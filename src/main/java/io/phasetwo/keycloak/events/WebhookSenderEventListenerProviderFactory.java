@@ -1,13 +1,24 @@
 package io.phasetwo.keycloak.events;
 
 import com.google.auto.service.AutoService;
-import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.collect.ImmutableSet;
+import io.micrometer.core.instrument.Meter;
+import io.phasetwo.keycloak.model.WebhookProvider;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import lombok.extern.jbosslog.JBossLog;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.keycloak.Config;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.events.EventListenerProvider;
 import org.keycloak.events.EventListenerProviderFactory;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.provider.Provider;
+import org.keycloak.provider.ProviderFactory;
 
 @JBossLog
 @AutoService(EventListenerProviderFactory.class)
@@ -17,6 +28,19 @@ public class WebhookSenderEventListenerProviderFactory
   public static final String PROVIDER_ID = "ext-event-webhook";
 
   private ScheduledExecutorService exec;
+  private long shutdownGraceMillis;
+  private long drainTimeoutMillis;
+  private CloseableHttpClient http;
+  private AsyncSenderClient async;
+  private WebhookBatcher batcher;
+  private WebhookOutbox outbox;
+  private SenderQueue queue;
+  private final List<Meter> meters = new ArrayList<>();
+  private CircuitBreakers breakers;
+  private WebhookRecorder recorder;
+  private WebhookRetention retention;
+  private WebhookSigners signers;
+  private final WebhookEventTypeMatchers matchers = new WebhookEventTypeMatchers();
   private WebhookSenderConfig config = new WebhookSenderConfig(false, false);
 
   @Override
@@ -26,7 +50,51 @@ public class WebhookSenderEventListenerProviderFactory
 
   @Override
   public WebhookSenderEventListenerProvider create(KeycloakSession session) {
-    return new WebhookSenderEventListenerProvider(session, exec, config);
+    return new WebhookSenderEventListenerProvider(
+        session, exec, http, async, config, batcher, outbox, matchers, queue, breakers, recorder,
+        signers);
+  }
+
+  /**
+   * Drop anything cached for a webhook whose definition has changed or that has been removed, reset
+   * its circuit breaker, e.g. so a corrected url is tried straight away, and release its queue lane
+   * once it is empty. A no-op if the webhook listener is not deployed.
+   */
+  public static void webhookChanged(KeycloakSession session, String webhookId) {
+    get(session)
+        .ifPresent(
+            f -> {
+              f.matchers.invalidate(webhookId);
+              if (f.breakers != null) f.breakers.remove(webhookId);
+              f.queue.remove(webhookId);
+            });
+  }
+
+  /** Queue counters for a webhook on this node, or null if the webhook listener is not deployed. */
+  public static SenderQueue.Stats queueStats(KeycloakSession session, String webhookId) {
+    return get(session).map(f -> f.queue.stats(webhookId)).orElse(null);
+  }
+
+  /**
+   * The state of a webhook's circuit breaker on this node, or null if the webhook listener is not
+   * deployed or breakers are disabled.
+   */
+  public static CircuitBreakers.Stats breakerStats(KeycloakSession session, String webhookId) {
+    return get(session)
+        .filter(f -> f.breakers != null)
+        .map(f -> f.breakers.stats(webhookId))
+        .orElse(null);
+  }
+
+  private static Optional<WebhookSenderEventListenerProviderFactory> get(KeycloakSession session) {
+    ProviderFactory<EventListenerProvider> factory =
+        session
+            .getKeycloakSessionFactory()
+            .getProviderFactory(EventListenerProvider.class, PROVIDER_ID);
+    if (factory instanceof WebhookSenderEventListenerProviderFactory) {
+      return Optional.of((WebhookSenderEventListenerProviderFactory) factory);
+    }
+    return Optional.empty();
   }
 
   @Override
@@ -36,18 +104,94 @@ public class WebhookSenderEventListenerProviderFactory
     config = new WebhookSenderConfig(storeWebhookEvents, logWebhookEvents);
     log.infof("storeWebhookEvents %b, logWebhookEvents %b", storeWebhookEvents, logWebhookEvents);
 
-    exec =
-        MoreExecutors.getExitingScheduledExecutorService(
-            new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors()));
+    exec = SenderExecutors.create(scope, PROVIDER_ID);
+    shutdownGraceMillis = SenderExecutors.shutdownGraceMillis(scope);
+    drainTimeoutMillis = SenderExecutors.drainTimeoutMillis(scope);
+    http = SenderHttpClients.create(scope);
+    async = AsyncSenderClient.create(scope);
+    batcher = new WebhookBatcher(exec);
+    outbox = WebhookOutbox.create(scope);
+    queue = SenderQueue.create(scope, exec, outbox != null);
+    meters.addAll(EventMetrics.webhookQueue(queue));
+    breakers = CircuitBreakers.create(scope);
+    recorder = storeWebhookEvents ? WebhookRecorder.create(scope) : null;
+    retention = WebhookRetention.create(scope);
+    signers = WebhookSigners.create(scope);
+  }
+
+  @Override
+  public void postInit(KeycloakSessionFactory factory) {
+    if (outbox != null) {
+      log.infof("Starting webhook outbox poller on node %s", outbox.getNodeId());
+      outbox.start(factory, exec);
+    }
+    if (recorder != null) {
+      recorder.start(factory, exec);
+      meters.addAll(EventMetrics.recorderBuffer(recorder));
+    }
+    if (retention != null) {
+      retention.start(factory);
+      meters.addAll(EventMetrics.retention(retention));
+    }
+  }
+
+  /**
+   * Counters of the webhook history removed by the retention task on this node, or null if the
+   * webhook listener is not deployed or retention is disabled.
+   */
+  public static WebhookRetention.Stats retentionStats(KeycloakSession session) {
+    return get(session).filter(f -> f.retention != null).map(f -> f.retention.stats()).orElse(null);
+  }
+
+  /** Close before the storage that the outbox and the send records are written to. */
+  @Override
+  public Set<Class<? extends Provider>> dependsOn() {
+    return ImmutableSet.of(WebhookProvider.class, JpaConnectionProvider.class);
   }
 
   @Override
   public void close() {
+    EventMetrics.remove(meters);
+    meters.clear();
+    if (retention != null) retention.stop();
+    if (outbox != null) outbox.stop();
+    try {
+      log.debugf("Flushing %d batched events", batcher.size());
+      batcher.flushAll();
+    } catch (Exception e) {
+      log.warn("Error flushing batches", e);
+    }
+    try {
+      log.infof("Draining %d webhook deliveries for up to %dms", queue.size(), drainTimeoutMillis);
+      SenderQueue.Drained drained = queue.close(drainTimeoutMillis);
+      log.infof(
+          "Drained webhook deliveries: %d completed, %d handed to the outbox, %d dropped, %d still"
+              + " running",
+          drained.getCompleted(), drained.getSaved(), drained.getDropped(), drained.getRunning());
+      EventMetrics.dropped(PROVIDER_ID, EventMetrics.SHUTDOWN, drained.getDropped());
+    } catch (InterruptedException e) {
+      log.warn("Interrupted draining webhook deliveries");
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      log.warn("Error draining webhook deliveries", e);
+    }
+    try {
+      if (recorder != null) recorder.stop();
+    } catch (Exception e) {
+      log.warn("Error writing webhook records", e);
+    }
     try {
       log.debug("Shutting down scheduler");
-      exec.shutdown();
+      SenderExecutors.shutdown(exec, shutdownGraceMillis);
     } catch (Exception e) {
       log.warn("Error in shutdown of scheduler", e);
     }
+    try {
+      log.debug("Closing HTTP client");
+      http.close();
+      if (async != null) async.close();
+    } catch (Exception e) {
+      log.warn("Error closing HTTP client", e);
+    }
   }
 }
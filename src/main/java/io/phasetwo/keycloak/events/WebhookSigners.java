@@ -0,0 +1,75 @@
+package io.phasetwo.keycloak.events;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.phasetwo.keycloak.events.WebhookJwtSigner.RealmSigner;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.Config;
+
+/**
+ * Loaded {@link RealmSigner}s for bearer webhooks, cached by realm, algorithm and fallback base
+ * URI, so that signing a JWT for a send needs no session or transaction. An entry is reloaded
+ * after {@code ttlSeconds}, so a key rotated on another node is picked up, and a realm's entries
+ * are dropped when its keys or settings are changed through the admin API on this node.
+ */
+@JBossLog
+public class WebhookSigners {
+
+  static final String TTL_SECONDS = "bearerSignerCacheSeconds";
+  static final long DEFAULT_TTL_SECONDS = 60;
+
+  private record Key(String realmId, String algorithm, String baseUri) {}
+
+  private final Cache<Key, RealmSigner> signers;
+
+  /**
+   * @param ttlSeconds how long a signer is kept before it is loaded again
+   * @param maxSigners the maximum number of signers to keep
+   */
+  public WebhookSigners(long ttlSeconds, long maxSigners) {
+    this.signers =
+        CacheBuilder.newBuilder()
+            .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+            .maximumSize(maxSigners)
+            .build();
+  }
+
+  /** Create the cache if it is enabled in the SPI config, otherwise null. */
+  static WebhookSigners create(Config.Scope scope) {
+    long ttlSeconds = scope.getLong(TTL_SECONDS, DEFAULT_TTL_SECONDS);
+    if (ttlSeconds <= 0) {
+      log.infof(
+          "%s %d. bearer webhook signing keys are loaded for each send", TTL_SECONDS, ttlSeconds);
+      return null;
+    }
+    log.infof("bearer webhook signing keys cached for %ds", ttlSeconds);
+    return new WebhookSigners(ttlSeconds, 1000);
+  }
+
+  /**
+   * Get the signer for a realm and algorithm, calling {@code loader} if there is none or it has
+   * expired. A null from the loader, e.g. for a realm with no active key, is not cached. As in
+   * {@link io.phasetwo.keycloak.model.jpa.WebhookCache}, concurrent misses may each load.
+   */
+  public RealmSigner get(
+      String realmId, String algorithm, String baseUri, Supplier<RealmSigner> loader) {
+    Key key = new Key(realmId, algorithm, baseUri);
+    RealmSigner signer = signers.getIfPresent(key);
+    if (signer != null) return signer;
+    log.tracef("loading %s signer for realm %s", algorithm, realmId);
+    signer = loader.get();
+    if (signer != null) signers.put(key, signer);
+    return signer;
+  }
+
+  /** Drop a realm's signers on this node, e.g. when its keys have changed. */
+  public void invalidate(String realmId) {
+    signers.asMap().keySet().removeIf(k -> k.realmId().equals(realmId));
+  }
+
+  public long size() {
+    return signers.size();
+  }
+}
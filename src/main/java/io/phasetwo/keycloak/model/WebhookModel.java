@@ -25,6 +25,16 @@ public interface WebhookModel {
   /** Default HMAC algorithm used when {@link #getAuthType()} is {@link #AUTH_TYPE_HMAC}. */
   String DEFAULT_HMAC_ALGORITHM = "HmacSHA256";
 
+  /**
+   * Default linger time used when batching is enabled and {@link #getBatchLingerMillis()} is null.
+   */
+  int DEFAULT_BATCH_LINGER_MILLIS = 1000;
+
+  /** Check if events for this webhook are gathered into batched deliveries. */
+  default boolean isBatchEnabled() {
+    return getBatchSize() != null && getBatchSize() > 1;
+  }
+
   String getId();
 
   boolean isEnabled();
@@ -51,6 +61,24 @@ public interface WebhookModel {
 
   void setAudience(String audience);
 
+  /**
+   * Maximum number of events gathered into one batched delivery. Batching is enabled when this is
+   * greater than 1; otherwise each event is sent on its own.
+   */
+  Integer getBatchSize();
+
+  void setBatchSize(Integer batchSize);
+
+  /** Maximum serialized size in bytes of a batched delivery. Null or 0 means no byte limit. */
+  Integer getBatchMaxBytes();
+
+  void setBatchMaxBytes(Integer batchMaxBytes);
+
+  /** Maximum time in milliseconds the oldest event in a batch waits before the batch is sent. */
+  Integer getBatchLingerMillis();
+
+  void setBatchLingerMillis(Integer batchLingerMillis);
+
   RealmModel getRealm();
 
   UserModel getCreatedBy();
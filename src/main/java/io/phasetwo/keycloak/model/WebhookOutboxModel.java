@@ -0,0 +1,37 @@
+package io.phasetwo.keycloak.model;
+
+import java.util.Date;
+
+/**
+ * a pending webhook delivery, persisted so that it survives a restart and can be resumed by any
+ * node in the cluster
+ */
+public interface WebhookOutboxModel {
+
+  String getId();
+
+  String getRealmId();
+
+  /** the webhook this delivery is for, or null for the system owner catch-all */
+  String getWebhookId();
+
+  /** the serialized event, or JSON array of events for a batched delivery */
+  String getPayload();
+
+  Integer getAttempt();
+
+  void setAttempt(Integer attempt);
+
+  Date getNextAttemptAt();
+
+  void setNextAttemptAt(Date nextAttemptAt);
+
+  /** the node that is currently delivering this, if its claim has not expired */
+  String getClaimedBy();
+
+  Date getClaimedUntil();
+
+  void claim(String claimedBy, Date claimedUntil);
+
+  Date getCreatedAt();
+}
@@ -1,5 +1,8 @@
 package io.phasetwo.keycloak.model;
 
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
@@ -7,7 +10,11 @@ import org.keycloak.provider.Provider;
 
 public interface WebhookProvider extends Provider {
 
-  /** store a webhook event * */
+  /**
+   * store a webhook event, or return the one already stored for the Keycloak event. A store that
+   * races another for the same event may still leave the transaction marked for rollback by the
+   * database; events written behind by {@link #storeRecords} do not have that problem.
+   */
   WebhookEventModel storeEvent(
       RealmModel realm, KeycloakEventType type, String id, Object eventObject);
 
@@ -29,8 +36,46 @@ public interface WebhookProvider extends Provider {
   Stream<WebhookSendModel> getSends(
       RealmModel realm, WebhookModel webhook, Integer firstResult, Integer maxResults);
 
+  /**
+   * given a webhook, show up to {@code maxResults} of its sends that come after the send at {@code
+   * sentAt} with {@code id}, sorted by date (inv) and then id (inv). the page is read from an index
+   * on (webhook, date, id) starting at that send, so it costs the same however deep into the
+   * history it starts.
+   */
+  Stream<WebhookSendModel> getSendsAfter(
+      RealmModel realm, WebhookModel webhook, Date sentAt, String id, Integer maxResults);
+
   WebhookSendModel getSendById(RealmModel realm, String id);
 
+  /** remove up to {@code max} of a webhook's sends that were sent before a given time */
+  int removeSendsBefore(RealmModel realm, WebhookModel webhook, Date sentAt, int max);
+
+  /**
+   * remove up to {@code max} of a webhook's sends that come after the send at {@code sentAt} with
+   * {@code id}, in the order of {@link #getSendsAfter}
+   */
+  int removeSendsAfter(RealmModel realm, WebhookModel webhook, Date sentAt, String id, int max);
+
+  /** remove up to {@code max} webhook events stored before a given time that have no sends left */
+  int removeUnsentEvents(RealmModel realm, Date storedBefore, int max);
+
+  /**
+   * remove up to {@code max} webhook payloads stored before a given time that no send refers to
+   */
+  int removeUnsentPayloads(RealmModel realm, Date storedBefore, int max);
+
+  /**
+   * store a batch of webhook events, payloads and sends, events and payloads first. events and
+   * payloads that are already stored are skipped, as are payloads that only sends with a stored
+   * event refer to; those sends refer to their event instead. a send that is already stored is
+   * updated as a retry. sends whose webhook is not stored, or that have neither a stored event nor
+   * a payload, are skipped.
+   */
+  void storeRecords(
+      List<WebhookRecord.Event> events,
+      List<WebhookRecord.Payload> payloads,
+      List<WebhookRecord.Send> sends);
+
   /** create a new webhook with a url and a user who created it */
   WebhookModel createWebhook(RealmModel realm, String url, UserModel createdBy);
 
@@ -45,12 +90,49 @@ public interface WebhookProvider extends Provider {
     return getWebhooksStream(realm, null, null);
   }
 
+  /**
+   * get read-only snapshots of all webhooks, for use when dispatching events. implementations may
+   * serve these from a cache, so they only reflect changes that have been committed.
+   */
+  default List<WebhookModel> getWebhookSnapshots(RealmModel realm) {
+    return getWebhooksStream(realm).map(WebhookSnapshot::new).collect(Collectors.toList());
+  }
+
   /** count all webhooks */
   Long getWebhooksCount(RealmModel realm);
 
   /** remove a webhook by its ID */
   boolean removeWebhook(RealmModel realm, String id);
 
-  /** remove all webhooks for a given realm */
+  /** remove all webhooks (and their pending deliveries) for a given realm */
   void removeWebhooks(RealmModel realm);
+
+  /** store a pending delivery in the outbox, claimed by a node until a given time */
+  WebhookOutboxModel storeOutbox(
+      RealmModel realm,
+      String webhookId,
+      String id,
+      String payload,
+      String claimedBy,
+      Date claimedUntil);
+
+  /** get a pending delivery by its ID, in any realm */
+  WebhookOutboxModel getOutboxById(String id);
+
+  /**
+   * claim up to {@code max} due deliveries, in any realm, whose claim has expired. rows that are
+   * locked by a concurrent claim on another node are skipped rather than waited for.
+   */
+  Stream<WebhookOutboxModel> claimOutbox(String claimedBy, Date claimedUntil, int max);
+
+  /**
+   * extend all claims held by a node that would expire before {@code claimedUntil}, so that
+   * deliveries it still has queued or in flight are not claimed by another node.
+   *
+   * @return the number of claims renewed
+   */
+  int renewOutboxClaims(String claimedBy, Date claimedUntil);
+
+  /** remove a pending delivery by its ID, once it has been delivered or abandoned */
+  boolean removeOutbox(String id);
 }
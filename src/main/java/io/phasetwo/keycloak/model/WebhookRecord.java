@@ -0,0 +1,171 @@
+package io.phasetwo.keycloak.model;
+
+import java.sql.SQLException;
+import java.util.Date;
+
+/**
+ * Rows to be written to the webhook event, payload and send history in a batch, by {@link
+ * WebhookProvider#storeRecords}. These hold ids rather than models, as they are written after the
+ * session that created them has closed.
+ */
+public final class WebhookRecord {
+
+  private WebhookRecord() {}
+
+  /**
+   * If a failure was caused by an integrity constraint violation (SQLSTATE class 23), e.g. because
+   * a row that is written once was already stored.
+   */
+  public static boolean isConstraintViolation(Throwable t) {
+    for (Throwable c = t; c != null; c = c.getCause()) {
+      if (c instanceof SQLException) {
+        String state = ((SQLException) c).getSQLState();
+        if (state != null && state.startsWith("23")) return true;
+      }
+    }
+    return false;
+  }
+
+  /** A Keycloak event that was sent to one or more webhooks. */
+  public static final class Event {
+    private final String realmId;
+    private final KeycloakEventType type;
+    private final String id;
+    private final Object eventObject;
+
+    public Event(String realmId, KeycloakEventType type, String id, Object eventObject) {
+      this.realmId = realmId;
+      this.type = type;
+      this.id = id;
+      this.eventObject = eventObject;
+    }
+
+    public String getRealmId() {
+      return realmId;
+    }
+
+    public KeycloakEventType getType() {
+      return type;
+    }
+
+    /** The id of the Keycloak event. */
+    public String getId() {
+      return id;
+    }
+
+    public Object getEventObject() {
+      return eventObject;
+    }
+  }
+
+  /** An attempt to send an event to a webhook. */
+  public static final class Send {
+    private final String realmId;
+    private final String webhookId;
+    private final KeycloakEventType type;
+    private final String eventId;
+    private final String id;
+    private final String eventType;
+    private final int status;
+    private final Date sentAt;
+    private final String payloadHash;
+
+    /**
+     * @param type the kind of Keycloak event that was sent
+     * @param eventId the id of the Keycloak event that was sent
+     * @param id the id of the send, which is the same for every attempt
+     * @param eventType the type string of the event that was sent
+     * @param payloadHash the hash of the {@link Payload} that was sent, or null if it was not
+     *     recorded
+     */
+    public Send(
+        String realmId,
+        String webhookId,
+        KeycloakEventType type,
+        String eventId,
+        String id,
+        String eventType,
+        int status,
+        Date sentAt,
+        String payloadHash) {
+      this.realmId = realmId;
+      this.webhookId = webhookId;
+      this.type = type;
+      this.eventId = eventId;
+      this.id = id;
+      this.eventType = eventType;
+      this.status = status;
+      this.sentAt = sentAt;
+      this.payloadHash = payloadHash;
+    }
+
+    public String getRealmId() {
+      return realmId;
+    }
+
+    public String getWebhookId() {
+      return webhookId;
+    }
+
+    public KeycloakEventType getType() {
+      return type;
+    }
+
+    public String getEventId() {
+      return eventId;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getEventType() {
+      return eventType;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    public Date getSentAt() {
+      return sentAt;
+    }
+
+    public String getPayloadHash() {
+      return payloadHash;
+    }
+  }
+
+  /**
+   * A payload that was sent to one or more webhooks, stored once under the SHA-256 of its body, so
+   * that retries and resends of the same body share it. It is only stored for sends without a
+   * stored event.
+   */
+  public static final class Payload {
+    private final String realmId;
+    private final String hash;
+    private final String body;
+
+    /**
+     * @param hash the SHA-256 of {@code body}, in hex
+     * @param body the payload exactly as it was sent
+     */
+    public Payload(String realmId, String hash, String body) {
+      this.realmId = realmId;
+      this.hash = hash;
+      this.body = body;
+    }
+
+    public String getRealmId() {
+      return realmId;
+    }
+
+    public String getHash() {
+      return hash;
+    }
+
+    public String getBody() {
+      return body;
+    }
+  }
+}
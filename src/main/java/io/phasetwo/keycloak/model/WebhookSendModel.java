@@ -11,8 +11,18 @@ public interface WebhookSendModel {
 
   WebhookModel getWebhook();
 
+  /** the stored event that was sent, or null if it was not stored, e.g. a custom event */
   WebhookEventModel getEvent();
 
+  /** the SHA-256 of the payload that was sent, in hex, or null if it was not recorded */
+  String getPayloadHash();
+
+  /**
+   * the payload that was sent, or the payload of the stored event if it was not recorded, or null
+   * if neither is stored
+   */
+  String getPayload();
+
   Integer getStatus();
 
   void setStatus(Integer status);
@@ -0,0 +1,204 @@
+package io.phasetwo.keycloak.model;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Date;
+import java.util.Set;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.utils.KeycloakSessionUtil;
+
+/**
+ * An immutable copy of a webhook's definition, detached from the session and transaction that
+ * loaded it, so it can be cached and shared between threads. The setters throw {@link
+ * UnsupportedOperationException}; load the webhook with {@link WebhookProvider#getWebhookById} to
+ * change it.
+ */
+public final class WebhookSnapshot implements WebhookModel {
+
+  private final String id;
+  private final String realmId;
+  private final boolean enabled;
+  private final String url;
+  private final String secret;
+  private final String algorithm;
+  private final String authType;
+  private final String audience;
+  private final Integer batchSize;
+  private final Integer batchMaxBytes;
+  private final Integer batchLingerMillis;
+  private final String createdById;
+  private final Date createdAt;
+  private final Set<String> eventTypes;
+
+  /**
+   * Copy a webhook. Looks up its realm and creator to record their ids; use {@link
+   * #WebhookSnapshot(WebhookModel, String, String)} when those are already known.
+   */
+  public WebhookSnapshot(WebhookModel webhook) {
+    this(webhook, idOf(webhook.getRealm()), idOf(webhook.getCreatedBy()));
+  }
+
+  public WebhookSnapshot(WebhookModel webhook, String realmId, String createdById) {
+    this.id = webhook.getId();
+    this.realmId = realmId;
+    this.enabled = webhook.isEnabled();
+    this.url = webhook.getUrl();
+    this.secret = webhook.getSecret();
+    this.algorithm = webhook.getAlgorithm();
+    this.authType = webhook.getAuthType();
+    this.audience = webhook.getAudience();
+    this.batchSize = webhook.getBatchSize();
+    this.batchMaxBytes = webhook.getBatchMaxBytes();
+    this.batchLingerMillis = webhook.getBatchLingerMillis();
+    this.createdById = createdById;
+    this.createdAt =
+        webhook.getCreatedAt() != null ? new Date(webhook.getCreatedAt().getTime()) : null;
+    this.eventTypes =
+        webhook.getEventTypes() != null
+            ? ImmutableSet.copyOf(webhook.getEventTypes())
+            : ImmutableSet.of();
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void setEnabled(boolean enabled) {
+    throw readOnly();
+  }
+
+  @Override
+  public String getUrl() {
+    return url;
+  }
+
+  @Override
+  public void setUrl(String url) {
+    throw readOnly();
+  }
+
+  @Override
+  public String getSecret() {
+    return secret;
+  }
+
+  @Override
+  public void setSecret(String secret) {
+    throw readOnly();
+  }
+
+  @Override
+  public String getAlgorithm() {
+    return algorithm;
+  }
+
+  @Override
+  public void setAlgorithm(String algorithm) {
+    throw readOnly();
+  }
+
+  @Override
+  public String getAuthType() {
+    return authType;
+  }
+
+  @Override
+  public void setAuthType(String authType) {
+    throw readOnly();
+  }
+
+  @Override
+  public String getAudience() {
+    return audience;
+  }
+
+  @Override
+  public void setAudience(String audience) {
+    throw readOnly();
+  }
+
+  @Override
+  public Integer getBatchSize() {
+    return batchSize;
+  }
+
+  @Override
+  public void setBatchSize(Integer batchSize) {
+    throw readOnly();
+  }
+
+  @Override
+  public Integer getBatchMaxBytes() {
+    return batchMaxBytes;
+  }
+
+  @Override
+  public void setBatchMaxBytes(Integer batchMaxBytes) {
+    throw readOnly();
+  }
+
+  @Override
+  public Integer getBatchLingerMillis() {
+    return batchLingerMillis;
+  }
+
+  @Override
+  public void setBatchLingerMillis(Integer batchLingerMillis) {
+    throw readOnly();
+  }
+
+  /** Resolved in the current thread's session, as a snapshot outlives the one that loaded it. */
+  @Override
+  public RealmModel getRealm() {
+    KeycloakSession session = KeycloakSessionUtil.getKeycloakSession();
+    return session != null ? session.realms().getRealm(realmId) : null;
+  }
+
+  /** Resolved in the current thread's session, as a snapshot outlives the one that loaded it. */
+  @Override
+  public UserModel getCreatedBy() {
+    RealmModel realm = getRealm();
+    if (realm == null || createdById == null) return null;
+    return KeycloakSessionUtil.getKeycloakSession().users().getUserById(realm, createdById);
+  }
+
+  @Override
+  public Date getCreatedAt() {
+    return createdAt != null ? new Date(createdAt.getTime()) : null;
+  }
+
+  @Override
+  public Set<String> getEventTypes() {
+    return eventTypes;
+  }
+
+  @Override
+  public void addEventType(String eventType) {
+    throw readOnly();
+  }
+
+  @Override
+  public void removeEventTypes() {
+    throw readOnly();
+  }
+
+  private static String idOf(RealmModel realm) {
+    return realm != null ? realm.getId() : null;
+  }
+
+  private static String idOf(UserModel user) {
+    return user != null ? user.getId() : null;
+  }
+
+  private UnsupportedOperationException readOnly() {
+    return new UnsupportedOperationException("Webhook snapshot " + id + " is read-only");
+  }
+}
@@ -0,0 +1,123 @@
+package io.phasetwo.keycloak.model.jpa;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.phasetwo.keycloak.model.jpa.entity.WebhookEventEntity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.cluster.ExecutionResult;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Compresses the event objects of webhook events that were stored as JSON, once at startup, on one
+ * node in the cluster. Events are read in order of id and rewritten a chunk at a time, each chunk
+ * in its own transaction, so the task never holds locks on many rows and can be stopped at any
+ * point. Events it has not reached yet stay readable as they are.
+ *
+ * <p>Only events whose JSON is at least {@code minBytes} characters long are read, so the ones too
+ * small to compress, which keep no codec, are not read again on every start. The few events with
+ * fewer characters whose multi-byte characters bring them over {@code minBytes} are skipped too,
+ * and stay JSON.
+ */
+@JBossLog
+public class EventObjectBackfill {
+
+  private static final String TASK_KEY = "jpa-webhook-event-object-backfill";
+  // long enough for a large table. the lock is released as soon as the task ends
+  private static final int LOCK_SECONDS = 86400;
+
+  private final EventObjectCodec codec;
+  private final int chunkSize;
+
+  private KeycloakSessionFactory factory;
+  private ExecutorService exec;
+  private volatile boolean stopped;
+
+  EventObjectBackfill(EventObjectCodec codec, int chunkSize) {
+    this.codec = codec;
+    this.chunkSize = chunkSize;
+  }
+
+  public void start(KeycloakSessionFactory factory) {
+    this.factory = factory;
+    this.exec =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("webhook-event-backfill-%d")
+                .setDaemon(true)
+                .build());
+    exec.execute(this::run);
+  }
+
+  public void stop() {
+    stopped = true;
+    if (exec != null) exec.shutdown();
+  }
+
+  private void run() {
+    try (KeycloakSession session = factory.create()) {
+      ExecutionResult<Long> result =
+          session
+              .getProvider(ClusterProvider.class)
+              .executeIfNotExecuted(TASK_KEY, LOCK_SECONDS, this::backfill);
+      if (result.isExecuted()) {
+        log.infof("Compressed the event objects of %d webhook events", result.getResult());
+      } else {
+        log.debug("Webhook event objects are being compressed on another node");
+      }
+    } catch (Exception e) {
+      log.warn("Error compressing webhook event objects", e);
+    }
+  }
+
+  private long backfill() {
+    long total = 0;
+    String after = "";
+    while (!stopped) {
+      final String from = after;
+      Chunk chunk =
+          KeycloakModelUtils.runJobInTransactionWithResult(
+              factory, (session) -> compress(session, from));
+      total += chunk.compressed;
+      if (chunk.last == null) break;
+      after = chunk.last;
+    }
+    return total;
+  }
+
+  /** Compress the event objects of up to {@code chunkSize} events with ids after {@code after}. */
+  private Chunk compress(KeycloakSession session, String after) {
+    EntityManager em = session.getProvider(JpaConnectionProvider.class).getEntityManager();
+    TypedQuery<WebhookEventEntity> query =
+        em.createNamedQuery("getUncompressedWebhookEvents", WebhookEventEntity.class);
+    query.setParameter("after", after);
+    query.setParameter("minLength", codec.minBytes());
+    query.setMaxResults(chunkSize);
+    List<WebhookEventEntity> events = query.getResultList();
+    int compressed = 0;
+    for (WebhookEventEntity e : events) {
+      codec.write(e, e.getEventObject());
+      if (e.getEventObjectCodec() != null) compressed++;
+    }
+    em.flush();
+    String last = events.size() < chunkSize ? null : events.get(events.size() - 1).getId();
+    return new Chunk(compressed, last);
+  }
+
+  private static class Chunk {
+    private final int compressed;
+    private final String last;
+
+    Chunk(int compressed, String last) {
+      this.compressed = compressed;
+      this.last = last;
+    }
+  }
+}
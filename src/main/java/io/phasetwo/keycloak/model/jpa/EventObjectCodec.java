@@ -0,0 +1,134 @@
+package io.phasetwo.keycloak.model.jpa;
+
+import io.phasetwo.keycloak.model.jpa.entity.WebhookEventEntity;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * How the event object of a webhook event, or a sent payload, is stored. Objects of at least {@code
+ * minBytes} are deflated into {@code EVENT_OBJECT_COMPRESSED} if compression is on, and the codec
+ * is recorded in {@code EVENT_OBJECT_CODEC}. Others are stored as JSON in {@code EVENT_OBJECT},
+ * with no codec. Either can be read whatever the current setting. Payloads are stored the same way,
+ * in the {@code PAYLOAD} columns.
+ */
+public class EventObjectCodec {
+
+  static final String DEFLATE = "deflate";
+
+  /** Store every event object as JSON. */
+  public static final EventObjectCodec NONE = new EventObjectCodec(false, 0);
+
+  private final boolean compress;
+  private final int minBytes;
+
+  EventObjectCodec(boolean compress, int minBytes) {
+    this.compress = compress;
+    this.minBytes = minBytes;
+  }
+
+  /** Deflate event objects of at least {@code minBytes} of UTF-8. */
+  public static EventObjectCodec deflate(int minBytes) {
+    return new EventObjectCodec(true, minBytes);
+  }
+
+  boolean compresses() {
+    return compress;
+  }
+
+  int minBytes() {
+    return minBytes;
+  }
+
+  /** Set the event object of an event, compressed if it should be. */
+  void write(WebhookEventEntity e, String json) {
+    Encoded encoded = encode(json);
+    e.setEventObject(encoded.json);
+    e.setEventObjectCompressed(encoded.compressed);
+    e.setEventObjectCodec(encoded.codec);
+  }
+
+  /** The event object of an event as JSON, however it was stored. */
+  static String read(WebhookEventEntity e) {
+    return decode(
+        e.getEventObject(),
+        e.getEventObjectCompressed(),
+        e.getEventObjectCodec(),
+        "webhook event " + e.getId());
+  }
+
+  /** A JSON object, compressed if it should be. */
+  Encoded encode(String json) {
+    byte[] bytes = json == null ? null : json.getBytes(StandardCharsets.UTF_8);
+    if (compress && bytes != null && bytes.length >= minBytes) {
+      return new Encoded(null, deflate(bytes), DEFLATE);
+    }
+    return new Encoded(json, null, null);
+  }
+
+  /**
+   * A JSON object, however it was stored.
+   *
+   * @param what what the object belongs to, for the error if the codec is not known
+   */
+  static String decode(String json, byte[] compressed, String codec, String what) {
+    if (codec == null) return json;
+    if (DEFLATE.equals(codec)) {
+      return new String(inflate(compressed), StandardCharsets.UTF_8);
+    }
+    throw new IllegalStateException(String.format("Unknown codec %s for %s", codec, what));
+  }
+
+  /** A JSON object as it is stored: either the JSON, or compressed bytes and their codec. */
+  static final class Encoded {
+    final String json;
+    final byte[] compressed;
+    final String codec;
+
+    Encoded(String json, byte[] compressed, String codec) {
+      this.json = json;
+      this.compressed = compressed;
+      this.codec = codec;
+    }
+  }
+
+  static byte[] deflate(byte[] bytes) {
+    Deflater deflater = new Deflater();
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        int n = deflater.deflate(buffer);
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  static byte[] inflate(byte[] bytes) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(bytes);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+      byte[] buffer = new byte[8192];
+      while (!inflater.finished()) {
+        int n = inflater.inflate(buffer);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalStateException("Truncated compressed event object");
+        }
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("Invalid compressed event object", e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
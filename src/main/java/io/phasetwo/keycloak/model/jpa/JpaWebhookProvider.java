@@ -1,21 +1,38 @@
 package io.phasetwo.keycloak.model.jpa;
 
+import com.google.common.collect.Iterables;
 import io.phasetwo.keycloak.model.KeycloakEventType;
 import io.phasetwo.keycloak.model.WebhookEventModel;
 import io.phasetwo.keycloak.model.WebhookModel;
+import io.phasetwo.keycloak.model.WebhookOutboxModel;
 import io.phasetwo.keycloak.model.WebhookProvider;
+import io.phasetwo.keycloak.model.WebhookRecord;
 import io.phasetwo.keycloak.model.WebhookSendModel;
+import io.phasetwo.keycloak.model.WebhookSnapshot;
 import io.phasetwo.keycloak.model.jpa.entity.WebhookEntity;
 import io.phasetwo.keycloak.model.jpa.entity.WebhookEventEntity;
+import io.phasetwo.keycloak.model.jpa.entity.WebhookOutboxEntity;
+import io.phasetwo.keycloak.model.jpa.entity.WebhookPayloadEntity;
 import io.phasetwo.keycloak.model.jpa.entity.WebhookSendEntity;
 import jakarta.persistence.EntityExistsException;
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
 import jakarta.persistence.NoResultException;
+import jakarta.persistence.PersistenceException;
 import jakarta.persistence.Query;
 import jakarta.persistence.TypedQuery;
 import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.extern.jbosslog.JBossLog;
+import org.hibernate.Session;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
@@ -25,12 +42,34 @@ import org.keycloak.util.JsonSerialization;
 @JBossLog
 public class JpaWebhookProvider implements WebhookProvider {
 
+  private static final String LOCK_TIMEOUT_HINT = "jakarta.persistence.lock.timeout";
+  private static final int SKIP_LOCKED = -2; // hibernate's special lock timeout for SKIP LOCKED
+  private static final int MAX_IN_IDS = 500; // stay well inside every database's IN list limit
+
   protected final KeycloakSession session;
   protected final EntityManager em;
+  protected final WebhookCache cache;
+  protected final int jdbcBatchSize;
+  protected final EventObjectCodec codec;
 
-  public JpaWebhookProvider(KeycloakSession session, EntityManager em) {
+  /**
+   * @param cache the cache of webhook snapshots shared by all providers, or null to load snapshots
+   *     on every call
+   * @param jdbcBatchSize the number of inserts or updates to send to the database at once when
+   *     storing records
+   * @param codec how event objects and payloads are stored
+   */
+  public JpaWebhookProvider(
+      KeycloakSession session,
+      EntityManager em,
+      WebhookCache cache,
+      int jdbcBatchSize,
+      EventObjectCodec codec) {
     this.session = session;
     this.em = em;
+    this.cache = cache;
+    this.jdbcBatchSize = jdbcBatchSize;
+    this.codec = codec;
   }
 
   @Override
@@ -42,6 +81,7 @@ public class JpaWebhookProvider implements WebhookProvider {
     e.setCreatedBy(createdBy.getId());
     em.persist(e);
     em.flush();
+    WebhookCache.changed(session, em, realm, cache);
     WebhookModel webhook = new WebhookAdapter(session, realm, em, e);
     return webhook;
   }
@@ -77,6 +117,26 @@ public class JpaWebhookProvider implements WebhookProvider {
     return query.getResultStream().map(e -> new WebhookAdapter(session, realm, em, e));
   }
 
+  @Override
+  public List<WebhookModel> getWebhookSnapshots(RealmModel realm) {
+    if (cache == null) return loadWebhookSnapshots(realm);
+    return cache.get(
+        realm, () -> WebhookCache.revision(em, realm), () -> loadWebhookSnapshots(realm));
+  }
+
+  private List<WebhookModel> loadWebhookSnapshots(RealmModel realm) {
+    TypedQuery<WebhookEntity> query =
+        em.createNamedQuery("getWebhooksByRealmId", WebhookEntity.class);
+    query.setParameter("realmId", realm.getId());
+    return query
+        .getResultStream()
+        .map(
+            e ->
+                new WebhookSnapshot(
+                    new WebhookAdapter(session, realm, em, e), realm.getId(), e.getCreatedBy()))
+        .collect(Collectors.toList());
+  }
+
   @Override
   public Long getWebhooksCount(RealmModel realm) {
     TypedQuery<Long> query = em.createNamedQuery("countWebhooksByRealmId", Long.class);
@@ -89,40 +149,63 @@ public class JpaWebhookProvider implements WebhookProvider {
     WebhookEntity e = em.find(WebhookEntity.class, id);
     em.remove(e);
     em.flush();
+    WebhookCache.changed(session, em, realm, cache);
     return true;
   }
 
   @Override
   public void removeWebhooks(RealmModel realm) {
+    Query outbox = em.createNamedQuery("removeWebhookOutboxByRealmId");
+    outbox.setParameter("realmId", realm.getId());
+    outbox.executeUpdate();
+    Query payloads = em.createNamedQuery("removeWebhookPayloadsByRealmId");
+    payloads.setParameter("realmId", realm.getId());
+    payloads.executeUpdate();
     Query query = em.createNamedQuery("removeAllWebhooks");
     query.setParameter("realmId", realm.getId());
     query.executeUpdate();
+    Query revision = em.createNamedQuery("removeWebhookRevisionByRealmId");
+    revision.setParameter("realmId", realm.getId());
+    revision.executeUpdate();
+    // called when the realm is removed, so there is no revision to update
+    if (cache != null) cache.invalidate(realm.getId());
   }
 
   @Override
   public WebhookEventModel storeEvent(
       RealmModel realm, KeycloakEventType type, String id, Object eventObject) {
-    WebhookEventEntity e;
+    WebhookEventModel stored = getEvent(realm, type, id);
+    if (stored != null) return stored;
+    WebhookEventEntity e = newEvent(realm.getId(), type, id, eventObject);
     try {
-      e = new WebhookEventEntity();
-      e.setId(KeycloakModelUtils.generateId());
-      e.setRealmId(realm.getId());
-      e.setEventType(type);
-      if (type == KeycloakEventType.USER) e.setEventId(id);
-      if (type == KeycloakEventType.ADMIN) e.setAdminEventId(id);
-      try {
-        e.setEventObject(JsonSerialization.writeValueAsString(eventObject));
-      } catch (IOException ioe) {
-        log.warn("Error serializing event object", ioe);
-      }
       em.persist(e);
       em.flush();
-      WebhookEventModel event = new WebhookEventAdapter(session, realm, em, e);
-      return event;
     } catch (EntityExistsException eee) {
       log.debug("Duplicate WebhookEventEntity entry", eee);
       return getEvent(realm, type, id);
+    } catch (PersistenceException pe) {
+      if (!WebhookRecord.isConstraintViolation(pe)) throw pe;
+      // stored concurrently. the unique index on the event id rejected this one
+      log.debugf("Webhook event %s already stored", id);
+      return getEvent(realm, type, id);
     }
+    return new WebhookEventAdapter(session, realm, em, e);
+  }
+
+  private WebhookEventEntity newEvent(
+      String realmId, KeycloakEventType type, String id, Object eventObject) {
+    WebhookEventEntity e = new WebhookEventEntity();
+    e.setId(KeycloakModelUtils.generateId());
+    e.setRealmId(realmId);
+    e.setEventType(type);
+    if (type == KeycloakEventType.USER) e.setEventId(id);
+    if (type == KeycloakEventType.ADMIN) e.setAdminEventId(id);
+    try {
+      codec.write(e, JsonSerialization.writeValueAsString(eventObject));
+    } catch (IOException ioe) {
+      log.warn("Error serializing event object", ioe);
+    }
+    return e;
   }
 
   @Override
@@ -158,6 +241,69 @@ public class JpaWebhookProvider implements WebhookProvider {
     return query.getResultStream().map(e -> new WebhookSendAdapter(session, realm, em, e));
   }
 
+  @Override
+  public Stream<WebhookSendModel> getSendsAfter(
+      RealmModel realm, WebhookModel webhook, Date sentAt, String id, Integer maxResults) {
+    TypedQuery<WebhookSendEntity> query =
+        em.createNamedQuery("getWebhookSendsByWebhookAfter", WebhookSendEntity.class);
+    query.setParameter("webhook", ((WebhookAdapter) webhook).getEntity());
+    query.setParameter("sentAt", sentAt);
+    query.setParameter("id", id);
+    if (maxResults != null) query.setMaxResults(maxResults);
+    return query.getResultStream().map(e -> new WebhookSendAdapter(session, realm, em, e));
+  }
+
+  @Override
+  public int removeSendsBefore(RealmModel realm, WebhookModel webhook, Date sentAt, int max) {
+    TypedQuery<String> query =
+        em.createNamedQuery("getWebhookSendIdsByWebhookBefore", String.class);
+    query.setParameter("webhook", ((WebhookAdapter) webhook).getEntity());
+    query.setParameter("sentAt", sentAt);
+    return removeByIds(query, max, "removeWebhookSendsByIds");
+  }
+
+  @Override
+  public int removeSendsAfter(
+      RealmModel realm, WebhookModel webhook, Date sentAt, String id, int max) {
+    TypedQuery<String> query = em.createNamedQuery("getWebhookSendIdsByWebhookAfter", String.class);
+    query.setParameter("webhook", ((WebhookAdapter) webhook).getEntity());
+    query.setParameter("sentAt", sentAt);
+    query.setParameter("id", id);
+    return removeByIds(query, max, "removeWebhookSendsByIds");
+  }
+
+  @Override
+  public int removeUnsentEvents(RealmModel realm, Date storedBefore, int max) {
+    TypedQuery<String> query = em.createNamedQuery("getUnsentWebhookEventIds", String.class);
+    query.setParameter("realmId", realm.getId());
+    query.setParameter("before", storedBefore);
+    return removeByIds(query, max, "removeWebhookEventsByIds");
+  }
+
+  @Override
+  public int removeUnsentPayloads(RealmModel realm, Date storedBefore, int max) {
+    TypedQuery<String> query = em.createNamedQuery("getUnsentWebhookPayloadHashes", String.class);
+    query.setParameter("realmId", realm.getId());
+    query.setParameter("before", storedBefore);
+    return removeByIds(query, max, "removeWebhookPayloadsByHashes");
+  }
+
+  /**
+   * Select up to {@code max} ids and remove them with a bulk delete, rather than loading the
+   * entities, so that only the ids are read.
+   */
+  private int removeByIds(TypedQuery<String> ids, int max, String removeQuery) {
+    ids.setMaxResults(max);
+    List<String> found = ids.getResultList();
+    int removed = 0;
+    for (List<String> chunk : Iterables.partition(found, MAX_IN_IDS)) {
+      Query remove = em.createNamedQuery(removeQuery);
+      remove.setParameter("ids", chunk);
+      removed += remove.executeUpdate();
+    }
+    return removed;
+  }
+
   @Override
   public WebhookSendModel storeSend(
       WebhookModel webhook, WebhookEventModel event, String id, String type) {
@@ -175,6 +321,172 @@ public class JpaWebhookProvider implements WebhookProvider {
     return send;
   }
 
+  /**
+   * Looks up the events, payloads, sends and webhooks the records refer to with a few IN queries,
+   * and then writes the new and changed rows in JDBC batches, events and payloads before sends, in
+   * a single flush.
+   */
+  @Override
+  public void storeRecords(
+      List<WebhookRecord.Event> events,
+      List<WebhookRecord.Payload> payloads,
+      List<WebhookRecord.Send> sends) {
+    Session hibernate = em.unwrap(Session.class);
+    Integer defaultBatchSize = hibernate.getJdbcBatchSize();
+    hibernate.setJdbcBatchSize(jdbcBatchSize);
+    try {
+      Map<String, WebhookEventEntity> stored = findEvents(events, sends);
+      for (WebhookRecord.Event event : events) {
+        String key = eventKey(event.getRealmId(), event.getType(), event.getId());
+        if (stored.containsKey(key)) continue;
+        WebhookEventEntity e =
+            newEvent(event.getRealmId(), event.getType(), event.getId(), event.getEventObject());
+        em.persist(e);
+        stored.put(key, e);
+      }
+
+      // a payload is only kept for sends that have no stored event to resend or show instead, e.g.
+      // sends of custom events. each webhook's copy of an event has its own uid, so storing every
+      // body would keep a copy of the event per webhook
+      Set<String> needed =
+          sends.stream()
+              .filter(s -> s.getPayloadHash() != null)
+              .filter(
+                  s -> !stored.containsKey(eventKey(s.getRealmId(), s.getType(), s.getEventId())))
+              .map(WebhookRecord.Send::getPayloadHash)
+              .collect(Collectors.toSet());
+      Set<String> hashes =
+          inChunks(
+              payloads.stream()
+                  .map(WebhookRecord.Payload::getHash)
+                  .filter(needed::contains)
+                  .collect(Collectors.toSet()),
+              chunk ->
+                  em.createNamedQuery("getWebhookPayloadHashes", String.class)
+                      .setParameter("hashes", chunk)
+                      .getResultList());
+      for (WebhookRecord.Payload payload : payloads) {
+        if (!needed.contains(payload.getHash()) || !hashes.add(payload.getHash())) continue;
+        WebhookPayloadEntity e = new WebhookPayloadEntity();
+        e.setHash(payload.getHash());
+        e.setRealmId(payload.getRealmId());
+        EventObjectCodec.Encoded encoded = codec.encode(payload.getBody());
+        e.setPayload(encoded.json);
+        e.setPayloadCompressed(encoded.compressed);
+        e.setPayloadCodec(encoded.codec);
+        em.persist(e);
+      }
+
+      Set<String> webhookIds =
+          inChunks(
+              sends.stream().map(WebhookRecord.Send::getWebhookId).collect(Collectors.toSet()),
+              ids ->
+                  em.createNamedQuery("getWebhookIds", String.class)
+                      .setParameter("ids", ids)
+                      .getResultList());
+      Map<String, WebhookSendEntity> existing =
+          inChunks(
+                  sends.stream().map(WebhookRecord.Send::getId).collect(Collectors.toSet()),
+                  ids ->
+                      em.createNamedQuery("getWebhookSendsByIds", WebhookSendEntity.class)
+                          .setParameter("ids", ids)
+                          .getResultList())
+              .stream()
+              .collect(Collectors.toMap(WebhookSendEntity::getId, e -> e));
+      for (WebhookRecord.Send send : sends) {
+        WebhookEventEntity event =
+            stored.get(eventKey(send.getRealmId(), send.getType(), send.getEventId()));
+        if ((event == null && send.getPayloadHash() == null)
+            || !webhookIds.contains(send.getWebhookId())) {
+          log.tracef("No event or webhook for send %s. Skipping.", send.getId());
+          continue;
+        }
+        WebhookSendEntity e = existing.get(send.getId());
+        if (e == null) {
+          e = new WebhookSendEntity();
+          e.setId(send.getId());
+          e.setEventType(send.getEventType());
+          e.setWebhook(em.getReference(WebhookEntity.class, send.getWebhookId()));
+          e.setEvent(event);
+          em.persist(e);
+          existing.put(send.getId(), e);
+        }
+        if (event == null && send.getPayloadHash() != null) e.setPayloadHash(send.getPayloadHash());
+        e.setStatus(send.getStatus());
+        e.setRetries(e.getRetries() == null ? 1 : e.getRetries() + 1);
+        e.setSentAt(send.getSentAt());
+      }
+      em.flush();
+    } finally {
+      hibernate.setJdbcBatchSize(defaultBatchSize);
+    }
+  }
+
+  /**
+   * The stored events that the records refer to, by {@link #eventKey}. Only Keycloak's own events
+   * are stored.
+   */
+  private Map<String, WebhookEventEntity> findEvents(
+      List<WebhookRecord.Event> events, List<WebhookRecord.Send> sends) {
+    Map<String, Set<String>> ids = new HashMap<>();
+    events.forEach(
+        e ->
+            ids.computeIfAbsent(groupKey(e.getRealmId(), e.getType()), k -> new HashSet<>())
+                .add(e.getId()));
+    sends.stream()
+        .filter(s -> s.getType().keycloakNative() && s.getEventId() != null)
+        .forEach(
+            s ->
+                ids.computeIfAbsent(groupKey(s.getRealmId(), s.getType()), k -> new HashSet<>())
+                    .add(s.getEventId()));
+    Map<String, WebhookEventEntity> found = new HashMap<>();
+    ids.forEach(
+        (group, eventIds) -> {
+          String realmId = group.substring(group.indexOf(':') + 1);
+          KeycloakEventType type =
+              KeycloakEventType.valueOf(group.substring(0, group.indexOf(':')));
+          String named =
+              (type == KeycloakEventType.USER)
+                  ? "getWebhookEventsByEventIds"
+                  : "getWebhookEventsByAdminEventIds";
+          inChunks(
+                  eventIds,
+                  chunk ->
+                      em.createNamedQuery(named, WebhookEventEntity.class)
+                          .setParameter("realmId", realmId)
+                          .setParameter("ids", chunk)
+                          .getResultList())
+              .forEach(
+                  e ->
+                      found.put(
+                          eventKey(
+                              realmId,
+                              type,
+                              type == KeycloakEventType.USER
+                                  ? e.getEventId()
+                                  : e.getAdminEventId()),
+                          e));
+        });
+    return found;
+  }
+
+  private static String groupKey(String realmId, KeycloakEventType type) {
+    return type.name() + ":" + realmId;
+  }
+
+  private static String eventKey(String realmId, KeycloakEventType type, String id) {
+    return groupKey(realmId, type) + ":" + id;
+  }
+
+  /** Run a query for a set of ids in chunks that fit in an IN list, and gather the results. */
+  private static <T> Set<T> inChunks(Set<String> ids, Function<List<String>, List<T>> query) {
+    Set<T> results = new HashSet<>();
+    for (List<String> chunk : Iterables.partition(ids, MAX_IN_IDS)) {
+      results.addAll(query.apply(chunk));
+    }
+    return results;
+  }
+
   @Override
   public Stream<WebhookSendModel> getSends(RealmModel realm, WebhookEventModel event) {
     TypedQuery<WebhookSendEntity> query =
@@ -183,6 +495,73 @@ public class JpaWebhookProvider implements WebhookProvider {
     return query.getResultStream().map(e -> new WebhookSendAdapter(session, realm, em, e));
   }
 
+  @Override
+  public WebhookOutboxModel storeOutbox(
+      RealmModel realm,
+      String webhookId,
+      String id,
+      String payload,
+      String claimedBy,
+      Date claimedUntil) {
+    WebhookOutboxEntity e = new WebhookOutboxEntity();
+    e.setId(id);
+    e.setRealmId(realm.getId());
+    e.setWebhookId(webhookId);
+    e.setPayload(payload);
+    e.setAttempt(0);
+    e.setClaimedBy(claimedBy);
+    e.setClaimedUntil(claimedUntil);
+    em.persist(e);
+    em.flush();
+    return new WebhookOutboxAdapter(session, em, e);
+  }
+
+  @Override
+  public WebhookOutboxModel getOutboxById(String id) {
+    WebhookOutboxEntity outbox = em.find(WebhookOutboxEntity.class, id);
+    if (outbox != null) {
+      return new WebhookOutboxAdapter(session, em, outbox);
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  public Stream<WebhookOutboxModel> claimOutbox(String claimedBy, Date claimedUntil, int max) {
+    TypedQuery<WebhookOutboxEntity> query =
+        em.createNamedQuery("getDueWebhookOutbox", WebhookOutboxEntity.class);
+    query.setParameter("now", new Date());
+    query.setMaxResults(max);
+    // SELECT ... FOR UPDATE SKIP LOCKED, so concurrent pollers on other nodes claim disjoint rows
+    query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+    query.setHint(LOCK_TIMEOUT_HINT, SKIP_LOCKED);
+    List<WebhookOutboxEntity> due = query.getResultList();
+    due.forEach(
+        e -> {
+          e.setClaimedBy(claimedBy);
+          e.setClaimedUntil(claimedUntil);
+        });
+    em.flush();
+    return due.stream().map(e -> new WebhookOutboxAdapter(session, em, e));
+  }
+
+  @Override
+  public int renewOutboxClaims(String claimedBy, Date claimedUntil) {
+    Query query = em.createNamedQuery("renewWebhookOutboxClaims");
+    query.setParameter("claimedBy", claimedBy);
+    query.setParameter("claimedUntil", claimedUntil);
+    return query.executeUpdate();
+  }
+
+  @Override
+  public boolean removeOutbox(String id) {
+    WebhookOutboxEntity e = em.find(WebhookOutboxEntity.class, id);
+    if (e == null) return false;
+    em.remove(e);
+    em.flush();
+    return true;
+  }
+
   @Override
   public void close() {}
 }
@@ -4,16 +4,32 @@ import com.google.auto.service.AutoService;
 import io.phasetwo.keycloak.model.WebhookProvider;
 import io.phasetwo.keycloak.model.WebhookProviderFactory;
 import jakarta.persistence.EntityManager;
+import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.Config.Scope;
 import org.keycloak.connections.jpa.JpaConnectionProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.provider.ProviderFactory;
 
+@JBossLog
 @AutoService(WebhookProviderFactory.class)
 public class JpaWebhookProviderFactory implements WebhookProviderFactory {
 
   public static final String PROVIDER_ID = "jpa-webhook";
 
+  static final long DEFAULT_CACHE_TTL_MILLIS = 300000;
+  static final long DEFAULT_CACHE_CHECK_MILLIS = 5000;
+  static final long DEFAULT_CACHE_MAX_REALMS = 1000;
+  static final int DEFAULT_JDBC_BATCH_SIZE = 100;
+  static final int DEFAULT_COMPRESSION_MIN_BYTES = 1024;
+  static final int BACKFILL_CHUNK_SIZE = 200;
+
+  private WebhookCache cache;
+  private int jdbcBatchSize = DEFAULT_JDBC_BATCH_SIZE;
+  private WebhookSendPartitions partitions;
+  private EventObjectCodec codec = EventObjectCodec.NONE;
+  private EventObjectBackfill backfill;
+
   @Override
   public String getId() {
     return PROVIDER_ID;
@@ -22,15 +38,56 @@ public class JpaWebhookProviderFactory implements WebhookProviderFactory {
   @Override
   public WebhookProvider create(KeycloakSession session) {
     EntityManager em = session.getProvider(JpaConnectionProvider.class).getEntityManager();
-    return new JpaWebhookProvider(session, em);
+    return new JpaWebhookProvider(session, em, cache, jdbcBatchSize, codec);
+  }
+
+  /** The webhook cache on this node, or null if it is disabled or this provider is not in use. */
+  static WebhookCache cache(KeycloakSession session) {
+    ProviderFactory<WebhookProvider> factory =
+        session.getKeycloakSessionFactory().getProviderFactory(WebhookProvider.class, PROVIDER_ID);
+    return factory instanceof JpaWebhookProviderFactory
+        ? ((JpaWebhookProviderFactory) factory).cache
+        : null;
   }
 
   @Override
-  public void init(Scope config) {}
+  public void init(Scope config) {
+    long ttlMillis = config.getLong("cacheTtlMillis", DEFAULT_CACHE_TTL_MILLIS);
+    long checkMillis = config.getLong("cacheCheckMillis", DEFAULT_CACHE_CHECK_MILLIS);
+    long maxRealms = config.getLong("cacheMaxRealms", DEFAULT_CACHE_MAX_REALMS);
+    if (ttlMillis > 0 && maxRealms > 0) {
+      log.infof(
+          "Caching webhooks for up to %d realms for %dms, checking for changes every %dms",
+          maxRealms, ttlMillis, checkMillis);
+      cache = new WebhookCache(ttlMillis, checkMillis, maxRealms);
+    } else {
+      log.info("Webhook cache disabled");
+      cache = null;
+    }
+    jdbcBatchSize = Math.max(1, config.getInt("jdbcBatchSize", DEFAULT_JDBC_BATCH_SIZE));
+    partitions = WebhookSendPartitions.create(config);
+    String compression = config.get("eventObjectCompression", "none");
+    if (EventObjectCodec.DEFLATE.equalsIgnoreCase(compression)) {
+      int minBytes = config.getInt("eventObjectCompressionMinBytes", DEFAULT_COMPRESSION_MIN_BYTES);
+      log.infof("Compressing webhook event objects of at least %d bytes", minBytes);
+      codec = EventObjectCodec.deflate(Math.max(0, minBytes));
+    } else if (!"none".equalsIgnoreCase(compression)) {
+      log.warnf("Unknown eventObjectCompression %s. Storing event objects as JSON.", compression);
+    }
+    if (codec.compresses() && config.getBoolean("eventObjectCompressExisting", false)) {
+      backfill = new EventObjectBackfill(codec, BACKFILL_CHUNK_SIZE);
+    }
+  }
 
   @Override
-  public void postInit(KeycloakSessionFactory factory) {}
+  public void postInit(KeycloakSessionFactory factory) {
+    partitions.start(factory);
+    if (backfill != null) backfill.start(factory);
+  }
 
   @Override
-  public void close() {}
+  public void close() {
+    if (backfill != null) backfill.stop();
+    if (partitions != null) partitions.stop();
+  }
 }
@@ -43,6 +43,7 @@ public class WebhookAdapter implements WebhookModel, JpaModel<WebhookEntity> {
   @Override
   public void setEnabled(boolean enabled) {
     webhook.setEnabled(enabled);
+    changed();
   }
 
   @Override
@@ -53,6 +54,7 @@ public class WebhookAdapter implements WebhookModel, JpaModel<WebhookEntity> {
   @Override
   public void setUrl(String url) {
     webhook.setUrl(url);
+    changed();
   }
 
   @Override
@@ -63,6 +65,7 @@ public class WebhookAdapter implements WebhookModel, JpaModel<WebhookEntity> {
   @Override
   public void setSecret(String secret) {
     webhook.setSecret(secret);
+    changed();
   }
 
   @Override
@@ -73,6 +76,7 @@ public class WebhookAdapter implements WebhookModel, JpaModel<WebhookEntity> {
   @Override
   public void setAlgorithm(String algorithm) {
     webhook.setAlgorithm(algorithm);
+    changed();
   }
 
   @Override
@@ -83,6 +87,7 @@ public class WebhookAdapter implements WebhookModel, JpaModel<WebhookEntity> {
   @Override
   public void setAuthType(String authType) {
     webhook.setAuthType(authType);
+    changed();
   }
 
   @Override
@@ -93,6 +98,40 @@ public class WebhookAdapter implements WebhookModel, JpaModel<WebhookEntity> {
   @Override
   public void setAudience(String audience) {
     webhook.setAudience(audience);
+    changed();
+  }
+
+  @Override
+  public Integer getBatchSize() {
+    return webhook.getBatchSize();
+  }
+
+  @Override
+  public void setBatchSize(Integer batchSize) {
+    webhook.setBatchSize(batchSize);
+    changed();
+  }
+
+  @Override
+  public Integer getBatchMaxBytes() {
+    return webhook.getBatchMaxBytes();
+  }
+
+  @Override
+  public void setBatchMaxBytes(Integer batchMaxBytes) {
+    webhook.setBatchMaxBytes(batchMaxBytes);
+    changed();
+  }
+
+  @Override
+  public Integer getBatchLingerMillis() {
+    return webhook.getBatchLingerMillis();
+  }
+
+  @Override
+  public void setBatchLingerMillis(Integer batchLingerMillis) {
+    webhook.setBatchLingerMillis(batchLingerMillis);
+    changed();
   }
 
   @Override
@@ -118,10 +157,17 @@ public class WebhookAdapter implements WebhookModel, JpaModel<WebhookEntity> {
   @Override
   public void addEventType(String eventType) {
     webhook.getEventTypes().add(eventType);
+    changed();
   }
 
   @Override
   public void removeEventTypes() {
     webhook.getEventTypes().clear();
+    changed();
+  }
+
+  private void changed() {
+    WebhookCache.changed(
+        session, em, realm != null ? realm : getRealm(), JpaWebhookProviderFactory.cache(session));
   }
 }
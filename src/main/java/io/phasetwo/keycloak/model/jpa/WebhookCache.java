@@ -0,0 +1,177 @@
+package io.phasetwo.keycloak.model.jpa;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import io.phasetwo.keycloak.model.WebhookModel;
+import io.phasetwo.keycloak.model.jpa.entity.WebhookRevisionEntity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.ModelDuplicateException;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Caches read-only snapshots of each realm's webhooks, so that dispatching an event does not query
+ * the webhook tables.
+ *
+ * <p>Each entry is tagged with the realm's webhook revision, a row of {@code WEBHOOK_REVISION} that
+ * is replaced whenever a webhook in the realm is created, changed or removed. An entry is trusted
+ * for {@code checkMillis} after it was loaded or its revision was last read, so most events do not
+ * touch the database at all. After that the revision is read again, and the webhooks are reloaded
+ * if it has changed. So a change made on another node is picked up within {@code checkMillis}, and
+ * one made on this node as soon as it has been committed, as that drops the realm's entry here.
+ * Entries also expire after a fixed time, to pick up changes that were made to the tables directly.
+ */
+@JBossLog
+public class WebhookCache {
+
+  private static final String CHANGED_SESSION_ATTRIBUTE =
+      WebhookCache.class.getName() + ".changed.";
+
+  private final Cache<String, Entry> entries;
+  private final long checkMillis;
+  private final LongSupplier clock;
+
+  /**
+   * @param ttlMillis how long an entry is kept before it is reloaded even if the revision has not
+   *     changed
+   * @param checkMillis how long an entry is used before the revision is read again
+   * @param maxRealms the maximum number of realms to keep entries for
+   */
+  public WebhookCache(long ttlMillis, long checkMillis, long maxRealms) {
+    this(ttlMillis, checkMillis, maxRealms, System::currentTimeMillis);
+  }
+
+  WebhookCache(long ttlMillis, long checkMillis, long maxRealms, LongSupplier clock) {
+    this.entries =
+        CacheBuilder.newBuilder()
+            .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+            .maximumSize(maxRealms)
+            .build();
+    this.checkMillis = checkMillis;
+    this.clock = clock;
+  }
+
+  /**
+   * Get the snapshots for a realm, calling {@code revision} if they have not been checked for
+   * {@code checkMillis}, and {@code loader} if there are none or they are stale. The loader runs
+   * outside of any lock, so concurrent misses may each load; that is harmless, as an entry is only
+   * ever used for the revision it was loaded under.
+   */
+  public List<WebhookModel> get(
+      RealmModel realm, Supplier<String> revision, Supplier<List<WebhookModel>> loader) {
+    long now = clock.getAsLong();
+    Entry entry = entries.getIfPresent(realm.getId());
+    if (entry != null && now - entry.checkedAt < checkMillis) {
+      return entry.webhooks;
+    }
+    String current = revision.get();
+    if (entry != null && Objects.equals(entry.revision, current)) {
+      entry.checkedAt = now;
+      return entry.webhooks;
+    }
+    log.tracef("loading webhooks for realm %s at revision %s", realm.getName(), current);
+    List<WebhookModel> webhooks = ImmutableList.copyOf(loader.get());
+    entries.put(realm.getId(), new Entry(current, webhooks, now));
+    return webhooks;
+  }
+
+  /** Drop the entry for a realm on this node, e.g. when the realm is removed. */
+  public void invalidate(String realmId) {
+    entries.invalidate(realmId);
+  }
+
+  /** Number of realms with an entry. */
+  public long size() {
+    return entries.size();
+  }
+
+  /** The revision of a realm's webhooks, or null if they have never changed. */
+  public static String revision(EntityManager em, RealmModel realm) {
+    WebhookRevisionEntity e = em.find(WebhookRevisionEntity.class, realm.getId());
+    return e == null ? null : e.getRevision();
+  }
+
+  /**
+   * Record that a webhook in {@code realm} has been changed in the current transaction by replacing
+   * the realm's webhook revision, and drop the realm's entry on this node once the transaction has
+   * been committed. Only the first call in a session writes the revision. The realm's revision row
+   * is created in a transaction of its own the first time, so that two sessions that create it at
+   * once do not fail on its key; the loser finds the winner's row and updates it.
+   *
+   * @param cache the cache to drop the realm's entry from, or null
+   */
+  public static void changed(
+      KeycloakSession session, EntityManager em, RealmModel realm, WebhookCache cache) {
+    String key = CHANGED_SESSION_ATTRIBUTE + realm.getId();
+    if (session.getAttribute(key) != null) return;
+    session.setAttribute(key, Boolean.TRUE);
+    if (update(em, realm.getId()) == 0) {
+      seed(session, realm.getId());
+      update(em, realm.getId());
+    }
+    if (cache != null) {
+      final String realmId = realm.getId();
+      session
+          .getTransactionManager()
+          .enlistAfterCompletion(
+              new AbstractKeycloakTransaction() {
+                @Override
+                protected void commitImpl() {
+                  cache.invalidate(realmId);
+                }
+
+                @Override
+                protected void rollbackImpl() {}
+              });
+    }
+  }
+
+  private static int update(EntityManager em, String realmId) {
+    return em.createNamedQuery("updateWebhookRevision")
+        .setParameter("realmId", realmId)
+        .setParameter("revision", KeycloakModelUtils.generateId())
+        .executeUpdate();
+  }
+
+  /** Create a realm's revision row, unless another session already has. */
+  private static void seed(KeycloakSession session, String realmId) {
+    try {
+      KeycloakModelUtils.runJobInTransaction(
+          session.getKeycloakSessionFactory(),
+          s -> {
+            EntityManager em = s.getProvider(JpaConnectionProvider.class).getEntityManager();
+            if (em.find(WebhookRevisionEntity.class, realmId) != null) return;
+            WebhookRevisionEntity e = new WebhookRevisionEntity();
+            e.setRealmId(realmId);
+            e.setRevision(KeycloakModelUtils.generateId());
+            em.persist(e);
+            em.flush();
+          });
+    } catch (PersistenceException | ModelDuplicateException e) {
+      log.debugf("webhook revision of realm %s was created concurrently: %s", realmId, e);
+    }
+  }
+
+  private static class Entry {
+    private final String revision;
+    private final List<WebhookModel> webhooks;
+    private volatile long checkedAt;
+
+    Entry(String revision, List<WebhookModel> webhooks, long checkedAt) {
+      this.revision = revision;
+      this.webhooks = webhooks;
+      this.checkedAt = checkedAt;
+    }
+  }
+}
@@ -57,11 +57,11 @@ public class WebhookEventAdapter implements WebhookEventModel, JpaModel<WebhookE
 
   @Override
   public String rawPayload() {
-    return event.getEventObject();
+    return EventObjectCodec.read(event);
   }
 
   @Override
   public <T> T getPayload(Class<T> clazz) throws IOException {
-    return JsonSerialization.readValue(event.getEventObject(), clazz);
+    return JsonSerialization.readValue(rawPayload(), clazz);
   }
 }
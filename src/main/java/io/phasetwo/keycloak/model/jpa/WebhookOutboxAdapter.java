@@ -0,0 +1,88 @@
+package io.phasetwo.keycloak.model.jpa;
+
+import io.phasetwo.keycloak.model.WebhookOutboxModel;
+import io.phasetwo.keycloak.model.jpa.entity.WebhookOutboxEntity;
+import jakarta.persistence.EntityManager;
+import java.util.Date;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.jpa.JpaModel;
+
+public class WebhookOutboxAdapter implements WebhookOutboxModel, JpaModel<WebhookOutboxEntity> {
+
+  protected final KeycloakSession session;
+  protected final WebhookOutboxEntity outbox;
+  protected final EntityManager em;
+
+  public WebhookOutboxAdapter(
+      KeycloakSession session, EntityManager em, WebhookOutboxEntity outbox) {
+    this.session = session;
+    this.em = em;
+    this.outbox = outbox;
+  }
+
+  @Override
+  public WebhookOutboxEntity getEntity() {
+    return outbox;
+  }
+
+  @Override
+  public String getId() {
+    return outbox.getId();
+  }
+
+  @Override
+  public String getRealmId() {
+    return outbox.getRealmId();
+  }
+
+  @Override
+  public String getWebhookId() {
+    return outbox.getWebhookId();
+  }
+
+  @Override
+  public String getPayload() {
+    return outbox.getPayload();
+  }
+
+  @Override
+  public Integer getAttempt() {
+    return outbox.getAttempt();
+  }
+
+  @Override
+  public void setAttempt(Integer attempt) {
+    outbox.setAttempt(attempt);
+  }
+
+  @Override
+  public Date getNextAttemptAt() {
+    return outbox.getNextAttemptAt();
+  }
+
+  @Override
+  public void setNextAttemptAt(Date nextAttemptAt) {
+    outbox.setNextAttemptAt(nextAttemptAt);
+  }
+
+  @Override
+  public String getClaimedBy() {
+    return outbox.getClaimedBy();
+  }
+
+  @Override
+  public Date getClaimedUntil() {
+    return outbox.getClaimedUntil();
+  }
+
+  @Override
+  public void claim(String claimedBy, Date claimedUntil) {
+    outbox.setClaimedBy(claimedBy);
+    outbox.setClaimedUntil(claimedUntil);
+  }
+
+  @Override
+  public Date getCreatedAt() {
+    return outbox.getCreatedAt();
+  }
+}
@@ -3,6 +3,7 @@ package io.phasetwo.keycloak.model.jpa;
 import io.phasetwo.keycloak.model.WebhookEventModel;
 import io.phasetwo.keycloak.model.WebhookModel;
 import io.phasetwo.keycloak.model.WebhookSendModel;
+import io.phasetwo.keycloak.model.jpa.entity.WebhookPayloadEntity;
 import io.phasetwo.keycloak.model.jpa.entity.WebhookSendEntity;
 import jakarta.persistence.EntityManager;
 import java.util.Date;
@@ -47,9 +48,31 @@ public class WebhookSendAdapter implements WebhookSendModel, JpaModel<WebhookSen
 
   @Override
   public WebhookEventModel getEvent() {
+    if (send.getEvent() == null) return null;
     return new WebhookEventAdapter(session, realm, em, send.getEvent());
   }
 
+  @Override
+  public String getPayloadHash() {
+    return send.getPayloadHash();
+  }
+
+  @Override
+  public String getPayload() {
+    if (send.getPayloadHash() != null) {
+      WebhookPayloadEntity p = em.find(WebhookPayloadEntity.class, send.getPayloadHash());
+      if (p != null) {
+        return EventObjectCodec.decode(
+            p.getPayload(),
+            p.getPayloadCompressed(),
+            p.getPayloadCodec(),
+            "webhook payload " + p.getHash());
+      }
+    }
+    WebhookEventModel event = getEvent();
+    return event == null ? null : event.rawPayload();
+  }
+
   @Override
   public Integer getStatus() {
     return send.getStatus();
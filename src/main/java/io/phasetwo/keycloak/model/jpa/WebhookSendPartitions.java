@@ -0,0 +1,291 @@
+package io.phasetwo.keycloak.model.jpa;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import lombok.extern.jbosslog.JBossLog;
+import org.hibernate.Session;
+import org.keycloak.Config.Scope;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.cluster.ExecutionResult;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Maintains the partitions of {@code WEBHOOK_SEND}, when it has been partitioned by {@code SENT_AT}
+ * on Postgres (see the {@code webhookSendPartitioned} changeset). Every {@code intervalMillis} one
+ * node in the cluster makes the partitions for the current period and the next {@code premake}
+ * periods, and drops the partitions whose sends are all older than {@code retentionMillis}, which
+ * removes them without deleting rows. Each statement runs in its own transaction. Nothing is done
+ * if the table is not partitioned.
+ *
+ * <p>{@code SENT_AT} has no time zone, and is written in the JVM's, so periods are in it as well.
+ */
+@JBossLog
+public class WebhookSendPartitions {
+
+  static final String PERIOD = "partitionPeriod";
+  static final String PREMAKE = "partitionPremake";
+  static final String RETENTION = "partitionRetentionMillis";
+  static final String INTERVAL = "partitionMaintenanceIntervalMillis";
+
+  static final String DEFAULT_PERIOD = "month";
+  static final int DEFAULT_PREMAKE = 3;
+  static final long DEFAULT_RETENTION = 0;
+  static final long DEFAULT_INTERVAL = 3600000;
+
+  static final String PARTITION_PREFIX = "webhook_send_";
+
+  private static final String TASK_KEY = "jpa-webhook-send-partitions";
+  private static final Pattern FROM = Pattern.compile("FROM \\('([^']+)'\\)");
+  private static final Pattern TO = Pattern.compile("TO \\('([^']+)'\\)");
+  private static final DateTimeFormatter BOUND = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+  /** The length of a partition. */
+  enum Period {
+    DAY(ChronoUnit.DAYS, "yyyyMMdd"),
+    MONTH(ChronoUnit.MONTHS, "yyyyMM");
+
+    private final ChronoUnit unit;
+    private final DateTimeFormatter suffix;
+
+    Period(ChronoUnit unit, String suffix) {
+      this.unit = unit;
+      this.suffix = DateTimeFormatter.ofPattern(suffix);
+    }
+
+    /** The start of the period that contains a time. */
+    LocalDateTime start(LocalDateTime time) {
+      LocalDateTime day = time.truncatedTo(ChronoUnit.DAYS);
+      return this == MONTH ? day.withDayOfMonth(1) : day;
+    }
+
+    /** The start of the period after the one that contains a time. */
+    LocalDateTime next(LocalDateTime time) {
+      return start(time).plus(1, unit);
+    }
+
+    String name(LocalDateTime start) {
+      return PARTITION_PREFIX + "p" + suffix.format(start);
+    }
+  }
+
+  /** A range partition of the table. A null bound is unbounded. */
+  static class Partition {
+    private final String name;
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+
+    Partition(String name, LocalDateTime from, LocalDateTime to) {
+      this.name = name;
+      this.from = from;
+      this.to = to;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    LocalDateTime getFrom() {
+      return from;
+    }
+
+    LocalDateTime getTo() {
+      return to;
+    }
+  }
+
+  private final Period period;
+  private final int premake;
+  private final long retentionMillis;
+  private final long intervalMillis;
+
+  private KeycloakSessionFactory factory;
+  private ScheduledExecutorService exec;
+
+  WebhookSendPartitions(Period period, int premake, long retentionMillis, long intervalMillis) {
+    this.period = period;
+    this.premake = premake;
+    this.retentionMillis = retentionMillis;
+    this.intervalMillis = intervalMillis;
+  }
+
+  static WebhookSendPartitions create(Scope config) {
+    String name = config.get(PERIOD, DEFAULT_PERIOD);
+    Period period;
+    try {
+      period = Period.valueOf(name.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      log.warnf("Invalid %s %s. Using %s.", PERIOD, name, DEFAULT_PERIOD);
+      period = Period.MONTH;
+    }
+    int premake = Math.max(1, config.getInt(PREMAKE, DEFAULT_PREMAKE));
+    long retention = config.getLong(RETENTION, DEFAULT_RETENTION);
+    long interval = Math.max(60000, config.getLong(INTERVAL, DEFAULT_INTERVAL));
+    return new WebhookSendPartitions(period, premake, retention, interval);
+  }
+
+  /** Check the partitions now, and then every {@code intervalMillis}. */
+  public void start(KeycloakSessionFactory factory) {
+    this.factory = factory;
+    this.exec =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("webhook-send-partitions-%d")
+                .setDaemon(true)
+                .build());
+    exec.scheduleWithFixedDelay(this::run, 0, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public void stop() {
+    if (exec != null) exec.shutdown();
+  }
+
+  /** Maintain the partitions, unless another node is already doing it. */
+  void run() {
+    try (KeycloakSession session = factory.create()) {
+      ExecutionResult<Void> result =
+          session
+              .getProvider(ClusterProvider.class)
+              .executeIfNotExecuted(
+                  TASK_KEY,
+                  (int) Math.max(1, intervalMillis / 1000),
+                  () -> {
+                    maintain();
+                    return null;
+                  });
+      if (!result.isExecuted()) log.debug("WEBHOOK_SEND partitions maintained on another node");
+    } catch (Exception e) {
+      log.warn("Error maintaining WEBHOOK_SEND partitions", e);
+    }
+  }
+
+  private void maintain() {
+    List<Partition> partitions =
+        KeycloakModelUtils.runJobInTransactionWithResult(factory, WebhookSendPartitions::load);
+    if (partitions == null) {
+      log.debug("WEBHOOK_SEND is not partitioned");
+      return;
+    }
+    LocalDateTime now = LocalDateTime.now();
+    for (Partition p : toCreate(partitions, now, period, premake)) {
+      String sql =
+          String.format(
+              "CREATE TABLE IF NOT EXISTS %s PARTITION OF WEBHOOK_SEND FOR VALUES FROM ('%s') TO"
+                  + " ('%s')",
+              p.getName(), BOUND.format(p.getFrom()), BOUND.format(p.getTo()));
+      if (execute(sql)) log.infof("Created WEBHOOK_SEND partition %s", p.getName());
+    }
+    if (retentionMillis <= 0) return;
+    LocalDateTime cutoff = now.minus(retentionMillis, ChronoUnit.MILLIS);
+    for (Partition p : toDrop(partitions, cutoff)) {
+      if (execute("DROP TABLE IF EXISTS " + p.getName())) {
+        log.infof(
+            "Dropped WEBHOOK_SEND partition %s, with sends before %s", p.getName(), p.getTo());
+      }
+    }
+  }
+
+  private boolean execute(String sql) {
+    try {
+      KeycloakModelUtils.runJobInTransaction(
+          factory, (session) -> em(session).createNativeQuery(sql).executeUpdate());
+      return true;
+    } catch (Exception e) {
+      // e.g. sends past the last partition are already in the default one
+      log.warnf(e, "Error maintaining WEBHOOK_SEND partitions: %s", sql);
+      return false;
+    }
+  }
+
+  private static EntityManager em(KeycloakSession session) {
+    return session.getProvider(JpaConnectionProvider.class).getEntityManager();
+  }
+
+  /** The partitions of the table, or null if it is not partitioned. */
+  @SuppressWarnings("unchecked")
+  private static List<Partition> load(KeycloakSession session) {
+    EntityManager em = em(session);
+    String database =
+        em.unwrap(Session.class)
+            .doReturningWork(connection -> connection.getMetaData().getDatabaseProductName());
+    if (!"PostgreSQL".equals(database)) return null;
+    Number partitioned =
+        (Number)
+            em.createNativeQuery(
+                    "SELECT COUNT(*) FROM pg_partitioned_table WHERE partrelid ="
+                        + " to_regclass('webhook_send')")
+                .getSingleResult();
+    if (partitioned.intValue() == 0) return null;
+    List<Object[]> rows =
+        em.createNativeQuery(
+                "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i JOIN"
+                    + " pg_class c ON c.oid = i.inhrelid WHERE i.inhparent ="
+                    + " to_regclass('webhook_send')")
+            .getResultList();
+    return rows.stream().map(r -> parse((String) r[0], (String) r[1])).collect(Collectors.toList());
+  }
+
+  /**
+   * A partition from its name and bound, as given by {@code pg_get_expr}, e.g. {@code FOR VALUES
+   * FROM ('2026-10-01 00:00:00') TO ('2026-11-01 00:00:00')}. The default partition has neither
+   * bound.
+   */
+  static Partition parse(String name, String bound) {
+    return new Partition(name, bound(FROM, bound), bound(TO, bound));
+  }
+
+  private static LocalDateTime bound(Pattern pattern, String bound) {
+    Matcher m = pattern.matcher(bound);
+    if (!m.find()) return null;
+    String value = m.group(1);
+    // drop any fraction of a second
+    int dot = value.indexOf('.');
+    return LocalDateTime.parse(dot < 0 ? value : value.substring(0, dot), BOUND);
+  }
+
+  /**
+   * The partitions to make, so that there is one from the end of the last one until the end of
+   * {@code premake} periods after the current one. If there are none, they start at the current
+   * period.
+   */
+  static List<Partition> toCreate(
+      List<Partition> existing, LocalDateTime now, Period period, int premake) {
+    LocalDateTime start =
+        existing.stream()
+            .map(Partition::getTo)
+            .filter(to -> to != null)
+            .max(LocalDateTime::compareTo)
+            .orElse(period.start(now));
+    LocalDateTime until = period.start(now);
+    for (int i = 0; i <= premake; i++) until = period.next(until);
+    List<Partition> create = new ArrayList<>();
+    while (start.isBefore(until)) {
+      LocalDateTime end = period.next(start);
+      create.add(new Partition(period.name(start), start, end));
+      start = end;
+    }
+    return create;
+  }
+
+  /** The partitions whose sends were all sent before {@code cutoff}. */
+  static List<Partition> toDrop(List<Partition> existing, LocalDateTime cutoff) {
+    return existing.stream()
+        .filter(p -> p.getTo() != null && !p.getTo().isAfter(cutoff))
+        .filter(p -> p.getName().toLowerCase(Locale.ROOT).startsWith(PARTITION_PREFIX))
+        .collect(Collectors.toList());
+  }
+}
@@ -23,6 +23,9 @@ import java.util.Set;
   @NamedQuery(
       name = "getWebhooksByRealmId",
       query = "SELECT w FROM WebhookEntity w WHERE w.realmId = :realmId"),
+  @NamedQuery(
+      name = "getWebhookIds",
+      query = "SELECT w.id FROM WebhookEntity w WHERE w.id IN :ids"),
   @NamedQuery(
       name = "countWebhooksByRealmId",
       query = "SELECT count(w) FROM WebhookEntity w WHERE w.realmId = :realmId"),
@@ -59,6 +62,15 @@ public class WebhookEntity {
   @Column(name = "AUDIENCE")
   protected String audience;
 
+  @Column(name = "BATCH_SIZE")
+  protected Integer batchSize;
+
+  @Column(name = "BATCH_MAX_BYTES")
+  protected Integer batchMaxBytes;
+
+  @Column(name = "BATCH_LINGER_MS")
+  protected Integer batchLingerMillis;
+
   @ElementCollection(fetch = FetchType.EAGER)
   @Column(name = "VALUE")
   @CollectionTable(
@@ -142,6 +154,30 @@ public class WebhookEntity {
     this.audience = audience;
   }
 
+  public Integer getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(Integer batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public Integer getBatchMaxBytes() {
+    return batchMaxBytes;
+  }
+
+  public void setBatchMaxBytes(Integer batchMaxBytes) {
+    this.batchMaxBytes = batchMaxBytes;
+  }
+
+  public Integer getBatchLingerMillis() {
+    return batchLingerMillis;
+  }
+
+  public void setBatchLingerMillis(Integer batchLingerMillis) {
+    this.batchLingerMillis = batchLingerMillis;
+  }
+
   public Set<String> getEventTypes() {
     return eventTypes;
   }
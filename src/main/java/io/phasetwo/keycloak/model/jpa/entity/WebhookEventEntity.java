@@ -1,7 +1,20 @@
 package io.phasetwo.keycloak.model.jpa.entity;
 
 import io.phasetwo.keycloak.model.KeycloakEventType;
-import jakarta.persistence.*;
+import jakarta.persistence.Access;
+import jakarta.persistence.AccessType;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.NamedQueries;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Temporal;
+import jakarta.persistence.TemporalType;
+import java.util.Date;
 import org.hibernate.annotations.JdbcTypeCode;
 import org.hibernate.type.SqlTypes;
 
@@ -13,7 +26,26 @@ import org.hibernate.type.SqlTypes;
   @NamedQuery(
       name = "getWebhookEventByAdminEventId",
       query =
-          "SELECT w FROM WebhookEventEntity w WHERE w.realmId = :realmId AND w.eventType = 'ADMIN' AND w.adminEventId = :id")
+          "SELECT w FROM WebhookEventEntity w WHERE w.realmId = :realmId AND w.eventType = 'ADMIN' AND w.adminEventId = :id"),
+  @NamedQuery(
+      name = "getWebhookEventsByEventIds",
+      query =
+          "SELECT w FROM WebhookEventEntity w WHERE w.realmId = :realmId AND w.eventType = 'USER' AND w.eventId IN :ids"),
+  @NamedQuery(
+      name = "getWebhookEventsByAdminEventIds",
+      query =
+          "SELECT w FROM WebhookEventEntity w WHERE w.realmId = :realmId AND w.eventType = 'ADMIN' AND w.adminEventId IN :ids"),
+  @NamedQuery(
+      name = "getUnsentWebhookEventIds",
+      query =
+          "SELECT w.id FROM WebhookEventEntity w WHERE w.realmId = :realmId AND w.createdAt < :before AND NOT EXISTS (SELECT s FROM WebhookSendEntity s WHERE s.event = w)"),
+  @NamedQuery(
+      name = "getUncompressedWebhookEvents",
+      query =
+          "SELECT w FROM WebhookEventEntity w WHERE w.id > :after AND w.eventObjectCodec IS NULL AND w.eventObject IS NOT NULL AND LENGTH(w.eventObject) >= :minLength ORDER BY w.id"),
+  @NamedQuery(
+      name = "removeWebhookEventsByIds",
+      query = "DELETE FROM WebhookEventEntity w WHERE w.id IN :ids")
 })
 @Entity
 @Table(name = "WEBHOOK_EVENT")
@@ -40,6 +72,22 @@ public class WebhookEventEntity {
   @JdbcTypeCode(SqlTypes.JSON)
   protected String eventObject;
 
+  @Column(name = "EVENT_OBJECT_COMPRESSED", nullable = true)
+  @JdbcTypeCode(SqlTypes.LONG32VARBINARY)
+  protected byte[] eventObjectCompressed;
+
+  @Column(name = "EVENT_OBJECT_CODEC", nullable = true, length = 16)
+  protected String eventObjectCodec;
+
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "CREATED_AT")
+  protected Date createdAt;
+
+  @PrePersist
+  protected void onCreate() {
+    if (createdAt == null) createdAt = new Date();
+  }
+
   public String getId() {
     return id;
   }
@@ -88,6 +136,31 @@ public class WebhookEventEntity {
     this.eventObject = eventObject;
   }
 
+  public byte[] getEventObjectCompressed() {
+    return eventObjectCompressed;
+  }
+
+  public void setEventObjectCompressed(byte[] eventObjectCompressed) {
+    this.eventObjectCompressed = eventObjectCompressed;
+  }
+
+  /** how the event object is stored, or null if it is stored as JSON */
+  public String getEventObjectCodec() {
+    return eventObjectCodec;
+  }
+
+  public void setEventObjectCodec(String eventObjectCodec) {
+    this.eventObjectCodec = eventObjectCodec;
+  }
+
+  public Date getCreatedAt() {
+    return createdAt;
+  }
+
+  public void setCreatedAt(Date createdAt) {
+    this.createdAt = createdAt;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -0,0 +1,162 @@
+package io.phasetwo.keycloak.model.jpa.entity;
+
+import jakarta.persistence.Access;
+import jakarta.persistence.AccessType;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.NamedQueries;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Temporal;
+import jakarta.persistence.TemporalType;
+import java.util.Date;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+@NamedQueries({
+  @NamedQuery(
+      name = "getDueWebhookOutbox",
+      query =
+          "SELECT o FROM WebhookOutboxEntity o WHERE o.nextAttemptAt <= :now AND (o.claimedUntil IS NULL OR o.claimedUntil < :now) ORDER BY o.nextAttemptAt"),
+  @NamedQuery(
+      name = "renewWebhookOutboxClaims",
+      query =
+          "UPDATE WebhookOutboxEntity o SET o.claimedUntil = :claimedUntil WHERE o.claimedBy = :claimedBy AND o.claimedUntil < :claimedUntil"),
+  @NamedQuery(
+      name = "removeWebhookOutboxByRealmId",
+      query = "DELETE FROM WebhookOutboxEntity o WHERE o.realmId = :realmId")
+})
+@Entity
+@Table(name = "WEBHOOK_OUTBOX")
+public class WebhookOutboxEntity {
+  @Id
+  @Column(name = "ID", length = 36)
+  @Access(AccessType.PROPERTY)
+  protected String id;
+
+  @Column(name = "REALM_ID", nullable = false, length = 36)
+  protected String realmId;
+
+  @Column(name = "WEBHOOK_ID", nullable = true, length = 36)
+  protected String webhookId;
+
+  @Column(name = "PAYLOAD", nullable = false)
+  @JdbcTypeCode(SqlTypes.LONG32VARCHAR)
+  protected String payload;
+
+  @Column(name = "ATTEMPT")
+  protected Integer attempt;
+
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "NEXT_ATTEMPT_AT", nullable = false)
+  protected Date nextAttemptAt;
+
+  @Column(name = "CLAIMED_BY", length = 36)
+  protected String claimedBy;
+
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "CLAIMED_UNTIL")
+  protected Date claimedUntil;
+
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "CREATED_AT")
+  protected Date createdAt;
+
+  @PrePersist
+  protected void onCreate() {
+    if (createdAt == null) createdAt = new Date();
+    if (nextAttemptAt == null) nextAttemptAt = createdAt;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public String getRealmId() {
+    return realmId;
+  }
+
+  public void setRealmId(String realmId) {
+    this.realmId = realmId;
+  }
+
+  public String getWebhookId() {
+    return webhookId;
+  }
+
+  public void setWebhookId(String webhookId) {
+    this.webhookId = webhookId;
+  }
+
+  public String getPayload() {
+    return payload;
+  }
+
+  public void setPayload(String payload) {
+    this.payload = payload;
+  }
+
+  public Integer getAttempt() {
+    return attempt;
+  }
+
+  public void setAttempt(Integer attempt) {
+    this.attempt = attempt;
+  }
+
+  public Date getNextAttemptAt() {
+    return nextAttemptAt;
+  }
+
+  public void setNextAttemptAt(Date nextAttemptAt) {
+    this.nextAttemptAt = nextAttemptAt;
+  }
+
+  public String getClaimedBy() {
+    return claimedBy;
+  }
+
+  public void setClaimedBy(String claimedBy) {
+    this.claimedBy = claimedBy;
+  }
+
+  public Date getClaimedUntil() {
+    return claimedUntil;
+  }
+
+  public void setClaimedUntil(Date claimedUntil) {
+    this.claimedUntil = claimedUntil;
+  }
+
+  public Date getCreatedAt() {
+    return createdAt;
+  }
+
+  public void setCreatedAt(Date at) {
+    createdAt = at;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null) return false;
+    if (!(o instanceof WebhookOutboxEntity)) return false;
+
+    WebhookOutboxEntity that = (WebhookOutboxEntity) o;
+
+    if (!id.equals(that.id)) return false;
+
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return id.hashCode();
+  }
+}
@@ -0,0 +1,125 @@
+package io.phasetwo.keycloak.model.jpa.entity;
+
+import jakarta.persistence.Access;
+import jakarta.persistence.AccessType;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.NamedQueries;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Temporal;
+import jakarta.persistence.TemporalType;
+import java.util.Date;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+@NamedQueries({
+  @NamedQuery(
+      name = "getWebhookPayloadHashes",
+      query = "SELECT p.hash FROM WebhookPayloadEntity p WHERE p.hash IN :hashes"),
+  @NamedQuery(
+      name = "getUnsentWebhookPayloadHashes",
+      query =
+          "SELECT p.hash FROM WebhookPayloadEntity p WHERE p.realmId = :realmId AND p.createdAt < :before AND NOT EXISTS (SELECT s FROM WebhookSendEntity s WHERE s.payloadHash = p.hash)"),
+  @NamedQuery(
+      name = "removeWebhookPayloadsByHashes",
+      query = "DELETE FROM WebhookPayloadEntity p WHERE p.hash IN :ids"),
+  @NamedQuery(
+      name = "removeWebhookPayloadsByRealmId",
+      query = "DELETE FROM WebhookPayloadEntity p WHERE p.realmId = :realmId")
+})
+@Entity
+@Table(name = "WEBHOOK_PAYLOAD")
+public class WebhookPayloadEntity {
+  /** SHA-256 of the payload, in hex. */
+  @Id
+  @Column(name = "HASH", length = 64)
+  @Access(AccessType.PROPERTY)
+  protected String hash;
+
+  @Column(name = "REALM_ID", nullable = false, length = 36)
+  protected String realmId;
+
+  @Column(name = "PAYLOAD", nullable = true)
+  @JdbcTypeCode(SqlTypes.LONG32VARCHAR)
+  protected String payload;
+
+  @Column(name = "PAYLOAD_COMPRESSED", nullable = true)
+  @JdbcTypeCode(SqlTypes.LONG32VARBINARY)
+  protected byte[] payloadCompressed;
+
+  @Column(name = "PAYLOAD_CODEC", nullable = true, length = 16)
+  protected String payloadCodec;
+
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "CREATED_AT")
+  protected Date createdAt;
+
+  @PrePersist
+  protected void onCreate() {
+    if (createdAt == null) createdAt = new Date();
+  }
+
+  public String getHash() {
+    return hash;
+  }
+
+  public void setHash(String hash) {
+    this.hash = hash;
+  }
+
+  public String getRealmId() {
+    return realmId;
+  }
+
+  public void setRealmId(String realmId) {
+    this.realmId = realmId;
+  }
+
+  public String getPayload() {
+    return payload;
+  }
+
+  public void setPayload(String payload) {
+    this.payload = payload;
+  }
+
+  public byte[] getPayloadCompressed() {
+    return payloadCompressed;
+  }
+
+  public void setPayloadCompressed(byte[] payloadCompressed) {
+    this.payloadCompressed = payloadCompressed;
+  }
+
+  /** how the payload is stored, or null if it is stored as text */
+  public String getPayloadCodec() {
+    return payloadCodec;
+  }
+
+  public void setPayloadCodec(String payloadCodec) {
+    this.payloadCodec = payloadCodec;
+  }
+
+  public Date getCreatedAt() {
+    return createdAt;
+  }
+
+  public void setCreatedAt(Date createdAt) {
+    this.createdAt = createdAt;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof WebhookPayloadEntity)) return false;
+    return hash.equals(((WebhookPayloadEntity) o).hash);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash.hashCode();
+  }
+}
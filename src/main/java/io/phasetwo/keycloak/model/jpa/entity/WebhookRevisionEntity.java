@@ -0,0 +1,60 @@
+package io.phasetwo.keycloak.model.jpa.entity;
+
+import jakarta.persistence.Access;
+import jakarta.persistence.AccessType;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.NamedQueries;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.Table;
+
+/** The revision of a realm's webhooks, replaced whenever one of them changes. */
+@NamedQueries({
+  @NamedQuery(
+      name = "updateWebhookRevision",
+      query =
+          "UPDATE WebhookRevisionEntity r SET r.revision = :revision WHERE r.realmId = :realmId"),
+  @NamedQuery(
+      name = "removeWebhookRevisionByRealmId",
+      query = "DELETE FROM WebhookRevisionEntity r WHERE r.realmId = :realmId")
+})
+@Entity
+@Table(name = "WEBHOOK_REVISION")
+public class WebhookRevisionEntity {
+  @Id
+  @Column(name = "REALM_ID", length = 36)
+  @Access(AccessType.PROPERTY)
+  protected String realmId;
+
+  @Column(name = "REVISION", nullable = false, length = 36)
+  protected String revision;
+
+  public String getRealmId() {
+    return realmId;
+  }
+
+  public void setRealmId(String realmId) {
+    this.realmId = realmId;
+  }
+
+  public String getRevision() {
+    return revision;
+  }
+
+  public void setRevision(String revision) {
+    this.revision = revision;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof WebhookRevisionEntity)) return false;
+    return realmId.equals(((WebhookRevisionEntity) o).realmId);
+  }
+
+  @Override
+  public int hashCode() {
+    return realmId.hashCode();
+  }
+}
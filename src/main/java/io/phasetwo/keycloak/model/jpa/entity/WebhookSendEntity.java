@@ -1,13 +1,44 @@
 package io.phasetwo.keycloak.model.jpa.entity;
 
-import jakarta.persistence.*;
+import jakarta.persistence.Access;
+import jakarta.persistence.AccessType;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.NamedQueries;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Temporal;
+import jakarta.persistence.TemporalType;
 import java.util.Date;
 
 @NamedQueries({
   @NamedQuery(
       name = "getWebhookSendsByWebhook",
       query =
-          "SELECT w FROM WebhookSendEntity w WHERE w.webhook = :webhook ORDER BY w.sentAt DESC"),
+          "SELECT w FROM WebhookSendEntity w WHERE w.webhook = :webhook ORDER BY w.sentAt DESC, w.id DESC"),
+  @NamedQuery(
+      name = "getWebhookSendsByWebhookAfter",
+      query =
+          "SELECT w FROM WebhookSendEntity w WHERE w.webhook = :webhook AND w.sentAt <= :sentAt AND (w.sentAt < :sentAt OR w.id < :id) ORDER BY w.sentAt DESC, w.id DESC"),
+  @NamedQuery(
+      name = "getWebhookSendIdsByWebhookBefore",
+      query =
+          "SELECT w.id FROM WebhookSendEntity w WHERE w.webhook = :webhook AND w.sentAt < :sentAt"),
+  @NamedQuery(
+      name = "getWebhookSendIdsByWebhookAfter",
+      query =
+          "SELECT w.id FROM WebhookSendEntity w WHERE w.webhook = :webhook AND w.sentAt <= :sentAt AND (w.sentAt < :sentAt OR w.id < :id)"),
+  @NamedQuery(
+      name = "removeWebhookSendsByIds",
+      query = "DELETE FROM WebhookSendEntity w WHERE w.id IN :ids"),
+  @NamedQuery(
+      name = "getWebhookSendsByIds",
+      query = "SELECT w FROM WebhookSendEntity w WHERE w.id IN :ids"),
   @NamedQuery(
       name = "getWebhookSendsByEvent",
       query = "SELECT w FROM WebhookSendEntity w WHERE w.event = :event ORDER BY w.sentAt DESC")
@@ -33,6 +64,10 @@ public class WebhookSendEntity {
   @JoinColumn(name = "WEBHOOK_EVENT_ID")
   protected WebhookEventEntity event;
 
+  /** The SHA-256 of the payload that was sent, in {@code WEBHOOK_PAYLOAD}. */
+  @Column(name = "PAYLOAD_HASH", length = 64)
+  protected String payloadHash;
+
   @Column(name = "STATUS")
   protected Integer status;
 
@@ -80,6 +115,14 @@ public class WebhookSendEntity {
     this.event = event;
   }
 
+  public String getPayloadHash() {
+    return payloadHash;
+  }
+
+  public void setPayloadHash(String payloadHash) {
+    this.payloadHash = payloadHash;
+  }
+
   public Integer getStatus() {
     return status;
   }
@@ -82,6 +82,30 @@ public class ExtendedAdminEvent extends AdminEvent {
     setId(event.getId());
   }
 
+  /**
+   * Copy an event, so that the same event can be sent to several webhooks with a different {@code
+   * uid} each. The details and auth details are copied, so changes to them are not shared. Other
+   * fields are immutable and shared with the original.
+   */
+  public ExtendedAdminEvent(ExtendedAdminEvent event) {
+    this.uid = event.uid;
+    this.nativeType = event.nativeType;
+    this.type = event.type;
+    this.details = Maps.newHashMap(event.details);
+
+    setId(event.getId());
+    setTime(event.getTime());
+    setRealmId(event.getRealmId());
+    setRealmName(event.getRealmName());
+    setAuthDetails(
+        event.extAuthDetails != null ? new ExtendedAuthDetails(event.extAuthDetails) : null);
+    setResourceTypeAsString(event.getResourceTypeAsString());
+    setOperationType(event.getOperationType());
+    setResourcePath(event.getResourcePath());
+    setRepresentation(event.getRepresentation());
+    setError(event.getError());
+  }
+
   public String getUid() {
     return uid;
   }
@@ -19,6 +19,16 @@ public class ExtendedAuthDetails extends AuthDetails {
     }
   }
 
+  /** Copy all fields, including the username and session id. */
+  public ExtendedAuthDetails(ExtendedAuthDetails authDetails) {
+    this((AuthDetails) authDetails);
+    if (authDetails != null) {
+      setRealmName(authDetails.getRealmName());
+      setUsername(authDetails.getUsername());
+      setSessionId(authDetails.getSessionId());
+    }
+  }
+
   public void setUsername(String username) {
     this.username = username;
   }
@@ -0,0 +1,19 @@
+package io.phasetwo.keycloak.representation;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+@Data
+public class WebhookBreakerState {
+  @JsonProperty("state")
+  private String state;
+
+  @JsonProperty("calls")
+  private int calls;
+
+  @JsonProperty("failures")
+  private int failures;
+
+  @JsonProperty("openUntil")
+  private Long openUntil;
+}
@@ -0,0 +1,19 @@
+package io.phasetwo.keycloak.representation;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+@Data
+public class WebhookQueueStats {
+  @JsonProperty("depth")
+  private int depth;
+
+  @JsonProperty("inFlight")
+  private int inFlight;
+
+  @JsonProperty("dropped")
+  private long dropped;
+
+  @JsonProperty("spilled")
+  private long spilled;
+}
@@ -13,6 +13,9 @@ public class WebhookRepresentation {
   private String algorithm;
   private String authType;
   private String audience;
+  private Integer batchSize;
+  private Integer batchMaxBytes;
+  private Integer batchLingerMillis;
   private String createdBy;
   private Date createdAt;
   private String realm;
@@ -0,0 +1,56 @@
+package io.phasetwo.keycloak.resources;
+
+import io.phasetwo.keycloak.model.WebhookSendModel;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * The position of a webhook send in the send history, which is ordered by send time and then id,
+ * newest first. Clients get it as an opaque token, and pass it back to get the sends after it.
+ */
+final class SendCursor {
+
+  private final Date sentAt;
+  private final String id;
+
+  SendCursor(Date sentAt, String id) {
+    this.sentAt = sentAt;
+    this.id = id;
+  }
+
+  /** The cursor after a send. */
+  static SendCursor of(WebhookSendModel send) {
+    return new SendCursor(send.getSentAt(), send.getId());
+  }
+
+  /**
+   * Read a token made by {@link #encode()}.
+   *
+   * @throws IllegalArgumentException if it is not a valid token
+   */
+  static SendCursor parse(String token) {
+    String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+    int comma = decoded.indexOf(',');
+    if (comma < 1 || comma == decoded.length() - 1) {
+      throw new IllegalArgumentException("Invalid cursor");
+    }
+    return new SendCursor(
+        new Date(Long.parseLong(decoded.substring(0, comma))), decoded.substring(comma + 1));
+  }
+
+  String encode() {
+    String value = sentAt.getTime() + "," + id;
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  Date getSentAt() {
+    return sentAt;
+  }
+
+  String getId() {
+    return id;
+  }
+}
@@ -1,6 +1,10 @@
 package io.phasetwo.keycloak.resources;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import io.phasetwo.keycloak.events.CircuitBreakers;
+import io.phasetwo.keycloak.events.SenderQueue;
 import io.phasetwo.keycloak.events.WebhookSenderEventListenerProvider;
+import io.phasetwo.keycloak.events.WebhookSenderEventListenerProviderFactory;
 import io.phasetwo.keycloak.model.KeycloakEventType;
 import io.phasetwo.keycloak.model.WebhookEventModel;
 import io.phasetwo.keycloak.model.WebhookModel;
@@ -8,6 +12,8 @@ import io.phasetwo.keycloak.model.WebhookProvider;
 import io.phasetwo.keycloak.model.WebhookSendModel;
 import io.phasetwo.keycloak.representation.Credential;
 import io.phasetwo.keycloak.representation.ExtendedAdminEvent;
+import io.phasetwo.keycloak.representation.WebhookBreakerState;
+import io.phasetwo.keycloak.representation.WebhookQueueStats;
 import io.phasetwo.keycloak.representation.WebhookRepresentation;
 import io.phasetwo.keycloak.representation.WebhookSend;
 import jakarta.ws.rs.BadRequestException;
@@ -23,14 +29,18 @@ import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.events.EventListenerProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.UserModel;
 import org.keycloak.services.resources.admin.AdminRoot;
+import org.keycloak.util.JsonSerialization;
 
 @JBossLog
 public class WebhooksResource extends AbstractAdminResource {
@@ -81,6 +91,9 @@ public class WebhooksResource extends AbstractAdminResource {
     webhook.setAlgorithm(w.getAlgorithm());
     webhook.setAuthType(w.getAuthType());
     webhook.setAudience(w.getAudience());
+    webhook.setBatchSize(w.getBatchSize());
+    webhook.setBatchMaxBytes(w.getBatchMaxBytes());
+    webhook.setBatchLingerMillis(w.getBatchLingerMillis());
     // no secret
     return webhook;
   }
@@ -88,21 +101,24 @@ public class WebhooksResource extends AbstractAdminResource {
   private WebhookSend toRepresentation(WebhookSendModel s, boolean brief) {
     WebhookSend send = new WebhookSend();
     send.setId(s.getId());
-    send.setEventId(s.getEvent().getId()); //
+    WebhookEventModel event = s.getEvent();
+    if (event != null) send.setEventId(event.getId());
     send.setEventType(s.getEventType());
     send.setStatus(s.getStatus());
     send.setStatusMessage(getStatusMessage(s.getStatus()));
     send.setRetries(s.getRetries());
     send.setSentAt(s.getSentAt());
-    KeycloakEventType kcType = s.getEvent().getEventType();
+    // custom events are not stored, only the payloads that were sent
+    KeycloakEventType kcType =
+        event != null ? event.getEventType() : KeycloakEventType.fromTypeString(s.getEventType());
     send.setKeycloakEventType(kcType.name());
-    if (kcType == KeycloakEventType.USER) {
-      send.setKeycloakEventId(s.getEvent().getEventId());
+    if (event != null && kcType == KeycloakEventType.USER) {
+      send.setKeycloakEventId(event.getEventId());
     }
-    if (kcType == KeycloakEventType.ADMIN) {
-      send.setKeycloakEventId(s.getEvent().getAdminEventId());
+    if (event != null && kcType == KeycloakEventType.ADMIN) {
+      send.setKeycloakEventId(event.getAdminEventId());
     }
-    if (!brief) send.setPayload(s.getEvent().rawPayload());
+    if (!brief) send.setPayload(s.getPayload());
     WebhookModel w = s.getWebhook();
     // brief representation for the send
     WebhookRepresentation webhook = new WebhookRepresentation();
@@ -154,13 +170,65 @@ public class WebhooksResource extends AbstractAdminResource {
     } else throw new NotFoundException(String.format("no webhook with id %s", id));
   }
 
+  @GET
+  @Path("{id}/queue")
+  @Produces(MediaType.APPLICATION_JSON)
+  public WebhookQueueStats getWebhookQueue(final @PathParam("id") String id) {
+    permissions.realm().requireViewEvents();
+    WebhookModel w = webhooks.getWebhookById(realm, id);
+    if (w == null) {
+      throw new NotFoundException(String.format("no webhook with id %s", id));
+    }
+    SenderQueue.Stats stats = WebhookSenderEventListenerProviderFactory.queueStats(session, id);
+    if (stats == null) {
+      throw new NotFoundException("ext-event-webhook provider is not deployed");
+    }
+    WebhookQueueStats rep = new WebhookQueueStats();
+    rep.setDepth(stats.getDepth());
+    rep.setInFlight(stats.getInFlight());
+    rep.setDropped(stats.getDropped());
+    rep.setSpilled(stats.getSpilled());
+    return rep;
+  }
+
+  @GET
+  @Path("{id}/breaker")
+  @Produces(MediaType.APPLICATION_JSON)
+  public WebhookBreakerState getWebhookBreaker(final @PathParam("id") String id) {
+    permissions.realm().requireViewEvents();
+    WebhookModel w = webhooks.getWebhookById(realm, id);
+    if (w == null) {
+      throw new NotFoundException(String.format("no webhook with id %s", id));
+    }
+    CircuitBreakers.Stats stats =
+        WebhookSenderEventListenerProviderFactory.breakerStats(session, id);
+    if (stats == null) {
+      throw new NotFoundException("circuit breakers are not enabled");
+    }
+    WebhookBreakerState rep = new WebhookBreakerState();
+    rep.setState(stats.getState().name());
+    rep.setCalls(stats.getCalls());
+    rep.setFailures(stats.getFailures());
+    if (stats.getOpenUntil() > 0) rep.setOpenUntil(stats.getOpenUntil());
+    return rep;
+  }
+
+  /** Response header holding the cursor for the next page of sends, if there may be one. */
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  /**
+   * Get a page of a webhook's sends, newest first. Pass the {@value #NEXT_CURSOR_HEADER} header of
+   * a page as {@code after} to get the next one. That costs the same however deep the page is,
+   * unlike paging with {@code first}, which is ignored when {@code after} is given.
+   */
   @GET
   @Path("{id}/sends")
   @Produces(MediaType.APPLICATION_JSON)
-  public Stream<WebhookSend> getWebhookSends(
+  public Response getWebhookSends(
       final @PathParam("id") String id,
       @QueryParam("first") Integer firstResult,
-      @QueryParam("max") Integer maxResults) {
+      @QueryParam("max") Integer maxResults,
+      @QueryParam("after") String after) {
     permissions.realm().requireViewEvents();
     firstResult = firstResult != null ? firstResult : 0;
     maxResults =
@@ -171,7 +239,27 @@ public class WebhooksResource extends AbstractAdminResource {
     if (w == null) {
       throw new NotFoundException(String.format("no webhook with id %s", id));
     }
-    return webhooks.getSends(realm, w, firstResult, maxResults).map(s -> toRepresentation(s, true));
+    List<WebhookSendModel> page;
+    if (after != null) {
+      SendCursor cursor;
+      try {
+        cursor = SendCursor.parse(after);
+      } catch (IllegalArgumentException e) {
+        throw new BadRequestException(String.format("invalid cursor %s", after));
+      }
+      page =
+          webhooks
+              .getSendsAfter(realm, w, cursor.getSentAt(), cursor.getId(), maxResults)
+              .collect(Collectors.toList());
+    } else {
+      page = webhooks.getSends(realm, w, firstResult, maxResults).collect(Collectors.toList());
+    }
+    Response.ResponseBuilder response =
+        Response.ok(page.stream().map(s -> toRepresentation(s, true)).collect(Collectors.toList()));
+    if (page.size() == maxResults) {
+      response.header(NEXT_CURSOR_HEADER, SendCursor.of(page.get(page.size() - 1)).encode());
+    }
+    return response.build();
   }
 
   @GET
@@ -267,7 +355,10 @@ public class WebhooksResource extends AbstractAdminResource {
     if (listener == null) {
       log.warn("couldn't find ext-event-webhook provider");
     } else {
-      ExtendedAdminEvent customEvent = s.getEvent().getPayload(ExtendedAdminEvent.class);
+      ExtendedAdminEvent customEvent = resendEvent(s);
+      if (customEvent == null) {
+        throw new NotFoundException(String.format("no stored event or payload for send %s", sid));
+      }
       customEvent.setUid(sid);
       listener.schedule(w, customEvent);
     }
@@ -275,6 +366,26 @@ public class WebhooksResource extends AbstractAdminResource {
     return Response.accepted().type(MediaType.TEXT_PLAIN).build();
   }
 
+  /**
+   * The event to send again: the stored event, or else the event in the payload that was sent. A
+   * batched payload holds several events, and the send's own is the one with its id as its uid.
+   */
+  private ExtendedAdminEvent resendEvent(WebhookSendModel s) throws IOException {
+    if (s.getEvent() != null) return s.getEvent().getPayload(ExtendedAdminEvent.class);
+    String payload = s.getPayload();
+    if (payload == null) return null;
+    JsonNode node = JsonSerialization.readValue(payload, JsonNode.class);
+    if (node.isArray()) {
+      for (JsonNode e : node) {
+        if (s.getId().equals(e.path("uid").asText(null))) {
+          return JsonSerialization.mapper.treeToValue(e, ExtendedAdminEvent.class);
+        }
+      }
+      return null;
+    }
+    return JsonSerialization.mapper.treeToValue(node, ExtendedAdminEvent.class);
+  }
+
   @PUT
   @Path("{id}")
   @Consumes(MediaType.APPLICATION_JSON)
@@ -284,12 +395,19 @@ public class WebhooksResource extends AbstractAdminResource {
     WebhookModel w = webhooks.getWebhookById(realm, id);
     if (w == null) throw new NotFoundException(String.format("no webhook with id %s", id));
     mergeWebhook(rep, w);
+    WebhookSenderEventListenerProviderFactory.webhookChanged(session, id);
     return Response.noContent().build();
   }
 
   private void validateWebhook(WebhookRepresentation rep) {
     if (rep == null) throw new BadRequestException("webhook cannot be empty");
     if (rep.getUrl() == null) throw new BadRequestException("url cannot be empty");
+    if (rep.getBatchMaxBytes() != null && rep.getBatchMaxBytes() < 0) {
+      throw new BadRequestException("batchMaxBytes cannot be negative");
+    }
+    if (rep.getBatchLingerMillis() != null && rep.getBatchLingerMillis() < 0) {
+      throw new BadRequestException("batchLingerMillis cannot be negative");
+    }
     try {
       new URI(rep.getUrl()).parseServerAuthority();
     } catch (URISyntaxException e) {
@@ -328,6 +446,16 @@ public class WebhooksResource extends AbstractAdminResource {
     if (rep.getAudience() != null && !"".equals(rep.getAudience())) {
       w.setAudience(rep.getAudience());
     }
+    // batching is opt-in; a batchSize of 1 (or less) turns it back off
+    if (rep.getBatchSize() != null) {
+      w.setBatchSize(rep.getBatchSize());
+    }
+    if (rep.getBatchMaxBytes() != null) {
+      w.setBatchMaxBytes(rep.getBatchMaxBytes());
+    }
+    if (rep.getBatchLingerMillis() != null) {
+      w.setBatchLingerMillis(rep.getBatchLingerMillis());
+    }
   }
 
   @DELETE
@@ -336,6 +464,7 @@ public class WebhooksResource extends AbstractAdminResource {
     permissions.realm().requireManageEvents();
     getWebhook(id); // forces a not found if it doesn't exist
     webhooks.removeWebhook(realm, id);
+    WebhookSenderEventListenerProviderFactory.webhookChanged(session, id);
     return Response.noContent().build();
   }
 }
@@ -0,0 +1,144 @@
+package io.phasetwo.keycloak.events;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.sun.net.httpserver.HttpServer;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.Config;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+public class AsyncSenderClientTest {
+
+  private HttpServer server;
+  private String uri;
+  private final AtomicInteger status = new AtomicInteger(200);
+  private final BlockingQueue<Map<String, String>> received = new LinkedBlockingQueue<>();
+  private ScheduledThreadPoolExecutor exec;
+  private AsyncSenderClient client;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/",
+        exchange -> {
+          String body =
+              new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+          String signature = exchange.getRequestHeaders().getFirst("X-Keycloak-Signature");
+          // read before signalling the test, which may change it
+          int code = status.get();
+          received.add(
+              ImmutableMap.of(
+                  "body",
+                  body,
+                  "contentType",
+                  exchange.getRequestHeaders().getFirst("Content-Type"),
+                  "signature",
+                  signature != null ? signature : ""));
+          exchange.sendResponseHeaders(code, -1);
+          exchange.close();
+        });
+    server.start();
+    uri = "http://127.0.0.1:" + server.getAddress().getPort() + "/hook";
+    exec = new ScheduledThreadPoolExecutor(1);
+    client = AsyncSenderClient.create(scope(ImmutableMap.of(AsyncSenderClient.ENGINE, "async")));
+  }
+
+  @AfterEach
+  public void teardown() {
+    if (client != null) client.close();
+    exec.shutdownNow();
+    server.stop(0);
+  }
+
+  /** A config scope with the given values, and defaults for everything else. */
+  private static Config.Scope scope(Map<String, String> values) {
+    return (Config.Scope)
+        Proxy.newProxyInstance(
+            AsyncSenderClientTest.class.getClassLoader(),
+            new Class<?>[] {Config.Scope.class},
+            (proxy, method, args) -> {
+              String value = values.get((String) args[0]);
+              if (value != null) return value;
+              return args.length > 1 ? args[1] : null;
+            });
+  }
+
+  @Test
+  public void blockingIsTheDefault() {
+    assertThat(AsyncSenderClient.create(scope(ImmutableMap.of())), nullValue());
+  }
+
+  @Test
+  public void postsBodyAndHeaders() throws Exception {
+    int code =
+        client
+            .post(uri, "{\"a\":1}".getBytes(StandardCharsets.UTF_8), ImmutableMap.of("X-Test", "1"))
+            .get(5, TimeUnit.SECONDS);
+    assertThat(code, is(200));
+    Map<String, String> request = received.poll(5, TimeUnit.SECONDS);
+    assertThat(request.get("body"), is("{\"a\":1}"));
+    assertThat(request.get("contentType"), is("application/json"));
+  }
+
+  @Test
+  public void senderDeliversSignedEventsAsynchronously() throws Exception {
+    HttpSenderEventListenerProvider provider =
+        new HttpSenderEventListenerProvider(null, exec, null, client);
+    provider.setConfig(
+        ImmutableMap.<String, Object>of(
+            HttpSenderEventListenerProvider.TARGET_URI, uri,
+            HttpSenderEventListenerProvider.SHARED_SECRET, "secret",
+            HttpSenderEventListenerProvider.RETRY, "false"));
+    Event event = new Event();
+    event.setId("e1");
+    event.setType(EventType.LOGIN);
+    event.setRealmId("r1");
+    provider.onEvent(event);
+
+    Map<String, String> request = received.poll(5, TimeUnit.SECONDS);
+    assertThat(request, notNullValue());
+    assertThat(
+        request.get("signature"),
+        is(
+            HttpSenderEventListenerProvider.calculateHmacSha(
+                request.get("body"), "secret", "HmacSHA256")));
+  }
+
+  @Test
+  public void retriesServerErrors() throws Exception {
+    status.set(503);
+    HttpSenderEventListenerProvider provider =
+        new HttpSenderEventListenerProvider(null, exec, null, client);
+    provider.setConfig(
+        ImmutableMap.<String, Object>of(
+            HttpSenderEventListenerProvider.TARGET_URI, uri,
+            HttpSenderEventListenerProvider.BACKOFF_INITIAL_INTERVAL, "10",
+            HttpSenderEventListenerProvider.BACKOFF_MULTIPLIER, "1",
+            HttpSenderEventListenerProvider.BACKOFF_RANDOMIZATION_FACTOR, "0"));
+    Event event = new Event();
+    event.setId("e2");
+    event.setType(EventType.LOGIN);
+    provider.onEvent(event);
+
+    assertThat(received.poll(5, TimeUnit.SECONDS), notNullValue());
+    status.set(200);
+    assertThat(received.poll(5, TimeUnit.SECONDS), notNullValue());
+  }
+}
@@ -0,0 +1,88 @@
+package io.phasetwo.keycloak.events;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CircuitBreakersTest {
+
+  private AtomicLong now;
+  private CircuitBreakers breakers;
+
+  @BeforeEach
+  public void setup() {
+    now = new AtomicLong(1000);
+    breakers = new CircuitBreakers(10, 4, 50, 30000, now::get);
+  }
+
+  @Test
+  public void staysClosedBelowMinimumCalls() {
+    for (int i = 0; i < 3; i++) breakers.failure("w1");
+    assertThat(breakers.stats("w1").getState(), is(CircuitBreakers.State.CLOSED));
+    assertThat(breakers.allow("w1"), is(true));
+  }
+
+  @Test
+  public void opensAtFailureRateThreshold() {
+    breakers.success("w1");
+    breakers.success("w1");
+    breakers.failure("w1");
+    assertThat(breakers.stats("w1").getState(), is(CircuitBreakers.State.CLOSED));
+    breakers.failure("w1");
+    assertThat(breakers.stats("w1").getState(), is(CircuitBreakers.State.OPEN));
+    assertThat(breakers.allow("w1"), is(false));
+    assertThat(breakers.retryAfterMillis("w1"), is(30000L));
+    assertThat(breakers.stats("w1").getOpenUntil(), is(31000L));
+  }
+
+  @Test
+  public void windowForgetsOldOutcomes() {
+    breakers = new CircuitBreakers(4, 4, 75, 30000, now::get);
+    breakers.failure("w1");
+    breakers.failure("w1");
+    breakers.success("w1");
+    breakers.success("w1");
+    // the first two failures slide out of the window
+    breakers.success("w1");
+    breakers.success("w1");
+    breakers.failure("w1");
+    assertThat(breakers.stats("w1").getFailures(), is(1));
+    assertThat(breakers.stats("w1").getState(), is(CircuitBreakers.State.CLOSED));
+  }
+
+  @Test
+  public void halfOpenAllowsOneProbeThatCloses() {
+    for (int i = 0; i < 4; i++) breakers.failure("w1");
+    now.addAndGet(30000);
+    assertThat(breakers.allow("w1"), is(true));
+    assertThat(breakers.stats("w1").getState(), is(CircuitBreakers.State.HALF_OPEN));
+    assertThat(breakers.allow("w1"), is(false));
+    breakers.success("w1");
+    assertThat(breakers.stats("w1").getState(), is(CircuitBreakers.State.CLOSED));
+    assertThat(breakers.stats("w1").getCalls(), is(0));
+    assertThat(breakers.allow("w1"), is(true));
+  }
+
+  @Test
+  public void failedProbeReopens() {
+    for (int i = 0; i < 4; i++) breakers.failure("w1");
+    now.addAndGet(30000);
+    assertThat(breakers.allow("w1"), is(true));
+    breakers.failure("w1");
+    assertThat(breakers.stats("w1").getState(), is(CircuitBreakers.State.OPEN));
+    assertThat(breakers.allow("w1"), is(false));
+    assertThat(breakers.stats("w1").getOpenUntil(), is(61000L));
+  }
+
+  @Test
+  public void breakersAreIndependent() {
+    for (int i = 0; i < 4; i++) breakers.failure("w1");
+    assertThat(breakers.allow("w1"), is(false));
+    assertThat(breakers.allow("w2"), is(true));
+    breakers.remove("w1");
+    assertThat(breakers.allow("w1"), is(true));
+  }
+}
@@ -0,0 +1,91 @@
+package io.phasetwo.keycloak.events;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.phasetwo.keycloak.model.KeycloakEventType;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class EventMetricsTest {
+
+  private SimpleMeterRegistry registry;
+
+  @BeforeEach
+  public void setup() {
+    registry = new SimpleMeterRegistry();
+    EventMetrics.setRegistry(registry);
+  }
+
+  @AfterEach
+  public void teardown() {
+    EventMetrics.setRegistry(Metrics.globalRegistry);
+  }
+
+  @Test
+  public void tagsSendsWithTheirStatusClass() {
+    assertThat(EventMetrics.outcome(0), is("2xx"));
+    assertThat(EventMetrics.outcome(204), is("2xx"));
+    assertThat(EventMetrics.outcome(429), is("4xx"));
+    assertThat(EventMetrics.outcome(503), is("5xx"));
+    assertThat(EventMetrics.outcome(-1), is("error"));
+
+    EventMetrics.sent("ext-event-webhook", "w1", 0, TimeUnit.MILLISECONDS.toNanos(20));
+    EventMetrics.sent("ext-event-webhook", "w1", 0, TimeUnit.MILLISECONDS.toNanos(40));
+    EventMetrics.sent("ext-event-webhook", "w1", 500, TimeUnit.MILLISECONDS.toNanos(5));
+    Timer ok = registry.get(EventMetrics.SEND).tag("target", "w1").tag("outcome", "2xx").timer();
+    assertThat(ok.count(), is(2L));
+    assertThat(ok.totalTime(TimeUnit.MILLISECONDS), is(60.0));
+    assertThat(registry.get(EventMetrics.SEND).tag("outcome", "5xx").timer().count(), is(1L));
+  }
+
+  @Test
+  public void countsDroppedDeliveriesByReason() {
+    EventMetrics.dropped("ext-event-http", EventMetrics.SHUTDOWN, 0);
+    assertThat(registry.find(EventMetrics.DROPPED).counter(), nullValue());
+    EventMetrics.dropped("ext-event-http", EventMetrics.SHUTDOWN, 3);
+    EventMetrics.dropped("ext-event-http", EventMetrics.RETRIES_EXHAUSTED, 1);
+    assertThat(
+        registry.get(EventMetrics.DROPPED).tag("reason", EventMetrics.SHUTDOWN).counter().count(),
+        is(3.0));
+  }
+
+  @Test
+  public void readsRecorderBufferOnScrape() {
+    WebhookRecorder recorder = new WebhookRecorder(60000, 100, 100);
+    EventMetrics.recorderBuffer(recorder);
+    assertThat(registry.get(EventMetrics.RECORDER_BUFFER).gauge().value(), is(0.0));
+    recorder.event("r1", KeycloakEventType.USER, "e0", null);
+    assertThat(registry.get(EventMetrics.RECORDER_BUFFER).gauge().value(), is(1.0));
+  }
+
+  @Test
+  public void reusesMetersForTheSameTags() {
+    EventMetrics.sent("ext-event-webhook", "w1", 200, 1);
+    Timer first = registry.get(EventMetrics.SEND).tag("target", "w1").timer();
+    EventMetrics.sent("ext-event-webhook", "w1", 204, 1);
+    EventMetrics.sent("ext-event-webhook", "w2", 204, 1);
+    assertThat(registry.get(EventMetrics.SEND).tag("target", "w1").timer(), sameInstance(first));
+    assertThat(first.count(), is(2L));
+    EventMetrics.received("ext-event-webhook", "user");
+    EventMetrics.received("ext-event-webhook", "user");
+    assertThat(registry.get(EventMetrics.RECEIVED).counter().count(), is(2.0));
+  }
+
+  @Test
+  public void removesGauges() {
+    List<Meter> meters = EventMetrics.recorderBuffer(new WebhookRecorder(60000, 100, 100));
+    assertThat(registry.find(EventMetrics.RECORDER_BUFFER).gauge() != null, is(true));
+    EventMetrics.remove(meters);
+    assertThat(registry.find(EventMetrics.RECORDER_BUFFER).gauge(), nullValue());
+  }
+}
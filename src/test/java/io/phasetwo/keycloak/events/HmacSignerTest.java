@@ -0,0 +1,74 @@
+package io.phasetwo.keycloak.events;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+public class HmacSignerTest {
+
+  // RFC 4231 and RFC 2202, test case 2
+  static final String KEY = "Jefe";
+  static final String DATA = "what do ya want for nothing?";
+  static final String SHA256 = "5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843";
+  static final String SHA1 = "effcdf6ae5eb2fa2d27416d5f184df9c259a7c79";
+
+  @Test
+  public void signsKnownVectors() throws Exception {
+    assertThat(
+        HttpSenderEventListenerProvider.calculateHmacSha(DATA, KEY, "HmacSHA256"), is(SHA256));
+    assertThat(HttpSenderEventListenerProvider.calculateHmacSha(DATA, KEY, "HmacSHA1"), is(SHA1));
+  }
+
+  @Test
+  public void reusesSignersAndTheirMacs() throws Exception {
+    HmacSigner signer = HmacSigner.get(KEY, "HmacSHA256");
+    assertThat(HmacSigner.get(KEY, "HmacSHA256"), sameInstance(signer));
+    byte[] data = DATA.getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i < 3; i++) {
+      assertThat(signer.sign(data), is(SHA256));
+    }
+  }
+
+  @Test
+  public void signsConcurrently() throws Exception {
+    HmacSigner signer = HmacSigner.get(KEY, "HmacSHA256");
+    byte[] data = DATA.getBytes(StandardCharsets.UTF_8);
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<String>> signatures = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        signatures.add(pool.submit(() -> signer.sign(data)));
+      }
+      for (Future<String> signature : signatures) {
+        assertThat(signature.get(), is(SHA256));
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void rejectsUnknownAlgorithms() {
+    assertThrows(NoSuchAlgorithmException.class, () -> HmacSigner.get(KEY, "HmacNope"));
+    assertThrows(
+        SignatureException.class,
+        () -> HttpSenderEventListenerProvider.calculateHmacSha(DATA, KEY, "HmacNope"));
+  }
+
+  @Test
+  public void encodesHexWithLeadingZeros() {
+    assertThat(Hex.encode(new byte[] {0x00, 0x0f, (byte) 0xa0, (byte) 0xff}), is("000fa0ff"));
+    assertThat(Hex.encode(new byte[0]), is(""));
+  }
+}
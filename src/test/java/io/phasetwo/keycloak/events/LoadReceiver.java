@@ -0,0 +1,154 @@
+package io.phasetwo.keycloak.events;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Stand-in for a webhook receiver under load. It answers each delivery after a fixed latency, and
+ * fails a share of them with a {@code 503}, which the sender retries, or by closing the connection
+ * without answering. The sender does not retry transport errors, so the events of a closed
+ * connection are lost. For each event it records when it first arrived and how many times it was
+ * delivered, by the {@code uid} the sender gives each event and webhook.
+ */
+@JBossLog
+class LoadReceiver {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final HttpServer server;
+  private final ExecutorService threads;
+  private final long latencyMillis;
+  private final double errorRate;
+  private final double resetRate;
+
+  private final Map<String, Long> firstReceived = new ConcurrentHashMap<>();
+  private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger deliveries = new AtomicInteger();
+  private final AtomicInteger errors = new AtomicInteger();
+  private final AtomicInteger resets = new AtomicInteger();
+  private final AtomicLong lastReceived = new AtomicLong();
+
+  /**
+   * @param errorRate the share of requests answered with {@code 503}, from 0 to 1
+   * @param resetRate the share of requests whose connection is closed without an answer, and whose
+   *     events are lost
+   */
+  LoadReceiver(int port, int threads, long latencyMillis, double errorRate, double resetRate)
+      throws IOException {
+    this.latencyMillis = latencyMillis;
+    this.errorRate = errorRate;
+    this.resetRate = resetRate;
+    this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+    this.threads = Executors.newFixedThreadPool(threads);
+    server.createContext("/", this::handle);
+    server.setExecutor(this.threads);
+  }
+
+  void start() {
+    server.start();
+  }
+
+  void stop() {
+    server.stop(0);
+    threads.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    long now = System.currentTimeMillis();
+    byte[] body = exchange.getRequestBody().readAllBytes();
+    requests.incrementAndGet();
+    try {
+      if (latencyMillis > 0) Thread.sleep(latencyMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    double roll = ThreadLocalRandom.current().nextDouble();
+    if (roll < resetRate) {
+      resets.incrementAndGet();
+      // closing before sending the headers drops the connection
+      exchange.close();
+      return;
+    }
+    if (roll < resetRate + errorRate) {
+      errors.incrementAndGet();
+      exchange.sendResponseHeaders(503, -1);
+      exchange.close();
+      return;
+    }
+    try {
+      received(MAPPER.readTree(body), now);
+    } catch (IOException e) {
+      log.warnf("Unreadable delivery: %s", e.getMessage());
+    }
+    exchange.sendResponseHeaders(204, -1);
+    exchange.close();
+  }
+
+  /** A body is one event, or an array of them when deliveries are batched. */
+  private void received(JsonNode node, long now) {
+    if (node.isArray()) {
+      node.forEach(n -> received(n, now));
+      return;
+    }
+    deliveries.incrementAndGet();
+    String uid = node.path("uid").asText();
+    if (firstReceived.putIfAbsent(uid, now) == null) {
+      latencies.add(now - node.path("time").asLong(now));
+      lastReceived.accumulateAndGet(now, Math::max);
+    }
+  }
+
+  /** Distinct events received. */
+  int received() {
+    return firstReceived.size();
+  }
+
+  /** Requests, including the ones that were failed on purpose. */
+  int requests() {
+    return requests.get();
+  }
+
+  /** Events received, counting each time an event was delivered again. */
+  int deliveries() {
+    return deliveries.get();
+  }
+
+  int errors() {
+    return errors.get();
+  }
+
+  int resets() {
+    return resets.get();
+  }
+
+  /** When the last new event arrived, in epoch millis, or 0. */
+  long lastReceived() {
+    return lastReceived.get();
+  }
+
+  /** Milliseconds from each event's time to its first arrival, sorted. */
+  List<Long> latencies() {
+    List<Long> sorted;
+    synchronized (latencies) {
+      sorted = new ArrayList<>(latencies);
+    }
+    Collections.sort(sorted);
+    return sorted;
+  }
+}
@@ -0,0 +1,112 @@
+package io.phasetwo.keycloak.events;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.common.collect.ImmutableMap;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import org.keycloak.Config;
+
+public class SenderExecutorsTest {
+
+  private static Config.Scope scope(Map<String, String> values) {
+    return (Config.Scope)
+        Proxy.newProxyInstance(
+            SenderExecutorsTest.class.getClassLoader(),
+            new Class<?>[] {Config.Scope.class},
+            (proxy, method, args) -> {
+              String value = values.get((String) args[0]);
+              if (value == null) return args.length > 1 ? args[1] : null;
+              if (method.getReturnType() == Integer.class) return Integer.valueOf(value);
+              if (method.getReturnType() == Long.class) return Long.valueOf(value);
+              return value;
+            });
+  }
+
+  @Test
+  public void platformIsTheDefault() throws Exception {
+    ScheduledExecutorService exec = SenderExecutors.create(scope(ImmutableMap.of()), "test");
+    try {
+      Thread thread = exec.schedule(Thread::currentThread, 10, TimeUnit.MILLISECONDS).get();
+      assertThat(thread.isVirtual(), is(false));
+      assertThat(thread.getName(), startsWith("test-"));
+    } finally {
+      SenderExecutors.shutdown(exec, 1000);
+    }
+  }
+
+  @Test
+  public void concurrencyIsThePoolSizeOrUnlimited() {
+    assertThat(
+        SenderExecutors.concurrency(scope(ImmutableMap.of())),
+        is(Runtime.getRuntime().availableProcessors()));
+    assertThat(SenderExecutors.concurrency(scope(ImmutableMap.of("executorThreads", "3"))), is(3));
+    assertThat(
+        SenderExecutors.concurrency(scope(ImmutableMap.of("executorMode", "virtual"))),
+        is(Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void virtualRunsEachTaskOnAVirtualThread() throws Exception {
+    ScheduledExecutorService exec =
+        SenderExecutors.create(
+            scope(ImmutableMap.of("executorMode", "virtual", "executorThreadName", "hooks")),
+            "test");
+    try {
+      ScheduledFuture<Thread> delayed =
+          exec.schedule(Thread::currentThread, 10, TimeUnit.MILLISECONDS);
+      Thread thread = delayed.get(5, TimeUnit.SECONDS);
+      assertThat(thread.isVirtual(), is(true));
+      assertThat(thread.getName(), startsWith("hooks-"));
+      assertThat(delayed.isDone(), is(true));
+
+      Thread submitted = exec.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+      assertThat(submitted.isVirtual(), is(true));
+    } finally {
+      SenderExecutors.shutdown(exec, 1000);
+    }
+    assertThat(exec.isTerminated(), is(true));
+  }
+
+  @Test
+  public void virtualRunsDelayedTasksDuringTheGracePeriod() throws Exception {
+    ScheduledExecutorService exec =
+        SenderExecutors.create(scope(ImmutableMap.of("executorMode", "virtual")), "test");
+    AtomicBoolean ran = new AtomicBoolean();
+    exec.schedule(() -> ran.set(true), 50, TimeUnit.MILLISECONDS);
+    SenderExecutors.shutdown(exec, 5000);
+    assertThat(ran.get(), is(true));
+    assertThat(exec.isTerminated(), is(true));
+    assertThrows(RejectedExecutionException.class, () -> exec.execute(() -> {}));
+  }
+
+  @Test
+  public void shutdownInterruptsAfterTheGracePeriod() throws Exception {
+    ScheduledExecutorService exec =
+        SenderExecutors.create(scope(ImmutableMap.of("executorMode", "virtual")), "test");
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    exec.execute(
+        () -> {
+          started.countDown();
+          try {
+            Thread.sleep(60_000);
+          } catch (InterruptedException e) {
+            interrupted.countDown();
+          }
+        });
+    assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+    SenderExecutors.shutdown(exec, 100);
+    assertThat(interrupted.await(5, TimeUnit.SECONDS), is(true));
+  }
+}
@@ -0,0 +1,243 @@
+package io.phasetwo.keycloak.events;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SenderQueueTest {
+
+  private ScheduledThreadPoolExecutor exec;
+  private CountDownLatch release;
+  private List<String> ran;
+  private List<String> rejected;
+  private List<String> stopped;
+
+  @BeforeEach
+  public void setup() {
+    exec = new ScheduledThreadPoolExecutor(4);
+    release = new CountDownLatch(1);
+    ran = new CopyOnWriteArrayList<>();
+    rejected = new CopyOnWriteArrayList<>();
+    stopped = new CopyOnWriteArrayList<>();
+  }
+
+  @AfterEach
+  public void teardown() {
+    release.countDown();
+    exec.shutdownNow();
+  }
+
+  /** A job that blocks until released. */
+  private SenderQueue.Job job(String name) {
+    return new SenderQueue.Job() {
+      @Override
+      public CompletableFuture<?> run() {
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        ran.add(name);
+        return null;
+      }
+
+      @Override
+      public void rejected(SenderQueue.Overflow policy, long delayMillis) {
+        rejected.add(name);
+      }
+
+      @Override
+      public boolean stopped(long delayMillis) {
+        stopped.add(name);
+        return !name.startsWith("drop");
+      }
+    };
+  }
+
+  private static void await(SenderQueue queue, String key, int inFlight) throws Exception {
+    for (int i = 0; i < 200 && queue.stats(key).getInFlight() != inFlight; i++) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void limitsJobsInFlightPerLane() throws Exception {
+    SenderQueue queue = new SenderQueue(exec, 100, 2, SenderQueue.Overflow.DROP_NEWEST);
+    for (int i = 0; i < 5; i++) queue.submit("w1", 0, job("j" + i));
+    await(queue, "w1", 2);
+    assertThat(queue.stats("w1").getInFlight(), is(2));
+    assertThat(queue.stats("w1").getDepth(), is(3));
+
+    release.countDown();
+    for (int i = 0; i < 200 && ran.size() < 5; i++) Thread.sleep(10);
+    assertThat(ran.size(), is(5));
+    assertThat(queue.size(), is(0));
+  }
+
+  @Test
+  public void dropsNewestWhenFull() throws Exception {
+    SenderQueue queue = new SenderQueue(exec, 2, 1, SenderQueue.Overflow.DROP_NEWEST);
+    queue.submit("w1", 0, job("running"));
+    await(queue, "w1", 1);
+    for (int i = 0; i < 4; i++) queue.submit("w1", 0, job("j" + i));
+
+    assertThat(rejected, equalTo(List.of("j2", "j3")));
+    assertThat(queue.stats("w1").getDepth(), is(2));
+    assertThat(queue.stats("w1").getDropped(), is(2L));
+  }
+
+  @Test
+  public void removesLaneOnceItIsEmpty() throws Exception {
+    SenderQueue queue = new SenderQueue(exec, 1, 1, SenderQueue.Overflow.DROP_NEWEST);
+    queue.submit("w1", 0, job("running"));
+    await(queue, "w1", 1);
+    queue.submit("w1", 0, job("waiting"));
+    queue.submit("w1", 0, job("dropped"));
+    assertThat(queue.stats("w1").getDropped(), is(1L));
+
+    // kept while it has jobs
+    queue.remove("w1");
+    assertThat(queue.stats("w1").getDropped(), is(1L));
+
+    release.countDown();
+    for (int i = 0; i < 200 && ran.size() < 2; i++) Thread.sleep(10);
+    for (int i = 0; i < 200 && queue.stats("w1").getDropped() != 0; i++) Thread.sleep(10);
+    assertThat(queue.stats("w1").getDropped(), is(0L));
+    assertThat(queue.size(), is(0));
+  }
+
+  @Test
+  public void dropsOldestWhenFull() throws Exception {
+    SenderQueue queue = new SenderQueue(exec, 2, 1, SenderQueue.Overflow.DROP_OLDEST);
+    queue.submit("w1", 0, job("running"));
+    await(queue, "w1", 1);
+    for (int i = 0; i < 4; i++) queue.submit("w1", 0, job("j" + i));
+
+    assertThat(rejected, equalTo(List.of("j0", "j1")));
+    release.countDown();
+    for (int i = 0; i < 200 && ran.size() < 3; i++) Thread.sleep(10);
+    assertThat(ran, equalTo(List.of("running", "j2", "j3")));
+  }
+
+  @Test
+  public void closeRunsReadyJobsAndStopsDelayedOnes() throws Exception {
+    SenderQueue queue = new SenderQueue(exec, 100, 1, SenderQueue.Overflow.DROP_NEWEST);
+    queue.submit("w1", 60000, job("d0"));
+    queue.submit("w2", 60000, job("drop0"));
+    queue.submit("w1", 0, job("j0"));
+    queue.submit("w1", 0, job("j1"));
+    await(queue, "w1", 1);
+    exec.schedule(release::countDown, 100, TimeUnit.MILLISECONDS);
+
+    SenderQueue.Drained drained = queue.close(5000);
+    assertThat(ran, equalTo(List.of("j0", "j1")));
+    assertThat(stopped, equalTo(List.of("d0", "drop0")));
+    assertThat(drained.getCompleted(), is(2));
+    assertThat(drained.getSaved(), is(1));
+    assertThat(drained.getDropped(), is(1));
+    assertThat(drained.getRunning(), is(0));
+    assertThat(queue.size(), is(0));
+
+    // a retry after the queue has closed is stopped straight away
+    queue.submit("w1", 1000, job("retry"));
+    assertThat(stopped, equalTo(List.of("d0", "drop0", "retry")));
+  }
+
+  @Test
+  public void closeStopsJobsNotStartedByTheDeadline() throws Exception {
+    SenderQueue queue = new SenderQueue(exec, 100, 1, SenderQueue.Overflow.DROP_NEWEST);
+    queue.submit("w1", 0, job("j0"));
+    queue.submit("w1", 0, job("j1"));
+    await(queue, "w1", 1);
+
+    SenderQueue.Drained drained = queue.close(100);
+    assertThat(stopped, equalTo(List.of("j1")));
+    assertThat(drained.getCompleted(), is(0));
+    assertThat(drained.getSaved(), is(1));
+    assertThat(drained.getRunning(), is(1));
+  }
+
+  @Test
+  public void countsDelayedJobsAgainstCapacity() throws Exception {
+    SenderQueue queue = new SenderQueue(exec, 2, 1, SenderQueue.Overflow.SPILL);
+    queue.submit("w1", 60000, job("d0"));
+    queue.submit("w1", 60000, job("d1"));
+    queue.submit("w1", 0, job("j0"));
+
+    assertThat(rejected, equalTo(List.of("j0")));
+    assertThat(queue.stats("w1").getDepth(), is(2));
+    assertThat(queue.stats("w1").getSpilled(), is(1L));
+    assertThat(queue.stats("w1").getDropped(), is(0L));
+  }
+
+  @Test
+  public void asyncJobsHoldTheirSlotUntilComplete() throws Exception {
+    SenderQueue queue = new SenderQueue(exec, 100, 1, SenderQueue.Overflow.DROP_NEWEST);
+    CompletableFuture<Void> response = new CompletableFuture<>();
+    CountDownLatch second = new CountDownLatch(1);
+    queue.submit(
+        "w1",
+        0,
+        new SenderQueue.Job() {
+          @Override
+          public CompletableFuture<?> run() {
+            return response;
+          }
+
+          @Override
+          public void rejected(SenderQueue.Overflow policy, long delayMillis) {}
+        });
+    queue.submit(
+        "w1",
+        0,
+        new SenderQueue.Job() {
+          @Override
+          public CompletableFuture<?> run() {
+            second.countDown();
+            return null;
+          }
+
+          @Override
+          public void rejected(SenderQueue.Overflow policy, long delayMillis) {}
+        });
+    assertThat(second.await(200, TimeUnit.MILLISECONDS), is(false));
+    assertThat(queue.stats("w1").getInFlight(), is(1));
+    response.complete(null);
+    assertThat(second.await(5, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void slowLaneDoesNotBlockOthers() throws Exception {
+    SenderQueue queue = new SenderQueue(exec, 100, 1, SenderQueue.Overflow.DROP_NEWEST);
+    for (int i = 0; i < 10; i++) queue.submit("slow", 0, job("s" + i));
+    CountDownLatch fast = new CountDownLatch(3);
+    for (int i = 0; i < 3; i++) {
+      queue.submit(
+          "fast",
+          0,
+          new SenderQueue.Job() {
+            @Override
+            public CompletableFuture<?> run() {
+              fast.countDown();
+              return null;
+            }
+
+            @Override
+            public void rejected(SenderQueue.Overflow policy, long delayMillis) {}
+          });
+    }
+    assertThat(fast.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(queue.stats("slow").getInFlight(), is(1));
+    assertThat(queue.stats("slow").getDepth(), is(9));
+  }
+}
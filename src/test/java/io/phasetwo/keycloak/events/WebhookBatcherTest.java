@@ -0,0 +1,112 @@
+package io.phasetwo.keycloak.events;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import io.phasetwo.keycloak.representation.ExtendedAdminEvent;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class WebhookBatcherTest {
+
+  private ScheduledThreadPoolExecutor exec;
+  private WebhookBatcher batcher;
+  private List<List<ExtendedAdminEvent>> flushed;
+  private Consumer<List<ExtendedAdminEvent>> flusher;
+
+  @BeforeEach
+  public void setup() {
+    exec = new ScheduledThreadPoolExecutor(1);
+    batcher = new WebhookBatcher(exec);
+    flushed = new CopyOnWriteArrayList<>();
+    flusher = flushed::add;
+  }
+
+  @AfterEach
+  public void teardown() {
+    exec.shutdownNow();
+  }
+
+  private static ExtendedAdminEvent event(String id) {
+    ExtendedAdminEvent event = new ExtendedAdminEvent();
+    event.setId(id);
+    event.setType("access.LOGIN");
+    return event;
+  }
+
+  @Test
+  public void flushesWhenBatchSizeIsReached() {
+    batcher.add("w1", 3, 0, 60000, event("1"), 0, flusher);
+    batcher.add("w1", 3, 0, 60000, event("2"), 0, flusher);
+    assertThat(flushed.size(), is(0));
+    assertThat(batcher.size(), is(2));
+
+    batcher.add("w1", 3, 0, 60000, event("3"), 0, flusher);
+    assertThat(flushed.size(), is(1));
+    assertThat(flushed.get(0).size(), is(3));
+    assertThat(flushed.get(0).get(0).getId(), equalTo("1"));
+    assertThat(flushed.get(0).get(2).getId(), equalTo("3"));
+    assertThat(batcher.size(), is(0));
+  }
+
+  @Test
+  public void flushesBeforeExceedingByteLimit() {
+    batcher.add("w1", 100, 250, 60000, event("1"), 100, flusher);
+    batcher.add("w1", 100, 250, 60000, event("2"), 100, flusher);
+    assertThat(flushed.size(), is(0));
+
+    // would make 300 bytes, so the first two are sent and this one starts a new batch
+    batcher.add("w1", 100, 250, 60000, event("3"), 100, flusher);
+    assertThat(flushed.size(), is(1));
+    assertThat(flushed.get(0).size(), is(2));
+    assertThat(batcher.size(), is(1));
+  }
+
+  @Test
+  public void keepsSeparateBatchesPerKey() {
+    batcher.add("w1", 2, 0, 60000, event("1"), 0, flusher);
+    batcher.add("w2", 2, 0, 60000, event("2"), 0, flusher);
+    assertThat(flushed.size(), is(0));
+
+    batcher.add("w1", 2, 0, 60000, event("3"), 0, flusher);
+    assertThat(flushed.size(), is(1));
+    assertThat(flushed.get(0).get(1).getId(), equalTo("3"));
+    assertThat(batcher.size(), is(1));
+  }
+
+  @Test
+  public void flushesAfterLingerTime() throws Exception {
+    CountDownLatch latch = new CountDownLatch(1);
+    batcher.add(
+        "w1",
+        100,
+        0,
+        50,
+        event("1"),
+        0,
+        events -> {
+          flushed.add(events);
+          latch.countDown();
+        });
+    assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(flushed.size(), is(1));
+    assertThat(flushed.get(0).size(), is(1));
+  }
+
+  @Test
+  public void flushAllSendsOpenBatches() {
+    batcher.add("w1", 100, 0, 60000, event("1"), 0, flusher);
+    batcher.add("w2", 100, 0, 60000, event("2"), 0, flusher);
+    batcher.flushAll();
+    assertThat(flushed.size(), is(2));
+    assertThat(batcher.size(), is(0));
+  }
+}
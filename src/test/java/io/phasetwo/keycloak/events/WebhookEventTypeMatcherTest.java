@@ -0,0 +1,62 @@
+package io.phasetwo.keycloak.events;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+
+public class WebhookEventTypeMatcherTest {
+
+  private static WebhookEventTypeMatcher matcher(String... types) {
+    return WebhookEventTypeMatcher.compile(ImmutableSet.copyOf(types));
+  }
+
+  @Test
+  public void wildcardMatchesEverything() {
+    WebhookEventTypeMatcher m = matcher("*");
+    assertThat(m.matches("access.LOGIN"), is(true));
+    assertThat(m.matches("admin.USER-CREATE"), is(true));
+    assertThat(m.matches("system.anything"), is(true));
+  }
+
+  @Test
+  public void exactTypes() {
+    WebhookEventTypeMatcher m = matcher("access.LOGIN", "admin.USER-CREATE");
+    assertThat(m.matches("access.LOGIN"), is(true));
+    assertThat(m.matches("admin.USER-CREATE"), is(true));
+    assertThat(m.matches("access.LOGOUT"), is(false));
+    assertThat(m.matches("access.LOGIN_ERROR"), is(false));
+  }
+
+  @Test
+  public void prefixWildcards() {
+    WebhookEventTypeMatcher m = matcher("access.*", "system.*");
+    assertThat(m.matches("access.LOGIN"), is(true));
+    assertThat(m.matches("system.custom"), is(true));
+    assertThat(m.matches("admin.USER-CREATE"), is(false));
+  }
+
+  @Test
+  public void regularExpressions() {
+    WebhookEventTypeMatcher m = matcher("admin\\.(USER|GROUP)-.*", "access\\.LOGIN(_ERROR)?");
+    assertThat(m.matches("admin.USER-CREATE"), is(true));
+    assertThat(m.matches("admin.GROUP-DELETE"), is(true));
+    assertThat(m.matches("admin.CLIENT-CREATE"), is(false));
+    assertThat(m.matches("access.LOGIN"), is(true));
+    assertThat(m.matches("access.LOGIN_ERROR"), is(true));
+    assertThat(m.matches("access.LOGOUT"), is(false));
+  }
+
+  @Test
+  public void invalidPatternsMatchExactly() {
+    WebhookEventTypeMatcher m = matcher("system.[broken");
+    assertThat(m.matches("system.[broken"), is(true));
+    assertThat(m.matches("system.b"), is(false));
+  }
+
+  @Test
+  public void noTypesMatchNothing() {
+    assertThat(matcher().matches("access.LOGIN"), is(false));
+  }
+}
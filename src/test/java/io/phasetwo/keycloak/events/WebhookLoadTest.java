@@ -0,0 +1,220 @@
+package io.phasetwo.keycloak.events;
+
+import static io.phasetwo.keycloak.Helpers.createWebhook;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.phasetwo.keycloak.resources.AbstractResourceTest;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.jbosslog.JBossLog;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.keycloak.broker.provider.util.LegacySimpleHttp;
+import org.keycloak.representations.idm.CredentialRepresentation;
+import org.keycloak.representations.idm.RealmRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+
+/**
+ * Throughput of webhook delivery from a running Keycloak. Drives logins and user creations at a
+ * fixed rate in a realm of its own, sends their events to a {@link LoadReceiver}, and reports the
+ * events delivered per second, the latency from each event to its arrival, the retries the sender
+ * counted in its {@value EventMetrics#RETRIES} meter and the events that never arrived.
+ *
+ * <p>Only runs when asked for, e.g. {@code mvn test -Dtest=WebhookLoadTest -DloadTest=true
+ * -DloadTest.rate=100}. The {@code loadTest.*} properties are read in {@link #load()}.
+ */
+@JBossLog
+@EnabledIfSystemProperty(named = "loadTest", matches = "true")
+public class WebhookLoadTest extends AbstractResourceTest {
+
+  static final String LOAD_REALM = "loadRealm";
+  static final String LOAD_USER = "load-user";
+  static final String LOAD_PASSWORD = "load-password";
+
+  @Test
+  public void load() throws Exception {
+    int rate = Integer.getInteger("loadTest.rate", 20);
+    int seconds = Integer.getInteger("loadTest.seconds", 30);
+    int workers = Integer.getInteger("loadTest.workers", 16);
+    long latencyMillis = Long.getLong("loadTest.latencyMillis", 0);
+    double errorRate = Double.parseDouble(System.getProperty("loadTest.errorRate", "0"));
+    double resetRate = Double.parseDouble(System.getProperty("loadTest.resetRate", "0"));
+    int drainSeconds = Integer.getInteger("loadTest.drainSeconds", 120);
+    int maxLost = Integer.getInteger("loadTest.maxLost", 0);
+
+    CloseableHttpClient httpClient =
+        HttpClients.custom().setMaxConnTotal(workers * 2).setMaxConnPerRoute(workers * 2).build();
+    LoadReceiver receiver =
+        new LoadReceiver(WEBHOOK_SERVER_PORT, workers, latencyMillis, errorRate, resetRate);
+    receiver.start();
+    createRealm();
+    double retriesBefore = retries(httpClient);
+    ScheduledExecutorService ticks = Executors.newSingleThreadScheduledExecutor();
+    ExecutorService ops = Executors.newFixedThreadPool(workers);
+    try {
+      createWebhook(
+          keycloak,
+          httpClient,
+          getAuthUrl() + "/realms/" + LOAD_REALM + "/webhooks",
+          "http://host.testcontainers.internal:" + WEBHOOK_SERVER_PORT + "/webhook",
+          "load-secret",
+          ImmutableSet.of("access.LOGIN", "admin.USER-CREATE"));
+
+      // each successful operation causes exactly one event the webhook is subscribed to
+      AtomicInteger issued = new AtomicInteger();
+      AtomicInteger succeeded = new AtomicInteger();
+      long start = System.currentTimeMillis();
+      ticks.scheduleAtFixedRate(
+          () -> {
+            int n = issued.incrementAndGet();
+            ops.execute(
+                () -> {
+                  if (operation(httpClient, n)) succeeded.incrementAndGet();
+                });
+          },
+          0,
+          TimeUnit.SECONDS.toNanos(1) / rate,
+          TimeUnit.NANOSECONDS);
+      Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+      ticks.shutdownNow();
+      ops.shutdown();
+      ops.awaitTermination(drainSeconds, TimeUnit.SECONDS);
+
+      long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(drainSeconds);
+      while (receiver.received() < succeeded.get() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(250);
+      }
+
+      int expected = succeeded.get();
+      int lost = expected - receiver.received();
+      long elapsed = Math.max(1, receiver.lastReceived() - start);
+      long retried = Math.round(retries(httpClient) - retriesBefore);
+      List<Long> latencies = receiver.latencies();
+      log.infof(
+          "Load: %d operations at %d/s for %ds, %d succeeded%n"
+              + "  delivered %d of %d events, %.1f events/s, %d lost%n"
+              + "  latency ms p50 %d, p95 %d, p99 %d, max %d%n"
+              + "  %d requests, %d answered 503, %d retried, %d dropped and not retried,"
+              + " %d delivered twice",
+          issued.get(),
+          rate,
+          seconds,
+          expected,
+          receiver.received(),
+          expected,
+          receiver.received() * 1000.0 / elapsed,
+          lost,
+          percentile(latencies, 50),
+          percentile(latencies, 95),
+          percentile(latencies, 99),
+          percentile(latencies, 100),
+          receiver.requests(),
+          receiver.errors(),
+          retried,
+          receiver.resets(),
+          receiver.deliveries() - receiver.received());
+      assertThat("events lost", lost <= maxLost, is(true));
+    } finally {
+      ticks.shutdownNow();
+      ops.shutdownNow();
+      receiver.stop();
+      try {
+        keycloak.realm(LOAD_REALM).remove();
+      } catch (Exception e) {
+        log.warnf("cleanup: failed to remove realm %s: %s", LOAD_REALM, e.getMessage());
+      }
+      httpClient.close();
+    }
+  }
+
+  /** A login as the load user on even operations, and a user creation on odd ones. */
+  private boolean operation(CloseableHttpClient httpClient, int n) {
+    try {
+      if (n % 2 == 0) {
+        return LegacySimpleHttp.doPost(
+                    getAuthUrl() + "/realms/" + LOAD_REALM + "/protocol/openid-connect/token",
+                    httpClient)
+                .param("grant_type", "password")
+                .param("client_id", ADMIN_CLI)
+                .param("username", LOAD_USER)
+                .param("password", LOAD_PASSWORD)
+                .asStatus()
+            == 200;
+      }
+      UserRepresentation user = new UserRepresentation();
+      user.setUsername("load-" + n);
+      user.setEnabled(true);
+      return LegacySimpleHttp.doPost(
+                  getAuthUrl() + "/admin/realms/" + LOAD_REALM + "/users", httpClient)
+              .auth(keycloak.tokenManager().getAccessTokenString())
+              .json(user)
+              .asStatus()
+          == 201;
+    } catch (Exception e) {
+      log.debugf("operation %d failed: %s", n, e.getMessage());
+      return false;
+    }
+  }
+
+  private static void createRealm() {
+    // the container is reused, so a failed run may have left it behind
+    try {
+      keycloak.realm(LOAD_REALM).remove();
+    } catch (Exception e) {
+      // not there
+    }
+    RealmRepresentation realm = new RealmRepresentation();
+    realm.setRealm(LOAD_REALM);
+    realm.setEnabled(true);
+    realm.setEventsEnabled(true);
+    realm.setAdminEventsEnabled(true);
+    realm.setEventsListeners(ImmutableList.of("ext-event-webhook"));
+    keycloak.realms().create(realm);
+
+    CredentialRepresentation password = new CredentialRepresentation();
+    password.setType(CredentialRepresentation.PASSWORD);
+    password.setValue(LOAD_PASSWORD);
+    password.setTemporary(false);
+    UserRepresentation user = new UserRepresentation();
+    user.setUsername(LOAD_USER);
+    user.setEnabled(true);
+    user.setFirstName("Load");
+    user.setLastName("User");
+    user.setEmail("load-user@example.com");
+    user.setEmailVerified(true);
+    user.setCredentials(ImmutableList.of(password));
+    assertThat(keycloak.realm(LOAD_REALM).users().create(user).getStatus(), is(201));
+  }
+
+  /**
+   * The sender's retries so far, summed over the {@value EventMetrics#RETRIES} counters that
+   * Keycloak exposes on its management port, as the container is started with metrics enabled.
+   */
+  private static double retries(CloseableHttpClient httpClient) throws Exception {
+    String name = EventMetrics.RETRIES.replace('.', '_') + "_total";
+    String metrics =
+        LegacySimpleHttp.doGet(container.getMgmtServerUrl() + "/metrics", httpClient).asString();
+    double retries = 0;
+    for (String line : metrics.split("\n")) {
+      if (line.startsWith(name + "{") || line.startsWith(name + " ")) {
+        retries += Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+      }
+    }
+    return retries;
+  }
+
+  private static long percentile(List<Long> sorted, int p) {
+    if (sorted.isEmpty()) return 0;
+    int i = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+    return sorted.get(Math.max(0, Math.min(i, sorted.size() - 1)));
+  }
+}
@@ -0,0 +1,107 @@
+package io.phasetwo.keycloak.events;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import io.phasetwo.keycloak.model.KeycloakEventType;
+import io.phasetwo.keycloak.model.WebhookRecord;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class WebhookRecorderTest {
+
+  private ScheduledThreadPoolExecutor exec;
+  private List<List<Object>> written;
+
+  @BeforeEach
+  public void setup() {
+    exec = new ScheduledThreadPoolExecutor(1);
+    written = new CopyOnWriteArrayList<>();
+  }
+
+  @AfterEach
+  public void teardown() {
+    exec.shutdownNow();
+  }
+
+  private static List<String> ids(List<Object> batch) {
+    return batch.stream().map(r -> ((WebhookRecord.Event) r).getId()).collect(Collectors.toList());
+  }
+
+  @Test
+  public void writesInBatchesOnStop() throws Exception {
+    WebhookRecorder recorder = new WebhookRecorder(60000, 3, 100);
+    recorder.start(written::add, exec);
+    recorder.event("r1", KeycloakEventType.USER, "e0", null);
+    recorder.payload("r1", "h0", "{}");
+    recorder.send(
+        "r1", "w1", KeycloakEventType.USER, "e0", "s0", "access.LOGIN", 200, new Date(), "h0");
+    // a full batch is written straight away
+    for (int i = 0; i < 200 && written.isEmpty(); i++) Thread.sleep(10);
+    assertThat(written.size(), is(1));
+    assertThat(written.get(0).get(0) instanceof WebhookRecord.Event, is(true));
+    assertThat(written.get(0).get(1) instanceof WebhookRecord.Payload, is(true));
+    assertThat(written.get(0).get(2) instanceof WebhookRecord.Send, is(true));
+
+    recorder.event("r1", KeycloakEventType.USER, "e1", null);
+    recorder.stop();
+    assertThat(written.size(), is(2));
+    assertThat(ids(written.get(1)), equalTo(List.of("e1")));
+    assertThat(recorder.size(), is(0));
+  }
+
+  @Test
+  public void writesOnTheCallingThreadWhenFull() throws Exception {
+    // batches are never full, so nothing is written in the background
+    WebhookRecorder recorder = new WebhookRecorder(60000, 100, 2);
+    recorder.start(written::add, exec);
+    recorder.event("r1", KeycloakEventType.USER, "e0", null);
+    recorder.event("r1", KeycloakEventType.USER, "e1", null);
+    assertThat(written.size(), is(0));
+    recorder.event("r1", KeycloakEventType.USER, "e2", null);
+    assertThat(written.size(), is(1));
+    assertThat(ids(written.get(0)), equalTo(List.of("e0", "e1")));
+    assertThat(recorder.size(), is(1));
+  }
+
+  @Test
+  public void writesRecordsOneAtATimeWhenABatchFails() throws Exception {
+    WebhookRecorder recorder = new WebhookRecorder(60000, 100, 100);
+    recorder.start(
+        (batch) -> {
+          if (batch.size() > 1 || ids(batch).contains("bad")) {
+            throw new IllegalStateException("constraint violation");
+          }
+          written.add(batch);
+        },
+        exec);
+    recorder.event("r1", KeycloakEventType.USER, "e0", null);
+    recorder.event("r1", KeycloakEventType.USER, "bad", null);
+    recorder.event("r1", KeycloakEventType.USER, "e1", null);
+    recorder.stop();
+    assertThat(
+        written.stream().flatMap(b -> ids(b).stream()).collect(Collectors.toList()),
+        equalTo(List.of("e0", "e1")));
+  }
+
+  @Test
+  public void detectsConstraintViolations() {
+    SQLException duplicate = new SQLException("duplicate key", "23505");
+    assertThat(
+        WebhookRecord.isConstraintViolation(
+            new RuntimeException(new IllegalStateException(duplicate))),
+        is(true));
+    assertThat(
+        WebhookRecord.isConstraintViolation(new SQLException("connection reset", "08006")),
+        is(false));
+    assertThat(WebhookRecord.isConstraintViolation(new IllegalStateException()), is(false));
+  }
+}
@@ -0,0 +1,52 @@
+package io.phasetwo.keycloak.events;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class WebhookRetentionTest {
+
+  @Test
+  public void removesChunksUntilOneIsNotFull() {
+    Queue<Integer> chunks = new ArrayDeque<>(List.of(10, 10, 3, 10));
+    long removed = WebhookRetention.inChunks(10, chunks::remove, () -> false);
+    assertThat(removed, is(23L));
+    assertThat(chunks.size(), is(1));
+  }
+
+  @Test
+  public void stopsBetweenChunks() {
+    AtomicInteger calls = new AtomicInteger();
+    long removed =
+        WebhookRetention.inChunks(
+            10,
+            () -> {
+              calls.incrementAndGet();
+              return 10;
+            },
+            () -> calls.get() >= 2);
+    assertThat(removed, is(20L));
+    assertThat(calls.get(), is(2));
+  }
+
+  @Test
+  public void usesTheDefaultForMissingOrInvalidSettings() {
+    assertThat(WebhookRetention.parse(null, 5, "a", "r"), is(5L));
+    assertThat(WebhookRetention.parse(" ", 5, "a", "r"), is(5L));
+    assertThat(WebhookRetention.parse("1 day", 5, "a", "r"), is(5L));
+    assertThat(WebhookRetention.parse(" 86400000 ", 5, "a", "r"), is(86400000L));
+    assertThat(WebhookRetention.parse("0", 5, "a", "r"), is(0L));
+  }
+
+  @Test
+  public void keepsUnsentEventsForTheRealmsMaxAgeAndPendingDeliveries() {
+    assertThat(WebhookRetention.unsentMaxAge(0, 86400000), is(0L));
+    assertThat(WebhookRetention.unsentMaxAge(2592000000L, 86400000), is(2592000000L));
+    assertThat(WebhookRetention.unsentMaxAge(3600000, 86400000), is(86400000L));
+  }
+}
@@ -0,0 +1,103 @@
+package io.phasetwo.keycloak.events;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import io.phasetwo.keycloak.events.WebhookJwtSigner.RealmSigner;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.crypto.Algorithm;
+import org.keycloak.crypto.AsymmetricSignatureSignerContext;
+import org.keycloak.crypto.KeyUse;
+import org.keycloak.crypto.KeyWrapper;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.representations.JsonWebToken;
+
+public class WebhookSignersTest {
+
+  private KeyPair keys;
+  private RealmSigner signer;
+  private final AtomicInteger loads = new AtomicInteger();
+
+  @BeforeEach
+  public void setup() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    keys = generator.generateKeyPair();
+    KeyWrapper key = new KeyWrapper();
+    key.setKid("kid-1");
+    key.setAlgorithm(Algorithm.RS256);
+    key.setUse(KeyUse.SIG);
+    key.setPrivateKey(keys.getPrivate());
+    key.setPublicKey(keys.getPublic());
+    signer =
+        new RealmSigner(
+            new AsymmetricSignatureSignerContext(key), "https://kc.example.com/realms/r1");
+  }
+
+  private RealmSigner load() {
+    loads.incrementAndGet();
+    return signer;
+  }
+
+  @Test
+  public void loadsEachRealmAndAlgorithmOnce() {
+    WebhookSigners signers = new WebhookSigners(60, 100);
+    assertThat(signers.get("r1", "RS256", null, this::load), sameInstance(signer));
+    assertThat(signers.get("r1", "RS256", null, this::load), sameInstance(signer));
+    assertThat(loads.get(), is(1));
+    signers.get("r1", "ES256", null, this::load);
+    signers.get("r2", "RS256", null, this::load);
+    signers.get("r1", "RS256", "https://other.example.com/", this::load);
+    assertThat(loads.get(), is(4));
+  }
+
+  @Test
+  public void doesNotCacheMissingKeys() {
+    WebhookSigners signers = new WebhookSigners(60, 100);
+    assertThat(signers.get("r1", "RS256", null, () -> null), nullValue());
+    assertThat(signers.size(), is(0L));
+    assertThat(signers.get("r1", "RS256", null, this::load), sameInstance(signer));
+  }
+
+  @Test
+  public void invalidatesAllOfARealmsSigners() {
+    WebhookSigners signers = new WebhookSigners(60, 100);
+    signers.get("r1", "RS256", null, this::load);
+    signers.get("r1", "ES256", null, this::load);
+    signers.get("r2", "RS256", null, this::load);
+    signers.invalidate("r1");
+    assertThat(signers.size(), is(1L));
+    signers.get("r2", "RS256", null, this::load);
+    signers.get("r1", "RS256", null, this::load);
+    assertThat(loads.get(), is(4));
+  }
+
+  @Test
+  public void signsWithALoadedSigner() throws Exception {
+    byte[] body = "{\"type\":\"access.LOGIN\"}".getBytes(StandardCharsets.UTF_8);
+    String jwt = WebhookJwtSigner.sign(signer, "https://receiver.example.com", body);
+
+    JWSInput input = new JWSInput(jwt);
+    assertThat(input.getHeader().getKeyId(), is("kid-1"));
+    assertThat(input.getHeader().getAlgorithm().name(), is("RS256"));
+    Signature verifier = Signature.getInstance("SHA256withRSA");
+    verifier.initVerify(keys.getPublic());
+    verifier.update(input.getEncodedSignatureInput().getBytes(StandardCharsets.UTF_8));
+    assertThat(verifier.verify(input.getSignature()), is(true));
+
+    JsonWebToken token = input.readJsonContent(JsonWebToken.class);
+    assertThat(token.getIssuer(), is("https://kc.example.com/realms/r1"));
+    assertThat(token.getAudience()[0], is("https://receiver.example.com"));
+    assertThat(
+        token.getOtherClaims().get(WebhookJwtSigner.BODY_HASH_CLAIM),
+        is(WebhookJwtSigner.sha256Hex(body)));
+  }
+}
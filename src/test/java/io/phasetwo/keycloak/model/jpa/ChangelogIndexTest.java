@@ -0,0 +1,171 @@
+package io.phasetwo.keycloak.model.jpa;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Checks that the lookups of the named queries on the large webhook tables are served by an index
+ * whose leading columns match their filters, so that they do not scan the table. Only indexes of
+ * changesets without preconditions are counted, as the others are not created on every database.
+ * Lookups that are served by a unique index where it could be created, and by a fallback index
+ * where it could not, are checked for both.
+ */
+public class ChangelogIndexTest {
+
+  private static final String MAIN = "META-INF/jpa-changelog-events-main.xml";
+
+  /** Index columns by table, from every createIndex of an unconditional changeset. */
+  private static final Map<String, List<List<String>>> indexes = new HashMap<>();
+
+  /** Columns of the fallback indexes, by the unique index whose absence they are created on. */
+  private static final Map<String, List<String>> fallbacks = new HashMap<>();
+
+  /** Databases each unique index is created on, by its name. */
+  private static final Map<String, Set<String>> uniqueDbms = new HashMap<>();
+
+  /** Columns of each unique constraint, by its name. */
+  private static final Map<String, List<String>> uniqueColumns = new HashMap<>();
+
+  private static final Pattern CREATE_UNIQUE_INDEX =
+      Pattern.compile("CREATE UNIQUE INDEX (\\w+) ON");
+
+  private static final Set<String> changeSetIds = new HashSet<>();
+  private static boolean duplicateIds = false;
+
+  @BeforeAll
+  public static void parse() throws Exception {
+    for (Element include : elements(read(MAIN), "include")) {
+      Document changelog = read(include.getAttribute("file"));
+      for (Element changeSet : elements(changelog, "changeSet")) {
+        if (!changeSetIds.add(changeSet.getAttribute("id"))) duplicateIds = true;
+        uniques(changeSet);
+        if (!elements(changeSet, "preConditions").isEmpty()) {
+          fallback(changeSet);
+          continue;
+        }
+        for (Element index : elements(changeSet, "createIndex")) {
+          List<String> columns = new ArrayList<>();
+          for (Element column : elements(index, "column")) columns.add(column.getAttribute("name"));
+          indexes
+              .computeIfAbsent(index.getAttribute("tableName"), t -> new ArrayList<>())
+              .add(columns);
+        }
+      }
+    }
+  }
+
+  /** Record the unique indexes a changeset creates, and on which databases. */
+  private static void uniques(Element changeSet) {
+    Set<String> dbms = Set.of(changeSet.getAttribute("dbms").split(",\\s*"));
+    for (Element unique : elements(changeSet, "addUniqueConstraint")) {
+      String name = unique.getAttribute("constraintName");
+      uniqueDbms.computeIfAbsent(name, n -> new HashSet<>()).addAll(dbms);
+      uniqueColumns.put(name, List.of(unique.getAttribute("columnNames").split(",\\s*")));
+    }
+    for (Element sql : elements(changeSet, "sql")) {
+      Matcher m = CREATE_UNIQUE_INDEX.matcher(sql.getTextContent());
+      while (m.find()) uniqueDbms.computeIfAbsent(m.group(1), n -> new HashSet<>()).addAll(dbms);
+    }
+  }
+
+  /** Record the index of a changeset that only runs where a unique index does not exist. */
+  private static void fallback(Element changeSet) {
+    List<Element> conditions = elements(changeSet, "indexExists");
+    List<Element> indexes = elements(changeSet, "createIndex");
+    if (conditions.size() != 1 || indexes.size() != 1) return;
+    if (!"not".equals(conditions.get(0).getParentNode().getNodeName())) return;
+    List<String> columns = new ArrayList<>();
+    for (Element column : elements(indexes.get(0), "column")) {
+      columns.add(column.getAttribute("name"));
+    }
+    fallbacks.put(conditions.get(0).getAttribute("indexName"), columns);
+  }
+
+  private static Document read(String resource) throws Exception {
+    try (InputStream in = ChangelogIndexTest.class.getClassLoader().getResourceAsStream(resource)) {
+      return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+    }
+  }
+
+  private static List<Element> elements(Document doc, String name) {
+    return elements(doc.getElementsByTagName(name));
+  }
+
+  private static List<Element> elements(Element parent, String name) {
+    return elements(parent.getElementsByTagName(name));
+  }
+
+  private static List<Element> elements(NodeList nodes) {
+    List<Element> elements = new ArrayList<>();
+    for (int i = 0; i < nodes.getLength(); i++) elements.add((Element) nodes.item(i));
+    return elements;
+  }
+
+  @Test
+  public void changeSetIdsAreUnique() {
+    assertThat(duplicateIds, is(false));
+  }
+
+  @Test
+  public void sendsByWebhookAreIndexedInSentOrder() {
+    // getWebhookSendsByWebhook: WHERE WEBHOOK_ID = ? ORDER BY SENT_AT DESC, ID DESC
+    // getWebhookSendsByWebhookAfter: ... AND SENT_AT <= ? AND (SENT_AT < ? OR ID < ?)
+    assertThat(indexes.get("WEBHOOK_SEND"), hasItem(List.of("WEBHOOK_ID", "SENT_AT", "ID")));
+  }
+
+  @Test
+  public void sendsByEventAreIndexedInSentOrder() {
+    // getWebhookSendsByEvent: WHERE WEBHOOK_EVENT_ID = ? ORDER BY SENT_AT DESC
+    assertThat(indexes.get("WEBHOOK_SEND"), hasItem(List.of("WEBHOOK_EVENT_ID", "SENT_AT")));
+  }
+
+  @Test
+  public void eventsAreIndexedByStoreTime() {
+    // getUnsentWebhookEventIds: WHERE REALM_ID = ? AND CREATED_AT < ?
+    assertThat(indexes.get("WEBHOOK_EVENT"), hasItem(List.of("REALM_ID", "CREATED_AT")));
+  }
+
+  @Test
+  public void sendsAndPayloadsAreIndexedForPayloadRetention() {
+    // getUnsentWebhookPayloadHashes: WHERE REALM_ID = ? AND CREATED_AT < ? AND NOT EXISTS (a send)
+    assertThat(indexes.get("WEBHOOK_PAYLOAD"), hasItem(List.of("REALM_ID", "CREATED_AT")));
+    assertThat(indexes.get("WEBHOOK_SEND"), hasItem(List.of("PAYLOAD_HASH")));
+  }
+
+  @Test
+  public void eventsAreIndexedByEventIdWithOrWithoutTheUniqueIndex() {
+    // getWebhookEventByEventId: WHERE REALM_ID = ? AND EVENT_TYPE = 'USER' AND EVENT_ID = ?
+    eventLookupIsIndexed("UK_WEBHOOK_EVENT_EVENT_ID", "EVENT_ID");
+    // getWebhookEventByAdminEventId: ... AND EVENT_TYPE = 'ADMIN' AND ADMIN_EVENT_ID = ?
+    eventLookupIsIndexed("UK_WEBHOOK_EVENT_ADMIN_EVENT_ID", "ADMIN_EVENT_ID");
+  }
+
+  /**
+   * The unique index on (REALM_ID, id) is created on every supported database, and where it could
+   * not be, e.g. while there are duplicates, the fallback index on (REALM_ID, EVENT_TYPE, id) is.
+   */
+  private static void eventLookupIsIndexed(String unique, String column) {
+    assertThat(
+        uniqueDbms.get(unique),
+        is(Set.of("postgresql", "cockroachdb", "mysql", "mariadb", "h2", "mssql", "oracle")));
+    assertThat(uniqueColumns.get(unique), is(List.of("REALM_ID", column)));
+    assertThat(fallbacks.get(unique), is(List.of("REALM_ID", "EVENT_TYPE", column)));
+  }
+}
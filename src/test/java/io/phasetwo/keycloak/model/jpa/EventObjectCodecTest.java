@@ -0,0 +1,53 @@
+package io.phasetwo.keycloak.model.jpa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.phasetwo.keycloak.model.jpa.entity.WebhookEventEntity;
+import org.junit.jupiter.api.Test;
+
+public class EventObjectCodecTest {
+
+  private static final String SMALL = "{\"type\":\"LOGIN\"}";
+
+  private static String large() {
+    StringBuilder json = new StringBuilder("{\"representation\":[");
+    for (int i = 0; i < 1000; i++) json.append(i == 0 ? "" : ",").append("{\"enabled\":true}");
+    return json.append("]}").toString();
+  }
+
+  @Test
+  public void compressesLargeObjects() {
+    WebhookEventEntity e = new WebhookEventEntity();
+    EventObjectCodec.deflate(1024).write(e, large());
+    assertThat(e.getEventObject(), nullValue());
+    assertThat(e.getEventObjectCodec(), is(EventObjectCodec.DEFLATE));
+    assertThat(e.getEventObjectCompressed().length, lessThan(large().length() / 10));
+    assertThat(EventObjectCodec.read(e), is(large()));
+  }
+
+  @Test
+  public void storesSmallObjectsAsJson() {
+    WebhookEventEntity e = new WebhookEventEntity();
+    EventObjectCodec.deflate(1024).write(e, SMALL);
+    assertThat(e.getEventObject(), is(SMALL));
+    assertThat(e.getEventObjectCodec(), nullValue());
+    assertThat(EventObjectCodec.read(e), is(SMALL));
+
+    EventObjectCodec.NONE.write(e, large());
+    assertThat(e.getEventObject(), is(large()));
+    assertThat(e.getEventObjectCompressed(), nullValue());
+    assertThat(EventObjectCodec.read(e), is(large()));
+  }
+
+  @Test
+  public void rejectsUnknownCodecs() {
+    WebhookEventEntity e = new WebhookEventEntity();
+    e.setId("e1");
+    e.setEventObjectCodec("zstd");
+    assertThrows(IllegalStateException.class, () -> EventObjectCodec.read(e));
+  }
+}
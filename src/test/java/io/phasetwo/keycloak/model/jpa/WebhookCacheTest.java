@@ -0,0 +1,213 @@
+package io.phasetwo.keycloak.model.jpa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import io.phasetwo.keycloak.model.WebhookModel;
+import io.phasetwo.keycloak.model.jpa.entity.WebhookRevisionEntity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakTransaction;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+
+public class WebhookCacheTest {
+
+  private final AtomicLong now = new AtomicLong(1000);
+  private final AtomicInteger loads = new AtomicInteger();
+  private final AtomicInteger checks = new AtomicInteger();
+
+  @Test
+  public void trustsEntryUntilCheckIsDue() {
+    WebhookCache cache = new WebhookCache(60000, 5000, 10, now::get);
+    RealmModel realm = realm("r1");
+
+    List<WebhookModel> first = cache.get(realm, () -> check("a"), this::load);
+    now.addAndGet(4999);
+    List<WebhookModel> second = cache.get(realm, () -> check("b"), this::load);
+    assertThat(second, sameInstance(first));
+    assertThat(checks.get(), is(1));
+    assertThat(loads.get(), is(1));
+  }
+
+  @Test
+  public void reloadsWhenRevisionChanges() {
+    WebhookCache cache = new WebhookCache(60000, 5000, 10, now::get);
+    RealmModel realm = realm("r1");
+
+    cache.get(realm, () -> check("a"), this::load);
+    now.addAndGet(5000);
+    cache.get(realm, () -> check("a"), this::load);
+    assertThat(checks.get(), is(2));
+    assertThat(loads.get(), is(1));
+    // the check restarts the interval
+    now.addAndGet(4999);
+    cache.get(realm, () -> check("b"), this::load);
+    assertThat(checks.get(), is(2));
+
+    now.addAndGet(1);
+    cache.get(realm, () -> check("b"), this::load);
+    assertThat(loads.get(), is(2));
+  }
+
+  @Test
+  public void changedUpdatesRevisionOncePerSessionAndDropsEntryOnCommit() {
+    WebhookCache cache = new WebhookCache(60000, 5000, 10, now::get);
+    RealmModel realm = realm("r1");
+    Map<String, WebhookRevisionEntity> revisions = new HashMap<>();
+    WebhookRevisionEntity row = new WebhookRevisionEntity();
+    row.setRealmId("r1");
+    row.setRevision("a");
+    revisions.put("r1", row);
+    EntityManager em = em(revisions);
+    List<KeycloakTransaction> afterCompletion = new ArrayList<>();
+    KeycloakSession session = session(afterCompletion);
+
+    cache.get(realm, () -> WebhookCache.revision(em, realm), this::load);
+    WebhookCache.changed(session, em, realm, cache);
+    String revision = WebhookCache.revision(em, realm);
+    assertThat(revision, not(is("a")));
+    WebhookCache.changed(session, em, realm, cache);
+    assertThat(WebhookCache.revision(em, realm), is(revision));
+    assertThat(afterCompletion.size(), is(1));
+
+    // the entry is used until the change is committed
+    cache.get(realm, () -> WebhookCache.revision(em, realm), this::load);
+    assertThat(loads.get(), is(1));
+    afterCompletion.get(0).begin();
+    afterCompletion.get(0).commit();
+    cache.get(realm, () -> WebhookCache.revision(em, realm), this::load);
+    assertThat(loads.get(), is(2));
+
+    WebhookCache.changed(session(afterCompletion), em, realm, cache);
+    assertThat(WebhookCache.revision(em, realm), not(is(revision)));
+  }
+
+  @Test
+  public void realmsAreCachedSeparately() {
+    WebhookCache cache = new WebhookCache(60000, 5000, 10, now::get);
+    RealmModel r1 = realm("r1");
+    RealmModel r2 = realm("r2");
+
+    cache.get(r1, () -> null, this::load);
+    cache.get(r2, () -> null, this::load);
+    cache.get(r1, () -> null, this::load);
+    assertThat(loads.get(), is(2));
+    assertThat(cache.size(), is(2L));
+
+    cache.invalidate("r1");
+    cache.get(r1, () -> null, this::load);
+    cache.get(r2, () -> null, this::load);
+    assertThat(loads.get(), is(3));
+  }
+
+  private String check(String revision) {
+    checks.incrementAndGet();
+    return revision;
+  }
+
+  private List<WebhookModel> load() {
+    loads.incrementAndGet();
+    return ImmutableList.of();
+  }
+
+  private static RealmModel realm(String id) {
+    return (RealmModel)
+        Proxy.newProxyInstance(
+            WebhookCacheTest.class.getClassLoader(),
+            new Class<?>[] {RealmModel.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "getId":
+                case "getName":
+                  return id;
+                default:
+              }
+              throw new UnsupportedOperationException(method.getName());
+            });
+  }
+
+  /** An entity manager that only finds revisions and runs the revision update. */
+  private static EntityManager em(Map<String, WebhookRevisionEntity> revisions) {
+    return (EntityManager)
+        Proxy.newProxyInstance(
+            WebhookCacheTest.class.getClassLoader(),
+            new Class<?>[] {EntityManager.class},
+            (proxy, method, args) -> {
+              if ("find".equals(method.getName()) && args.length == 2) {
+                return revisions.get((String) args[1]);
+              }
+              if ("createNamedQuery".equals(method.getName())
+                  && "updateWebhookRevision".equals(args[0])) {
+                return update(revisions);
+              }
+              throw new UnsupportedOperationException(method.getName());
+            });
+  }
+
+  private static Query update(Map<String, WebhookRevisionEntity> revisions) {
+    Map<String, Object> parameters = new HashMap<>();
+    return (Query)
+        Proxy.newProxyInstance(
+            WebhookCacheTest.class.getClassLoader(),
+            new Class<?>[] {Query.class},
+            (proxy, method, args) -> {
+              if ("setParameter".equals(method.getName())) {
+                parameters.put((String) args[0], args[1]);
+                return proxy;
+              }
+              if ("executeUpdate".equals(method.getName())) {
+                WebhookRevisionEntity e = revisions.get((String) parameters.get("realmId"));
+                if (e == null) return 0;
+                e.setRevision((String) parameters.get("revision"));
+                return 1;
+              }
+              throw new UnsupportedOperationException(method.getName());
+            });
+  }
+
+  private static KeycloakSession session(List<KeycloakTransaction> afterCompletion) {
+    Map<String, Object> attributes = new HashMap<>();
+    KeycloakTransactionManager transactions =
+        (KeycloakTransactionManager)
+            Proxy.newProxyInstance(
+                WebhookCacheTest.class.getClassLoader(),
+                new Class<?>[] {KeycloakTransactionManager.class},
+                (proxy, method, args) -> {
+                  if ("enlistAfterCompletion".equals(method.getName())) {
+                    afterCompletion.add((KeycloakTransaction) args[0]);
+                    return null;
+                  }
+                  throw new UnsupportedOperationException(method.getName());
+                });
+    return (KeycloakSession)
+        Proxy.newProxyInstance(
+            WebhookCacheTest.class.getClassLoader(),
+            new Class<?>[] {KeycloakSession.class},
+            (proxy, method, args) -> {
+              if ("getAttribute".equals(method.getName()) && args.length == 1) {
+                return attributes.get((String) args[0]);
+              }
+              if ("setAttribute".equals(method.getName())) {
+                attributes.put((String) args[0], args[1]);
+                return null;
+              }
+              if ("getTransactionManager".equals(method.getName())) {
+                return transactions;
+              }
+              throw new UnsupportedOperationException(method.getName());
+            });
+  }
+}
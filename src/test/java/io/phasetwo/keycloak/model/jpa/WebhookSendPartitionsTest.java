@@ -0,0 +1,74 @@
+package io.phasetwo.keycloak.model.jpa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import io.phasetwo.keycloak.model.jpa.WebhookSendPartitions.Partition;
+import io.phasetwo.keycloak.model.jpa.WebhookSendPartitions.Period;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class WebhookSendPartitionsTest {
+
+  private static final LocalDateTime NOW = LocalDateTime.of(2026, 10, 18, 12, 30);
+
+  private static List<String> names(List<Partition> partitions) {
+    return partitions.stream().map(Partition::getName).collect(Collectors.toList());
+  }
+
+  @Test
+  public void parsesBounds() {
+    Partition legacy =
+        WebhookSendPartitions.parse(
+            "webhook_send_legacy", "FOR VALUES FROM (MINVALUE) TO ('2026-11-01 00:00:00')");
+    assertThat(legacy.getFrom(), nullValue());
+    assertThat(legacy.getTo(), is(LocalDateTime.of(2026, 11, 1, 0, 0)));
+    Partition month =
+        WebhookSendPartitions.parse(
+            "webhook_send_p202611",
+            "FOR VALUES FROM ('2026-11-01 00:00:00') TO ('2026-12-01 00:00:00.5')");
+    assertThat(month.getFrom(), is(LocalDateTime.of(2026, 11, 1, 0, 0)));
+    assertThat(month.getTo(), is(LocalDateTime.of(2026, 12, 1, 0, 0)));
+    Partition other = WebhookSendPartitions.parse("webhook_send_default", "DEFAULT");
+    assertThat(other.getFrom(), nullValue());
+    assertThat(other.getTo(), nullValue());
+  }
+
+  @Test
+  public void createsPartitionsAfterTheLastOne() {
+    List<Partition> existing =
+        List.of(
+            new Partition("webhook_send_legacy", null, LocalDateTime.of(2026, 11, 1, 0, 0)),
+            new Partition("webhook_send_default", null, null));
+    List<Partition> create = WebhookSendPartitions.toCreate(existing, NOW, Period.MONTH, 3);
+    assertThat(
+        names(create),
+        is(List.of("webhook_send_p202611", "webhook_send_p202612", "webhook_send_p202701")));
+    assertThat(create.get(2).getTo(), is(LocalDateTime.of(2027, 2, 1, 0, 0)));
+
+    List<Partition> days = WebhookSendPartitions.toCreate(List.of(), NOW, Period.DAY, 1);
+    assertThat(names(days), is(List.of("webhook_send_p20261018", "webhook_send_p20261019")));
+  }
+
+  @Test
+  public void dropsPartitionsOlderThanTheCutoff() {
+    List<Partition> existing =
+        List.of(
+            new Partition("webhook_send_legacy", null, LocalDateTime.of(2026, 8, 1, 0, 0)),
+            new Partition(
+                "webhook_send_p202608",
+                LocalDateTime.of(2026, 8, 1, 0, 0),
+                LocalDateTime.of(2026, 9, 1, 0, 0)),
+            new Partition(
+                "webhook_send_p202609",
+                LocalDateTime.of(2026, 9, 1, 0, 0),
+                LocalDateTime.of(2026, 10, 1, 0, 0)),
+            new Partition("webhook_send_default", null, null));
+    assertThat(
+        names(WebhookSendPartitions.toDrop(existing, NOW.minusDays(30))),
+        is(List.of("webhook_send_legacy", "webhook_send_p202608")));
+  }
+}
@@ -0,0 +1,79 @@
+package io.phasetwo.keycloak.representation;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.util.JsonSerialization;
+
+public class ExtendedAdminEventTest {
+
+  private static ExtendedAdminEvent adminEvent() {
+    ExtendedAdminEvent event = new ExtendedAdminEvent();
+    event.setUid("uid-1");
+    event.setType("admin.USER-CREATE");
+    event.setId("admin-event-id");
+    event.setTime(1700000000000L);
+    event.setRealmId("realm-uuid");
+    event.setRealmName("acme");
+    event.setOperationType(OperationType.CREATE);
+    event.setResourceType(ResourceType.USER);
+    event.setResourcePath("users/abc");
+    event.setRepresentation("{\"username\":\"alice\"}");
+    event.setError("some_error");
+    event.setDetails(ImmutableMap.of("userId", "abc", "username", "alice"));
+
+    ExtendedAuthDetails auth = new ExtendedAuthDetails();
+    auth.setRealmId("master");
+    auth.setRealmName("master");
+    auth.setClientId("admin-cli");
+    auth.setUserId("admin-user-uuid");
+    auth.setIpAddress("10.0.0.2");
+    auth.setUsername("admin");
+    auth.setSessionId("session-id");
+    event.setAuthDetails(auth);
+    return event;
+  }
+
+  @Test
+  public void copyMatchesJsonRoundTrip() throws Exception {
+    ExtendedAdminEvent event = adminEvent();
+    ExtendedAdminEvent roundTrip =
+        JsonSerialization.readValue(
+            JsonSerialization.writeValueAsString(event), ExtendedAdminEvent.class);
+    ExtendedAdminEvent copy = new ExtendedAdminEvent(event);
+
+    assertThat(
+        JsonSerialization.writeValueAsString(copy),
+        equalTo(JsonSerialization.writeValueAsString(roundTrip)));
+  }
+
+  @Test
+  public void copyDoesNotShareMutableState() {
+    ExtendedAdminEvent event = adminEvent();
+    ExtendedAdminEvent copy = new ExtendedAdminEvent(event);
+    copy.setUid("uid-2");
+    copy.getDetails().put("extra", "value");
+    copy.getAuthDetails().setUsername("someone-else");
+
+    assertThat(event.getUid(), equalTo("uid-1"));
+    assertThat(event.getDetails().containsKey("extra"), is(false));
+    assertThat(event.getAuthDetails().getUsername(), equalTo("admin"));
+    assertThat(copy.getAuthDetails(), not(sameInstance(event.getAuthDetails())));
+    assertThat(copy.getRepresentation(), sameInstance(event.getRepresentation()));
+  }
+
+  @Test
+  public void copyWithoutAuthDetails() {
+    ExtendedAdminEvent event = adminEvent();
+    event.setAuthDetails((ExtendedAuthDetails) null);
+    assertThat(new ExtendedAdminEvent(event).getAuthDetails(), nullValue());
+  }
+}
@@ -56,7 +56,16 @@ public abstract class AbstractResourceTest {
             .withReuse(true)
             .withProviderClassesFrom("target/classes")
             .withProviderLibsFrom(getDeps())
-            .withAccessToHost(true);
+            .withAccessToHost(true)
+            .withEnabledMetrics()
+            .withEnv("KC_SPI_EVENTS_LISTENER_EXT_EVENT_WEBHOOK_STORE_WEBHOOK_EVENTS", "true")
+            // a short outbox lease and a small queue that spills to it, so that tests exercise
+            // claims, renewals and resumed deliveries
+            .withEnv("KC_SPI_EVENTS_LISTENER_EXT_EVENT_WEBHOOK_OUTBOX_ENABLED", "true")
+            .withEnv("KC_SPI_EVENTS_LISTENER_EXT_EVENT_WEBHOOK_OUTBOX_LEASE_MILLIS", "2000")
+            .withEnv("KC_SPI_EVENTS_LISTENER_EXT_EVENT_WEBHOOK_OUTBOX_POLL_INTERVAL_MILLIS", "500")
+            .withEnv("KC_SPI_EVENTS_LISTENER_EXT_EVENT_WEBHOOK_QUEUE_CAPACITY", "2")
+            .withEnv("KC_SPI_EVENTS_LISTENER_EXT_EVENT_WEBHOOK_QUEUE_OVERFLOW", "spill");
     if (isJacocoPresent()) {
       keycloakContainer =
           keycloakContainer
@@ -0,0 +1,26 @@
+package io.phasetwo.keycloak.resources;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+
+public class SendCursorTest {
+
+  @Test
+  public void roundTrips() {
+    SendCursor cursor = new SendCursor(new Date(1760788800123L), "4f1c,id");
+    SendCursor parsed = SendCursor.parse(cursor.encode());
+    assertThat(parsed.getSentAt(), is(new Date(1760788800123L)));
+    assertThat(parsed.getId(), is("4f1c,id"));
+  }
+
+  @Test
+  public void rejectsInvalidTokens() {
+    assertThrows(IllegalArgumentException.class, () -> SendCursor.parse("not base64!"));
+    assertThrows(IllegalArgumentException.class, () -> SendCursor.parse("bm9jb21tYQ"));
+    assertThrows(IllegalArgumentException.class, () -> SendCursor.parse("YWJjLGlk"));
+  }
+}
@@ -0,0 +1,119 @@
+package io.phasetwo.keycloak.resources;
+
+import static io.phasetwo.keycloak.Helpers.addEventListener;
+import static io.phasetwo.keycloak.Helpers.createUser;
+import static io.phasetwo.keycloak.Helpers.createWebhook;
+import static io.phasetwo.keycloak.Helpers.removeEventListener;
+import static io.phasetwo.keycloak.Helpers.removeWebhook;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableSet;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.jbosslog.JBossLog;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * Sends deliveries through the outbox, which {@link AbstractResourceTest} enables with a 2s lease,
+ * a 500ms poll and a lane capacity of 2 that spills to the outbox. The receiver is slower than
+ * the lease, so deliveries wait in their lane and in flight for longer than a single claim lasts,
+ * and the overflow is resumed by the poller. Each event must still arrive exactly once.
+ */
+@JBossLog
+public class WebhookOutboxTest extends AbstractResourceTest {
+
+  static final long RECEIVER_LATENCY = 2500;
+  static final int USERS = 8;
+
+  CloseableHttpClient httpClient = HttpClients.createDefault();
+  HttpServer server;
+  ExecutorService threads;
+  String webhookId;
+
+  // delivered and failed attempts, by event uid
+  final Map<String, AtomicInteger> delivered = new ConcurrentHashMap<>();
+  final Map<String, AtomicInteger> failed = new ConcurrentHashMap<>();
+  // fail the first attempt of every other event, so its retry goes through the outbox
+  final AtomicInteger first = new AtomicInteger();
+
+  String baseUrl() {
+    return getAuthUrl() + "/realms/master/webhooks";
+  }
+
+  @BeforeEach
+  public void setup() throws Exception {
+    addEventListener(keycloak, "master", "ext-event-webhook");
+    threads = Executors.newFixedThreadPool(16);
+    server = HttpServer.create(new InetSocketAddress(WEBHOOK_SERVER_PORT), 64);
+    server.createContext("/webhook", this::handle);
+    server.setExecutor(threads);
+    server.start();
+    webhookId =
+        createWebhook(
+            keycloak,
+            httpClient,
+            baseUrl(),
+            "http://host.testcontainers.internal:" + WEBHOOK_SERVER_PORT + "/webhook",
+            "outbox-secret",
+            ImmutableSet.of("admin.USER-CREATE"));
+  }
+
+  @AfterEach
+  public void teardown() throws Exception {
+    removeWebhook(keycloak, httpClient, baseUrl(), webhookId);
+    removeEventListener(keycloak, "master", "ext-event-webhook");
+    server.stop(0);
+    threads.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    JsonNode event = JsonSerialization.readValue(exchange.getRequestBody(), JsonNode.class);
+    String uid = event.path("uid").asText();
+    try {
+      Thread.sleep(RECEIVER_LATENCY);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!failed.containsKey(uid) && first.getAndIncrement() % 2 == 0) {
+      failed.computeIfAbsent(uid, k -> new AtomicInteger()).incrementAndGet();
+      exchange.sendResponseHeaders(503, -1);
+    } else {
+      log.infof("delivered %s", uid);
+      delivered.computeIfAbsent(uid, k -> new AtomicInteger()).incrementAndGet();
+      exchange.sendResponseHeaders(204, -1);
+    }
+    exchange.close();
+  }
+
+  @Test
+  public void testDeliversQueuedAndResumedEventsOnce() throws Exception {
+    for (int i = 0; i < USERS; i++) {
+      createUser(keycloak, "master", "outbox-" + i);
+    }
+
+    long deadline = System.currentTimeMillis() + 60000;
+    while (delivered.size() < USERS && System.currentTimeMillis() < deadline) {
+      Thread.sleep(500l);
+    }
+    // wait out a few leases, in case an expired claim lets a delivery be sent again
+    Thread.sleep(3 * 2000l);
+
+    assertThat(delivered.size(), is(USERS));
+    assertThat(failed.size() > 0, is(true));
+    delivered.forEach((uid, count) -> assertThat("deliveries of " + uid, count.get(), is(1)));
+  }
+}
@@ -0,0 +1,205 @@
+package io.phasetwo.keycloak.resources;
+
+import static io.phasetwo.keycloak.Helpers.addEventListener;
+import static io.phasetwo.keycloak.Helpers.createUser;
+import static io.phasetwo.keycloak.Helpers.removeEventListener;
+import static io.phasetwo.keycloak.Helpers.removeWebhook;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableSet;
+import com.sun.net.httpserver.HttpServer;
+import io.phasetwo.keycloak.representation.WebhookRepresentation;
+import io.phasetwo.keycloak.representation.WebhookSend;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import lombok.extern.jbosslog.JBossLog;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.broker.provider.util.LegacySimpleHttp;
+import org.keycloak.representations.idm.RealmRepresentation;
+import org.keycloak.util.JsonSerialization;
+
+/** Stored webhook sends: paging through them, their payloads, and resending them. */
+@JBossLog
+public class WebhookSendsTest extends AbstractResourceTest {
+
+  static final int USERS = 10;
+  static final int BATCH_SIZE = 5;
+  static final int PAGE_SIZE = 3;
+
+  CloseableHttpClient httpClient = HttpClients.createDefault();
+  HttpServer server;
+  String webhookId;
+  final Queue<String> bodies = new ConcurrentLinkedQueue<>();
+
+  String baseUrl() {
+    return getAuthUrl() + "/realms/master/webhooks";
+  }
+
+  @BeforeEach
+  public void setup() throws Exception {
+    addEventListener(keycloak, "master", "ext-event-webhook");
+    server = HttpServer.create(new InetSocketAddress(WEBHOOK_SERVER_PORT), 64);
+    server.createContext(
+        "/webhook",
+        exchange -> {
+          bodies.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+          exchange.sendResponseHeaders(204, -1);
+          exchange.close();
+        });
+    server.start();
+  }
+
+  void createWebhook(Set<String> types, Integer batchSize) throws Exception {
+    WebhookRepresentation rep = new WebhookRepresentation();
+    rep.setEnabled(true);
+    rep.setUrl("http://host.testcontainers.internal:" + WEBHOOK_SERVER_PORT + "/webhook");
+    rep.setSecret("sends-secret");
+    rep.setEventTypes(types);
+    rep.setBatchSize(batchSize);
+    rep.setBatchLingerMillis(5000);
+    LegacySimpleHttp.Response response =
+        LegacySimpleHttp.doPost(baseUrl(), httpClient)
+            .auth(keycloak.tokenManager().getAccessTokenString())
+            .json(rep)
+            .asResponse();
+    assertThat(response.getStatus(), is(201));
+    String loc = response.getFirstHeader("Location");
+    webhookId = loc.substring(loc.lastIndexOf("/") + 1);
+  }
+
+  @AfterEach
+  public void teardown() throws Exception {
+    if (webhookId != null) removeWebhook(keycloak, httpClient, baseUrl(), webhookId);
+    removeEventListener(keycloak, "master", "ext-event-webhook");
+    server.stop(0);
+  }
+
+  LegacySimpleHttp.Response sends(String after, int max) throws Exception {
+    LegacySimpleHttp request =
+        LegacySimpleHttp.doGet(baseUrl() + "/" + webhookId + "/sends", httpClient)
+            .auth(keycloak.tokenManager().getAccessTokenString())
+            .param("max", Integer.toString(max));
+    if (after != null) request.param("after", after);
+    return request.asResponse();
+  }
+
+  /** Wait for {@code count} sends to be stored. They are recorded after delivery, and behind. */
+  List<WebhookSend> awaitSends(int count) throws Exception {
+    long deadline = System.currentTimeMillis() + 30000;
+    List<WebhookSend> all = List.of();
+    while (System.currentTimeMillis() < deadline) {
+      all = sends(null, 100).asJson(new TypeReference<List<WebhookSend>>() {});
+      if (all.size() >= count) break;
+      Thread.sleep(500l);
+    }
+    assertThat(all.size(), is(count));
+    return all;
+  }
+
+  WebhookSend send(String id) throws Exception {
+    return LegacySimpleHttp.doGet(baseUrl() + "/" + webhookId + "/sends/" + id, httpClient)
+        .auth(keycloak.tokenManager().getAccessTokenString())
+        .asJson(WebhookSend.class);
+  }
+
+  @Test
+  public void testPagesThroughSendsWithEqualTimes() throws Exception {
+    // the sends of the events in one batch are recorded with the same time, so pages have to be
+    // split between sends that are only told apart by their ids
+    createWebhook(ImmutableSet.of("admin.USER-CREATE"), BATCH_SIZE);
+    for (int i = 0; i < USERS; i++) {
+      createUser(keycloak, "master", "sends-" + i);
+    }
+
+    List<WebhookSend> all = awaitSends(USERS);
+    // the sends of a batch share their time
+    assertThat(all.get(0).getSentAt(), is(all.get(BATCH_SIZE - 1).getSentAt()));
+
+    List<String> paged = new ArrayList<>();
+    String after = null;
+    do {
+      LegacySimpleHttp.Response response = sends(after, PAGE_SIZE);
+      assertThat(response.getStatus(), is(200));
+      response
+          .asJson(new TypeReference<List<WebhookSend>>() {})
+          .forEach(send -> paged.add(send.getId()));
+      after = response.getFirstHeader(WebhooksResource.NEXT_CURSOR_HEADER);
+      log.debugf("page ends at %d, next %s", paged.size(), after);
+    } while (after != null && paged.size() <= USERS);
+
+    Set<String> distinct = new HashSet<>(paged);
+    assertThat(distinct.size(), is(USERS));
+    assertThat(paged.size(), is(USERS));
+    for (int i = 0; i < USERS; i++) {
+      assertThat(paged.get(i), is(all.get(i).getId()));
+    }
+  }
+
+  @Test
+  public void testStoresPayloadsOnlyForSendsWithoutEvents() throws Exception {
+    RealmResource realm = keycloak.realm("master");
+    RealmRepresentation realmRepresentation = realm.toRepresentation();
+    realmRepresentation.setAdminEventsEnabled(true);
+    realm.update(realmRepresentation);
+    createWebhook(ImmutableSet.of("admin.USER-CREATE", "sends.PAYLOAD"), null);
+
+    createUser(keycloak, "master", "payload-user");
+    LegacySimpleHttp.Response published =
+        LegacySimpleHttp.doPost(getAuthUrl() + "/realms/master/events", httpClient)
+            .auth(keycloak.tokenManager().getAccessTokenString())
+            .json(Map.of("type", "sends.PAYLOAD", "resourcePath", "payload-path"))
+            .asResponse();
+    assertThat(published.getStatus(), is(202));
+
+    Map<String, WebhookSend> byType = new HashMap<>();
+    for (WebhookSend brief : awaitSends(2)) {
+      byType.put(brief.getEventType(), send(brief.getId()));
+    }
+
+    // a send of a stored event shows the event
+    WebhookSend stored = byType.get("admin.USER-CREATE");
+    assertThat(stored.getEventId(), notNullValue());
+    assertThat(stored.getPayload(), containsString("payload-user"));
+
+    // a send of a custom event has no event, and shows the body that was sent
+    WebhookSend custom = byType.get("sends.PAYLOAD");
+    assertThat(custom.getEventId(), nullValue());
+    assertThat(custom.getPayload(), containsString("payload-path"));
+    assertThat(custom.getPayload(), containsString(custom.getId()));
+
+    // and is resent from that body, with the send's id as its uid
+    bodies.clear();
+    LegacySimpleHttp.Response resent =
+        LegacySimpleHttp.doPost(
+                baseUrl() + "/" + webhookId + "/sends/" + custom.getId() + "/resend", httpClient)
+            .auth(keycloak.tokenManager().getAccessTokenString())
+            .asResponse();
+    assertThat(resent.getStatus(), is(202));
+    long deadline = System.currentTimeMillis() + 15000;
+    while (bodies.isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(100l);
+    }
+    JsonNode body = JsonSerialization.readValue(bodies.peek(), JsonNode.class);
+    assertThat(body.path("uid").asText(), is(custom.getId()));
+    assertThat(body.path("resourcePath").asText(), is("payload-path"));
+  }
+}